@@ -6,6 +6,7 @@ plugins {
     id("com.github.spotbugs") version "6.1.4"
     id("checkstyle")
     id("pmd")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.example"
@@ -46,12 +47,30 @@ dependencies {
     
     // Annotation processor for picocli
     annotationProcessor("info.picocli:picocli-codegen:4.7.6")
+
+    // Unit tests
+    testImplementation(platform("org.junit:junit-bom:5.11.3"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 application {
     mainClass.set("com.example.pijava.App")
 }
 
+// Local stand-in for the OpenAI/Anthropic APIs: ./gradlew mockServer [-PmockPort=8080]
+tasks.register<JavaExec>("mockServer") {
+    group = "application"
+    description = "Runs the mock LLM server for offline and load testing"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.pijava.agent.provider.MockLlmServer")
+    args(providers.gradleProperty("mockPort").orElse("8080").get())
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
 tasks.jar {
     manifest {
         attributes["Main-Class"] = "com.example.pijava.App"
@@ -109,6 +128,31 @@ tasks.withType<Pmd> {
     }
 }
 
+// JMH microbenchmarks (src/jmh/java): ./gradlew jmh
+jmh {
+    jmhVersion = "1.37"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    resultFormat = "JSON"
+    // Allocation per operation (gc.alloc.rate.norm); override with -PjmhProfilers=
+    profilers = listOfNotNull(providers.gradleProperty("jmhProfilers").getOrElse("gc").ifBlank { null })
+    // Select benchmarks with -PjmhIncludes=<regex>
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes = listOf(it) }
+}
+
+// Generated JMH harness code does not compile warning-free
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.compilerArgs.remove("-Werror")
+}
+
+// Static analysis covers production code only, not benchmarks or tests
+tasks.matching {
+    it.name in setOf("checkstyleJmh", "pmdJmh", "spotbugsJmh", "checkstyleTest", "pmdTest", "spotbugsTest")
+}.configureEach {
+    enabled = false
+}
+
 graalvmNative {
     binaries {
         named("main") {
@@ -0,0 +1,137 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.agent.tool.Tool;
+import com.example.pijava.agent.tool.ToolRegistry;
+import com.example.pijava.agent.tool.ToolRegistryBenchmark;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-round cost of turning the conversation into an SDK request, which
+ * every call pays before anything goes over the network.
+ *
+ * <p>The history is synthetic and deterministic: a system prompt, then
+ * rounds of a user message, an assistant tool call with nested JSON
+ * arguments, its tool result and an assistant reply. The providers point at
+ * an unused local address and are never asked to send anything.</p>
+ *
+ * <p>The {@code *Round} benchmarks build the request for the same history
+ * each time, as the agent does between rounds: messages and tool
+ * definitions come from the conversion caches. The {@code *Uncached}
+ * benchmarks alternate between two copies of the history (equal messages,
+ * distinct instances) and invalidate the tool catalogue, so every message
+ * and tool schema is converted again, which shows how the full cost grows
+ * with session length. The GC profiler runs by default (see
+ * {@code build.gradle.kts}), so {@code gc.alloc.rate.norm} reports the
+ * bytes allocated per request.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProviderRequestBenchmark {
+
+    private static final String BASE_URL = "http://127.0.0.1:9";
+
+    @Param({"10", "100", "1000"})
+    public int historyLength;
+
+    @Param({"3", "24", "96"})
+    public int toolCount;
+
+    private OpenAiLlmProvider openAi;
+    private AnthropicLlmProvider anthropic;
+    private ToolRegistry registry;
+    private Tool probe;
+    private List<ContextMessage> history;
+    private List<ContextMessage> copy;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        openAi = new OpenAiLlmProvider("benchmark", BASE_URL + "/v1", "gpt-4o");
+        anthropic = new AnthropicLlmProvider("benchmark", BASE_URL, "claude-sonnet-4-20250514");
+        registry = new ToolRegistry();
+        for (int i = 0; i < toolCount; i++) {
+            registry.register(new ToolRegistryBenchmark.SyntheticTool("tool_" + i));
+        }
+        probe = new ToolRegistryBenchmark.SyntheticTool("tool_0");
+        history = history(historyLength);
+        copy = history(historyLength);
+    }
+
+    @Benchmark
+    public Object openAiRound() {
+        return openAi.buildParams(history, registry, true);
+    }
+
+    @Benchmark
+    public Object anthropicRound() {
+        return anthropic.buildParams(history, registry);
+    }
+
+    @Benchmark
+    public Object openAiUncached() {
+        registry.register(probe);
+        return openAi.buildParams(next(), registry, true);
+    }
+
+    @Benchmark
+    public Object anthropicUncached() {
+        registry.register(probe);
+        return anthropic.buildParams(next(), registry);
+    }
+
+    /** The copy of the history the conversion caches did not see last time. */
+    private List<ContextMessage> next() {
+        flip = !flip;
+        return flip ? copy : history;
+    }
+
+    /** A system prompt followed by {@code length - 1} messages in four-message rounds. */
+    static List<ContextMessage> history(int length) {
+        var messages = new ArrayList<ContextMessage>(length);
+        messages.add(ContextMessage.system("You are a coding agent working in a Java repository. "
+                .repeat(20)));
+        for (int i = 1; i < length; i++) {
+            var callId = "call_" + (i / 4);
+            messages.add(switch (i % 4) {
+                case 1 -> ContextMessage.user("Find where the render loop wraps lines and make "
+                        + "it skip messages that are off screen (step " + i + ").");
+                case 2 -> ContextMessage.assistantWithToolCalls("Let me look at the file first.",
+                        List.of(new ContextMessage.ToolCallData(callId, "function",
+                                new ContextMessage.FunctionData("tool_0", "{\"path\": "
+                                        + "\"src/main/java/Render" + i + ".java\", \"max_depth\": 3, "
+                                        + "\"include\": [\"*.java\", \"*.kt\"], "
+                                        + "\"options\": {\"follow\": true, \"limit\": 2.5}}"))));
+                case 3 -> ContextMessage.toolResult(callId, toolOutput(i));
+                default -> ContextMessage.assistant("The wrap happens in `wrapLine`; I changed "
+                        + "the loop to stop at the viewport and the tests pass.");
+            });
+        }
+        return messages;
+    }
+
+    private static String toolOutput(int seed) {
+        var text = new StringBuilder();
+        for (int line = 0; line < 40; line++) {
+            text.append(String.format("%4d  final var width%d = Math.max(1, size.getColumns() - %d);\n",
+                    line + 1, seed, line));
+        }
+        return text.toString();
+    }
+}
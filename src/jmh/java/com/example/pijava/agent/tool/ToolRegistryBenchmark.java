@@ -0,0 +1,112 @@
+package com.example.pijava.agent.tool;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of producing the per-request tool catalogue.
+ *
+ * <p>The {@code cached*} benchmarks measure what every LLM call pays now
+ * that catalogues are memoized; the {@code rebuild*} benchmarks invalidate
+ * the cache first and so measure a full conversion of every tool schema,
+ * which is what each call paid before.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ToolRegistryBenchmark {
+
+    @Param({"3", "24", "96"})
+    public int toolCount;
+
+    private ToolRegistry registry;
+    private Tool probe;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new ToolRegistry();
+        for (int i = 0; i < toolCount; i++) {
+            registry.register(new SyntheticTool("tool_" + i));
+        }
+        probe = new SyntheticTool("tool_0");
+    }
+
+    @Benchmark
+    public Object cachedSdkTools() {
+        return registry.toSdkTools();
+    }
+
+    @Benchmark
+    public Object cachedAnthropicTools() {
+        return registry.toAnthropicTools();
+    }
+
+    @Benchmark
+    public Object rebuildSdkTools() {
+        registry.register(probe);
+        return registry.toSdkTools();
+    }
+
+    @Benchmark
+    public Object rebuildAnthropicTools() {
+        registry.register(probe);
+        return registry.toAnthropicTools();
+    }
+
+    /**
+     * Tool with a schema comparable in size to the built-in tools; also
+     * used by the provider benchmarks.
+     */
+    public static final class SyntheticTool implements Tool {
+
+        private final String name;
+
+        public SyntheticTool(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String description() {
+            return "Synthetic benchmark tool " + name + " with a realistic description length.";
+        }
+
+        @Override
+        public JsonObject parametersSchema() {
+            var properties = new JsonObject();
+            for (var prop : new String[] {"path", "pattern", "max_depth", "include"}) {
+                var p = new JsonObject();
+                p.addProperty("type", "max_depth".equals(prop) ? "integer" : "string");
+                p.addProperty("description", "The " + prop + " argument");
+                properties.add(prop, p);
+            }
+            var required = new JsonArray();
+            required.add("path");
+
+            var schema = new JsonObject();
+            schema.addProperty("type", "object");
+            schema.add("properties", properties);
+            schema.add("required", required);
+            return schema;
+        }
+
+        @Override
+        public String execute(JsonObject arguments) {
+            return "";
+        }
+    }
+}
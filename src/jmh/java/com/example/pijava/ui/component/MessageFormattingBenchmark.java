@@ -0,0 +1,73 @@
+package com.example.pijava.ui.component;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.jline.terminal.Size;
+import org.jline.utils.AttributedStyle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the per-line helpers behind {@link MessageListBenchmark}'s
+ * frames: word wrapping, markdown table layout and code highlighting, on
+ * inputs generated the same way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageFormattingBenchmark {
+
+    private static final AttributedStyle CODE_STYLE =
+            AttributedStyle.DEFAULT.foreground(AttributedStyle.WHITE);
+
+    @Param({"80", "200"})
+    public int width;
+
+    private MessageListComponent component;
+    private Size size;
+    private int wrapWidth;
+    private String proseLine;
+    private String tableMessage;
+    private String codeLine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new Random(42);
+        component = new MessageListComponent(new ArrayList<>());
+        size = new Size(width, 50);
+        wrapWidth = Math.max(1, width - 2);
+        proseLine = MessageListBenchmark.prose(random, 400);
+        tableMessage = "Results per module:\n\n" + MessageListBenchmark.table(random, 20);
+        // A keyword, a string, numbers and a comment: every highlighting branch
+        codeLine = "final var total = compute(items, \"discount\", 0.15); // promo 2025";
+    }
+
+    @Benchmark
+    public Object wrapLine() {
+        return component.wrapLine(proseLine, wrapWidth);
+    }
+
+    @Benchmark
+    public Object preprocessMarkdownTables() {
+        return component.preprocessMarkdownTables(tableMessage);
+    }
+
+    @Benchmark
+    public Object putCodeString() {
+        var ctx = new RenderContext(size);
+        component.putCodeString(ctx, 0, 4, codeLine, CODE_STYLE);
+        return ctx;
+    }
+}
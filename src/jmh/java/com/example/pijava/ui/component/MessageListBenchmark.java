@@ -0,0 +1,191 @@
+package com.example.pijava.ui.component;
+
+import com.example.pijava.model.Message;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.jline.terminal.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of rendering the transcript, which happens on every keystroke.
+ *
+ * <p>Transcripts are synthetic and deterministic: prose with inline
+ * markdown, fenced code blocks, markdown tables, tool calls with large
+ * outputs (a few of them 2,000 lines long), or a mix of all four.
+ * {@code renderLatest} and {@code renderOldest} measure one full frame (a
+ * fresh {@link RenderContext} and a render) scrolled to either end, and
+ * {@code countTotalLines} the pass over the whole transcript that every
+ * frame starts with; {@link MessageFormattingBenchmark} covers the
+ * per-line helpers. The GC profiler runs by default (see
+ * {@code build.gradle.kts}), so {@code gc.alloc.rate.norm} reports the
+ * bytes allocated per frame.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageListBenchmark {
+
+    private static final int TERMINAL_ROWS = 50;
+    private static final Instant TIMESTAMP = Instant.parse("2025-01-01T12:00:00Z");
+    private static final String[] WORDS = {
+        "the", "agent", "reads", "a", "file", "and", "then", "runs", "tests", "for", "every",
+        "module", "before", "it", "reports", "what", "changed", "configuration", "render",
+        "terminal", "width", "message", "stream", "tool", "result", "context", "window",
+    };
+
+    @Param({"10", "100", "1000", "10000"})
+    public int messageCount;
+
+    @Param({"prose", "code", "tables", "tool_output", "mixed"})
+    public String content;
+
+    @Param({"80", "200"})
+    public int width;
+
+    private MessageListComponent component;
+    private List<Message> messages;
+    private Size size;
+    private int wrapWidth;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new Random(42);
+        messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            messages.add(message(i, random));
+        }
+        component = new MessageListComponent(messages);
+        size = new Size(width, TERMINAL_ROWS);
+        wrapWidth = Math.max(1, width - 2);
+    }
+
+    @Benchmark
+    public Object renderLatest() {
+        var ctx = new RenderContext(size);
+        component.scrollToBottom();
+        component.render(ctx);
+        return ctx;
+    }
+
+    @Benchmark
+    public Object renderOldest() {
+        var ctx = new RenderContext(size);
+        component.scrollUp(Integer.MAX_VALUE);
+        component.render(ctx);
+        return ctx;
+    }
+
+    @Benchmark
+    public int countTotalLines() {
+        return component.countTotalLines(messages, wrapWidth);
+    }
+
+    private Message message(int index, Random random) {
+        var kind = switch (content) {
+            case "mixed" -> switch (index % 8 / 2) {
+                case 0 -> "prose";
+                case 1 -> "code";
+                case 2 -> "tables";
+                default -> "tool_output";
+            };
+            default -> content;
+        };
+        boolean user = index % 2 == 0;
+        return switch (kind) {
+            case "prose" -> new Message(paragraphs(random, user ? 1 : 3),
+                    user ? Message.MessageType.USER : Message.MessageType.ASSISTANT, TIMESTAMP);
+            case "code" -> new Message("Here is the change:\n\n```java\n" + code(random, 30)
+                    + "```\n\nThat should fix it.", Message.MessageType.ASSISTANT, TIMESTAMP);
+            case "tables" -> new Message("Results per module:\n\n" + table(random, 12),
+                    Message.MessageType.ASSISTANT, TIMESTAMP);
+            default -> user
+                    ? new Message("run_command {\"command\": \"./gradlew test\"}",
+                            Message.MessageType.TOOL_CALL, TIMESTAMP)
+                    : new Message(toolOutput(random, index % 50 == 47 ? 2_000 : 200),
+                            Message.MessageType.TOOL_RESULT, TIMESTAMP);
+        };
+    }
+
+    static String paragraphs(Random random, int count) {
+        var text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append("\n\n");
+            }
+            text.append(prose(random, 60));
+        }
+        return text.toString();
+    }
+
+    static String prose(Random random, int words) {
+        var text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            var word = WORDS[random.nextInt(WORDS.length)];
+            switch (random.nextInt(20)) {
+                case 0 -> text.append("**").append(word).append("**");
+                case 1 -> text.append('`').append(word).append("()`");
+                default -> text.append(word);
+            }
+        }
+        return text.toString();
+    }
+
+    static String code(Random random, int lines) {
+        var text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append("    ".repeat(1 + random.nextInt(3)));
+            switch (random.nextInt(4)) {
+                case 0 -> text.append("// ").append(prose(random, 8));
+                case 1 -> text.append("if (count > ").append(random.nextInt(1000)).append(") {");
+                case 2 -> text.append("return \"").append(WORDS[random.nextInt(WORDS.length)])
+                        .append("\" + value;");
+                default -> text.append("final var ").append(WORDS[random.nextInt(WORDS.length)])
+                        .append(" = compute(").append(random.nextInt(100)).append(", 3.14);");
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    static String table(Random random, int rows) {
+        var text = new StringBuilder("| Module | Tests | Failures | Time | Notes |\n");
+        text.append("| --- | ---: | ---: | ---: | --- |\n");
+        for (int i = 0; i < rows; i++) {
+            text.append("| ").append(WORDS[random.nextInt(WORDS.length)])
+                    .append(" | ").append(random.nextInt(500))
+                    .append(" | ").append(random.nextInt(5))
+                    .append(" | ").append(random.nextInt(90_000)).append(" ms")
+                    .append(" | ").append(prose(random, 1 + random.nextInt(6)))
+                    .append(" |\n");
+        }
+        return text.toString();
+    }
+
+    static String toolOutput(Random random, int lines) {
+        var text = new StringBuilder("```\n");
+        for (int i = 0; i < lines; i++) {
+            text.append(String.format("[%05d] %s > Task :%s:test PASSED (%d ms)\n", i,
+                    WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)],
+                    random.nextInt(5_000)));
+        }
+        return text.append("```").toString();
+    }
+}
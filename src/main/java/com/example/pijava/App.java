@@ -8,6 +8,8 @@
 //DEPS com.anthropic:anthropic-java:2.15.0
 //JAVA_OPTIONS -Dlogback.configurationFile=logback.xml
 //SOURCES model/Message.java
+//SOURCES session/SessionJournal.java
+//SOURCES session/JournalCodec.java
 //SOURCES ui/component/Component.java
 //SOURCES ui/component/Layout.java
 //SOURCES ui/component/RenderContext.java
@@ -20,17 +22,48 @@
 //SOURCES ui/screen/MainScreen.java
 //SOURCES agent/ContextMessage.java
 //SOURCES agent/ContextManager.java
+//SOURCES agent/TokenEstimator.java
 //SOURCES agent/LlmClient.java
 //SOURCES agent/LlmProvider.java
+//SOURCES agent/LlmProviderException.java
+//SOURCES agent/RateLimiter.java
+//SOURCES agent/ChatListener.java
+//SOURCES agent/CancellationToken.java
 //SOURCES agent/provider/OpenAiLlmProvider.java
 //SOURCES agent/provider/AnthropicLlmProvider.java
+//SOURCES agent/provider/RetryingLlmProvider.java
+//SOURCES agent/provider/RateLimitedLlmProvider.java
+//SOURCES agent/provider/RoutingLlmProvider.java
+//SOURCES agent/provider/Cassette.java
+//SOURCES agent/provider/RecordingLlmProvider.java
+//SOURCES agent/provider/ReplayLlmProvider.java
+//SOURCES agent/provider/MockLlmServer.java
+//SOURCES agent/provider/CancellableWait.java
+//SOURCES agent/provider/MessageConversionCache.java
 //SOURCES agent/LlmResponse.java
+//SOURCES agent/TokenUsage.java
+//SOURCES agent/Histogram.java
+//SOURCES agent/MetricsRegistry.java
 //SOURCES agent/AgentLoop.java
+//SOURCES agent/ToolCallScheduler.java
 //SOURCES agent/tool/Tool.java
 //SOURCES agent/tool/ToolRegistry.java
+//SOURCES agent/tool/ToolPolicy.java
+//SOURCES agent/tool/ToolBudget.java
+//SOURCES agent/tool/ToolResultMemo.java
 //SOURCES agent/tool/ReadFileTool.java
+//SOURCES agent/tool/FileContentCache.java
+//SOURCES agent/tool/LineIndex.java
+//SOURCES agent/tool/Utf8.java
 //SOURCES agent/tool/ListFilesTool.java
+//SOURCES agent/tool/GitIgnore.java
 //SOURCES agent/tool/RunCommandTool.java
+//SOURCES agent/tool/ShellSession.java
+//SOURCES agent/tool/ShellSessionPool.java
+//SOURCES agent/tool/BoundedOutputCapture.java
+//SOURCES agent/tool/SearchCodeTool.java
+//SOURCES agent/tool/TrigramIndex.java
+//SOURCES agent/tool/TrigramQuery.java
 //JAVA 21+
 
 package com.example.pijava;
@@ -42,13 +75,31 @@ import com.example.pijava.agent.AgentLoop;
 import com.example.pijava.agent.ContextManager;
 import com.example.pijava.agent.LlmClient;
 import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.RateLimiter;
+import com.example.pijava.agent.TokenEstimator;
 import com.example.pijava.agent.provider.AnthropicLlmProvider;
 import com.example.pijava.agent.provider.OpenAiLlmProvider;
+import com.example.pijava.agent.provider.RateLimitedLlmProvider;
+import com.example.pijava.agent.provider.RecordingLlmProvider;
+import com.example.pijava.agent.provider.ReplayLlmProvider;
+import com.example.pijava.agent.provider.RetryingLlmProvider;
+import com.example.pijava.agent.provider.RoutingLlmProvider;
 import com.example.pijava.agent.tool.ListFilesTool;
 import com.example.pijava.agent.tool.ReadFileTool;
 import com.example.pijava.agent.tool.RunCommandTool;
+import com.example.pijava.agent.tool.SearchCodeTool;
+import com.example.pijava.agent.tool.ShellSessionPool;
 import com.example.pijava.agent.tool.ToolRegistry;
+import com.example.pijava.agent.tool.TrigramIndex;
+import com.example.pijava.model.Message;
+import com.example.pijava.session.SessionJournal;
 import com.example.pijava.ui.screen.MainScreen;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.Callable;
 import picocli.CommandLine;
 
@@ -83,6 +134,65 @@ public class App implements Callable<Integer> {
             defaultValue = "gpt-4o")
     private String model;
 
+    @Option(names = {"--parallel-tools"}, negatable = true, defaultValue = "true",
+            description = "Run read-only tool calls from one LLM round concurrently (default: true)")
+    private boolean parallelTools;
+
+    @Option(names = {"--early-tool-dispatch"}, negatable = true, defaultValue = "true",
+            description = "Start tool calls while the response is still streaming (default: true)")
+    private boolean earlyToolDispatch;
+
+    @Option(names = {"--context-budget"},
+            description = "Max estimated tokens of history sent per request (default: per-model)")
+    private Integer contextBudget;
+
+    @Option(names = {"--tool-budget"}, paramLabel = "<seconds>",
+            description = "Total tool execution time allowed per turn (default: 600)")
+    private Integer toolBudgetSeconds;
+
+    @Option(names = {"--backup"}, paramLabel = "<provider[:model][@base-url]>",
+            description = "Backup endpoint to hedge slow requests to and fail over to; repeatable. "
+                    + "The model defaults to --model only for the same provider")
+    private List<String> backups = new ArrayList<>();
+
+    @Option(names = {"--max-retries"}, paramLabel = "<n>", defaultValue = "4",
+            description = "Retries of a failed LLM request after a rate limit, overload or "
+                    + "network error (default: 4)")
+    private int maxRetries;
+
+    @Option(names = {"--requests-per-minute"}, paramLabel = "<n>",
+            description = "Client-side request rate limit (default: learned from the provider)")
+    private long requestsPerMinute;
+
+    @Option(names = {"--tokens-per-minute"}, paramLabel = "<n>",
+            description = "Client-side token rate limit (default: learned from the provider)")
+    private long tokensPerMinute;
+
+    @Option(names = {"--record"}, paramLabel = "<cassette>",
+            description = "Record every LLM call to a cassette file for --replay")
+    private Path recordCassette;
+
+    @Option(names = {"--replay"}, paramLabel = "<cassette>",
+            description = "Answer LLM calls from a recorded cassette instead of the API")
+    private Path replayCassette;
+
+    @Option(names = {"--replay-pacing"}, defaultValue = "ORIGINAL",
+            description = "Replay at the recorded speed (ORIGINAL) or as fast as possible (FAST) "
+                    + "(default: ORIGINAL)")
+    private ReplayLlmProvider.Pacing replayPacing;
+
+    @Option(names = {"--search-index"}, negatable = true, defaultValue = "true",
+            description = "Index the working directory for the search_code tool (default: true)")
+    private boolean searchIndex;
+
+    @Option(names = {"--resume"}, paramLabel = "<id>",
+            description = "Resume a saved session by id")
+    private String resume;
+
+    @Option(names = {"--save-session"}, negatable = true, defaultValue = "true",
+            description = "Journal the session to ~/.pi-java/sessions so it can be resumed (default: true)")
+    private boolean saveSession;
+
     @Override
     public Integer call() throws Exception {
         // Determine provider-specific API key
@@ -103,42 +213,171 @@ public class App implements Callable<Integer> {
             }
         }
 
+        SessionJournal.Resumed resumed = null;
+        SessionJournal journal;
+        if (resume != null) {
+            try {
+                resumed = SessionJournal.resume(
+                        SessionJournal.fileFor(SessionJournal.defaultDirectory(), resume));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Cannot resume session " + resume + ": " + e.getMessage());
+                return 1;
+            }
+            journal = resumed.journal();
+        } else {
+            journal = saveSession ? createJournal() : null;
+        }
+        List<Message> history = resumed != null ? resumed.messages() : List.of();
+
+        boolean agentEnabled = replayCassette != null || apiKey != null && !apiKey.isBlank();
+        var workspace = Path.of("").toAbsolutePath();
+        TrigramIndex index = agentEnabled && searchIndex
+                ? TrigramIndex.open(workspace, TrigramIndex.defaultIndexFile(workspace))
+                : null;
+        ShellSessionPool shells = agentEnabled ? new ShellSessionPool(workspace) : null;
+
         AgentLoop agent = null;
-        if (apiKey != null && !apiKey.isBlank()) {
+        if (agentEnabled) {
             var tools = new ToolRegistry();
             tools.register(new ReadFileTool());
             tools.register(new ListFilesTool());
-            tools.register(new RunCommandTool());
-            
-            // Create provider based on selection
-            LlmProvider llmProvider;
-            if (PROVIDER_ANTHROPIC.equalsIgnoreCase(provider)) {
-                llmProvider = new AnthropicLlmProvider(apiKey, model);
-            } else {
-                // OpenAI provider (default)
-                if (baseUrl != null && !baseUrl.isBlank()) {
-                    llmProvider = new OpenAiLlmProvider(apiKey, baseUrl, model);
-                } else {
-                    llmProvider = new OpenAiLlmProvider(apiKey, model);
-                }
+            tools.register(new RunCommandTool(shells));
+            if (index != null) {
+                tools.register(new SearchCodeTool(index));
             }
             
+            LlmProvider llmProvider = createProvider();
+            
             LlmClient llmClient = new LlmClient(llmProvider, tools);
-            agent = new AgentLoop(llmClient, new ContextManager(), tools);
+            var context = new ContextManager();
+            context.setTokenBudget(contextBudget != null
+                    ? contextBudget
+                    : TokenEstimator.defaultBudgetFor(model));
+            if (resumed != null && !resumed.context().isEmpty()) {
+                context.restore(resumed.context(), journal);
+            } else if (journal != null) {
+                context.startJournal(journal);
+            }
+            agent = new AgentLoop(llmClient, context, tools);
+            llmProvider.setMetrics(agent.metrics());
+            agent.setParallelToolCalls(parallelTools);
+            agent.setEarlyToolDispatch(earlyToolDispatch);
+            if (toolBudgetSeconds != null) {
+                agent.setToolBudget(Duration.ofSeconds(toolBudgetSeconds));
+            }
         }
 
         if (verbose) {
-            System.out.printf("Starting pi-java (provider=%s, model=%s, baseUrl=%s, agent=%s)%n",
+            System.out.printf("Starting pi-java (provider=%s, model=%s, baseUrl=%s, agent=%s, session=%s)%n",
                     provider,
                     model, 
                     baseUrl != null ? baseUrl : "default",
-                    agent != null ? "enabled" : "echo-mode");
+                    agent != null ? "enabled" : "echo-mode",
+                    journal != null ? journal.id() : "unsaved");
         }
 
-        new MainScreen(agent).run();
+        try (journal; index; shells) {
+            new MainScreen(agent, journal, history).run();
+        }
+        if (journal != null) {
+            System.out.println("Session saved. Resume with: pi-java --resume " + journal.id());
+        }
         return 0;
     }
 
+    /** Create the provider for the agent from the command-line options. */
+    private LlmProvider createProvider() throws IOException {
+        if (replayCassette != null) {
+            return new ReplayLlmProvider(replayCassette, replayPacing);
+        }
+        // Create provider based on selection, routing across backups if any
+        LlmProvider llmProvider = createBackend(provider, apiKey, baseUrl, model);
+        if (!backups.isEmpty()) {
+            var backends = new LinkedHashMap<String, LlmProvider>();
+            backends.put(provider + ":" + model, llmProvider);
+            for (var spec : backups) {
+                var backend = createBackup(spec);
+                if (backend != null) {
+                    backends.put(spec, backend);
+                }
+            }
+            llmProvider = new RoutingLlmProvider(backends);
+        }
+        llmProvider = new RetryingLlmProvider(llmProvider, Math.max(0, maxRetries) + 1);
+        // Record what the agent loop sees, after retries and routing
+        return recordCassette != null
+                ? new RecordingLlmProvider(llmProvider, recordCassette)
+                : llmProvider;
+    }
+
+    /**
+     * Create a rate-limited provider. Its limiter is shared with every
+     * session in this JVM that uses the same account.
+     */
+    private LlmProvider createBackend(String providerName, String key, String url, String modelName) {
+        LlmProvider backend;
+        boolean hasUrl = url != null && !url.isBlank();
+        if (PROVIDER_ANTHROPIC.equalsIgnoreCase(providerName)) {
+            backend = hasUrl
+                    ? new AnthropicLlmProvider(key, url, modelName)
+                    : new AnthropicLlmProvider(key, modelName);
+        } else if (hasUrl) {
+            backend = new OpenAiLlmProvider(key, url, modelName);
+        } else {
+            backend = new OpenAiLlmProvider(key, modelName);
+        }
+        var limiter = RateLimiter.shared(backend.getProviderName() + "|" + url
+                + "|" + Integer.toHexString(key.hashCode()));
+        limiter.setLimits(requestsPerMinute, tokensPerMinute);
+        return new RateLimitedLlmProvider(backend, limiter);
+    }
+
+    /**
+     * Create a backup backend from a {@code provider[:model][@base-url]}
+     * spec. A backup of the primary's provider defaults to the primary's
+     * model and API key; another provider needs an explicit model, and its
+     * key comes from the provider's environment variable.
+     *
+     * @return the backend, or {@code null} if it has no model or API key
+     */
+    private LlmProvider createBackup(String spec) {
+        int at = spec.indexOf('@');
+        var head = at < 0 ? spec : spec.substring(0, at);
+        var url = at < 0 ? null : spec.substring(at + 1);
+        int colon = head.indexOf(':');
+        var name = colon < 0 ? head : head.substring(0, colon);
+        boolean sameProvider = name.equalsIgnoreCase(provider);
+        if (colon < 0 && !sameProvider) {
+            System.err.println("Warning: ignoring backup " + spec + ": give its model as "
+                    + name + ":<model>");
+            return null;
+        }
+        var backupModel = colon < 0 ? model : head.substring(colon + 1);
+        String key;
+        if (sameProvider) {
+            key = apiKey;
+        } else {
+            key = System.getenv(PROVIDER_ANTHROPIC.equalsIgnoreCase(name)
+                    ? "ANTHROPIC_API_KEY" : "OPENAI_API_KEY");
+        }
+        if (key == null || key.isBlank()) {
+            System.err.println("Warning: ignoring backup " + spec + ": no API key");
+            return null;
+        }
+        return createBackend(name, key, url, backupModel);
+    }
+
+    /** Create the journal for a new session, or continue unsaved if that fails. */
+    private static SessionJournal createJournal() {
+        var id = SessionJournal.newSessionId();
+        try {
+            return SessionJournal.create(SessionJournal.fileFor(SessionJournal.defaultDirectory(), id));
+        } catch (IOException e) {
+            System.err.println("Warning: session will not be saved: " + e.getMessage());
+            return null;
+        }
+    }
+
     public static void main(String[] args) {
         var exitCode = new CommandLine(new App()).execute(args);
         System.exit(exitCode);
@@ -1,9 +1,13 @@
 package com.example.pijava.agent;
 
+import com.example.pijava.agent.tool.ToolBudget;
 import com.example.pijava.agent.tool.ToolRegistry;
-import com.google.gson.JsonParser;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +18,9 @@ import org.slf4j.LoggerFactory;
  *
  * <p>The loop will keep calling the LLM until it produces a plain-text
  * reply (no more tool calls) or the safety limit is reached.</p>
+ *
+ * <p>Each round's latency, streaming rate and sizes, and each tool call's
+ * execution time, are recorded in the loop's {@link MetricsRegistry}.</p>
  */
 public class AgentLoop {
 
@@ -23,9 +30,26 @@ public class AgentLoop {
     /** Maximum number of LLM ↔ tool round-trips per user message. */
     private static final int MAX_TOOL_ROUNDS = 10;
 
+    /** Note appended to the assistant reply of a cancelled turn. */
+    private static final String CANCELLED_NOTE = "(cancelled by user)";
+
+    /** Total tool execution time a turn may use unless configured otherwise. */
+    public static final Duration DEFAULT_TOOL_BUDGET = Duration.ofMinutes(10);
+
+    /** Emitted between the streamed text of consecutive rounds. */
+    private static final String ROUND_SEPARATOR = "\n\n";
+
+    /** Shorter streams give no meaningful token rate. */
+    private static final long MIN_RATE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
     private final LlmClient client;
     private final ContextManager context;
     private final ToolRegistry tools;
+    private boolean parallelToolCalls = true;
+    private boolean earlyToolDispatch = true;
+    private Duration toolBudget = DEFAULT_TOOL_BUDGET;
+    private volatile TokenUsage sessionUsage = TokenUsage.NONE;
+    private final MetricsRegistry metrics = new MetricsRegistry();
 
     /**
      * Create an agent loop.
@@ -44,6 +68,68 @@ public class AgentLoop {
         this.tools = tools;
     }
 
+    /**
+     * Enable or disable concurrent execution of the tool calls in one round.
+     *
+     * <p>When enabled (the default), read-only tools run in parallel on
+     * virtual threads while side-effecting tools still run one at a time.</p>
+     *
+     * @param parallelToolCalls {@code true} to run read-only calls concurrently
+     */
+    public void setParallelToolCalls(boolean parallelToolCalls) {
+        this.parallelToolCalls = parallelToolCalls;
+    }
+
+    /**
+     * Enable or disable early dispatch of streamed tool calls.
+     *
+     * <p>When enabled (the default) and the response is streamed, each tool
+     * call starts as soon as its arguments are complete, so tool latency
+     * overlaps with the model generating later calls. If the response then
+     * fails or the turn is cancelled, the calls already started are still
+     * recorded in the context with their results.</p>
+     *
+     * @param earlyToolDispatch {@code true} to start tools while the response streams
+     */
+    public void setEarlyToolDispatch(boolean earlyToolDispatch) {
+        this.earlyToolDispatch = earlyToolDispatch;
+    }
+
+    /**
+     * Set the total tool execution time one turn may use. Calls running in
+     * parallel each count in full; once the budget is spent, further calls
+     * of the turn fail with an error the model can react to.
+     *
+     * @param toolBudget the per-turn budget
+     */
+    public void setToolBudget(Duration toolBudget) {
+        this.toolBudget = toolBudget;
+    }
+
+    /**
+     * Token usage accumulated over every LLM call made by this loop,
+     * including prompt-cache reads and writes.
+     *
+     * @return the session's cumulative usage
+     */
+    public TokenUsage sessionUsage() {
+        return sessionUsage;
+    }
+
+    /**
+     * Latency, throughput and size metrics of every round and tool call
+     * made by this loop. Providers record into the same registry once it
+     * is passed to {@link LlmProvider#setMetrics}.
+     *
+     * @return the session's metrics
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP",
+            justification = "MetricsRegistry is intentionally shared - "
+                    + "providers record into it and the UI reads it")
+    public MetricsRegistry metrics() {
+        return metrics;
+    }
+
     /**
      * Process a single user message through the agent loop.
      *
@@ -60,77 +146,318 @@ public class AgentLoop {
      * streamed assistant text updates.
      *
      * @param userInput   the user's text
-     * @param onTextDelta callback that receives progressively accumulated assistant text
+     * @param onTextDelta callback that receives each new fragment of assistant text
      * @return the assistant's final text response
      * @throws IOException if an LLM API call fails
      */
     public String process(String userInput, Consumer<String> onTextDelta)
             throws IOException {
         return process(userInput, onTextDelta, null);
-        }
+    }
+
+    /**
+     * Process a single user message through the agent loop with optional
+     * streamed assistant text updates and tool event notifications.
+     *
+     * @param userInput   the user's text
+     * @param onTextDelta callback that receives each new fragment of assistant text
+     * @param onToolEvent callback invoked for each tool call and tool result
+     * @return the assistant's final text response
+     * @throws IOException if an LLM API call fails
+     */
+    public String process(String userInput,
+                          Consumer<String> onTextDelta,
+                          Consumer<ToolEvent> onToolEvent)
+            throws IOException {
+        return process(userInput, onTextDelta, onToolEvent, new CancellationToken());
+    }
 
-        /**
-         * Process a single user message through the agent loop with optional
-         * streamed assistant text updates and tool event notifications.
-         *
-         * @param userInput   the user's text
-         * @param onTextDelta callback that receives progressively accumulated assistant text
-         * @param onToolEvent callback invoked for each tool call and tool result
-         * @return the assistant's final text response
-         * @throws IOException if an LLM API call fails
-         */
-        public String process(String userInput,
-                  Consumer<String> onTextDelta,
-                  Consumer<ToolEvent> onToolEvent)
+    /**
+     * Process a single user message through the agent loop, allowing the
+     * turn to be cancelled from another thread.
+     *
+     * <p>Cancelling closes the open response stream and interrupts running
+     * tools. The context is left consistent: every requested tool call gets
+     * a result, and the partial assistant text is kept followed by a
+     * cancellation note, which is also what this method returns.</p>
+     *
+     * <p>Streamed text is delivered as fragments. When a later round of the
+     * same turn streams text again, a blank line is emitted first so that
+     * the fragments concatenate into readable text; the returned value is
+     * only the final round's reply.</p>
+     *
+     * @param userInput    the user's text
+     * @param onTextDelta  callback that receives each new fragment of assistant text
+     * @param onToolEvent  callback invoked for each tool call and tool result
+     * @param cancellation token that aborts the turn when cancelled
+     * @return the assistant's final (or partial) text response
+     * @throws IOException if an LLM API call fails
+     */
+    public String process(String userInput,
+                          Consumer<String> onTextDelta,
+                          Consumer<ToolEvent> onToolEvent,
+                          CancellationToken cancellation)
             throws IOException {
         context.addUser(userInput);
+        boolean textStreamed = false;
+        var budget = new ToolBudget(toolBudget);
 
         for (int round = 0; round < MAX_TOOL_ROUNDS; round++) {
-            var response = client.chat(context.messages(), onTextDelta);
-
-            if (!response.hasToolCalls()) {
-                var text = response.content() != null && !response.content().isEmpty()
-                        ? response.content() : "(no response)";
-                context.addAssistant(text);
-                return text;
+            if (cancellation.isCancelled()) {
+                return cancelTurn("");
             }
+            try (var scheduler = new ToolCallScheduler(tools, parallelToolCalls, onToolEvent,
+                    budget, context::containsToolResult, metrics)) {
+                AutoCloseable cancelTools = scheduler::cancel;
+                cancellation.onCancel(cancelTools);
+                try {
+                    context.compactToBudget();
+                    long requestStart = System.nanoTime();
+                    var listener = onTextDelta != null
+                            ? new RoundListener(onTextDelta, scheduler, cancellation, textStreamed,
+                                    requestStart)
+                            : null;
+                    LlmResponse response;
+                    try {
+                        response = client.chat(context.messages(), listener);
+                    } catch (IOException e) {
+                        var partial = listener != null ? listener.partialText() : "";
+                        boolean recorded = recordDispatchedCalls(
+                                scheduler, partial, cancellation.isCancelled());
+                        if (cancellation.isCancelled()) {
+                            return cancelTurn(recorded ? "" : partial);
+                        }
+                        if (recorded) {
+                            context.addAssistant("(response failed: " + e.getMessage() + ")");
+                        }
+                        throw e;
+                    } finally {
+                        if (listener != null) {
+                            listener.release();
+                            textStreamed |= listener.hasText();
+                        }
+                    }
+
+                    long requestEnd = System.nanoTime();
+                    recordUsage(response.usage());
+
+                    if (cancellation.isCancelled()) {
+                        // Only the calls that were started are recorded, never the rest
+                        return cancelTurn(recordDispatchedCalls(scheduler, response.content(), true)
+                                ? "" : response.content());
+                    }
+                    recordRound(response, requestStart, requestEnd, listener);
 
-            context.addAssistantToolCalls(
-                    response.content(), response.toolCalls());
-                executeToolCalls(response, onToolEvent);
+                    if (!response.hasToolCalls()) {
+                        var text = response.content() != null && !response.content().isEmpty()
+                                ? response.content() : "(no response)";
+                        context.addAssistant(text);
+                        return text;
+                    }
+
+                    context.addAssistantToolCalls(
+                            response.content(), response.toolCalls());
+                    executeToolCalls(scheduler, response.toolCalls());
+                } finally {
+                    cancellation.remove(cancelTools);
+                }
+            }
         }
 
         var fallback = "Stopped after " + MAX_TOOL_ROUNDS + " tool rounds.";
         if (onTextDelta != null) {
-            onTextDelta.accept(fallback);
+            onTextDelta.accept(textStreamed ? ROUND_SEPARATOR + fallback : fallback);
         }
         context.addAssistant(fallback);
         return fallback;
     }
 
-    private void executeToolCalls(LlmResponse response,
-                                  Consumer<ToolEvent> onToolEvent) {
-        for (var call : response.toolCalls()) {
-            var name = call.function().name();
-            LOG.debug("Tool call: {} ({})", name, call.id());
+    private void recordUsage(TokenUsage usage) {
+        sessionUsage = sessionUsage.plus(usage);
+        LOG.debug("Round usage: input={} cache_read={} cache_write={} output={} "
+                        + "(session cache hit rate {})",
+                usage.inputTokens(), usage.cacheReadInputTokens(),
+                usage.cacheCreationInputTokens(), usage.outputTokens(),
+                String.format(Locale.ROOT, "%.1f%%", sessionUsage.cacheHitRate() * 100));
+    }
+
+    /**
+     * Record a completed round's model time, wait before sending, sizes and
+     * streaming rate.
+     * Sizes come from the provider's usage report when it has one and are
+     * estimated otherwise; the wait before sending needs a streaming
+     * listener, and the rate a streamed first token.
+     */
+    private void recordRound(LlmResponse response, long start, long end, RoundListener listener) {
+        metrics.recordNanos(MetricsRegistry.MODEL_TIME, end - start);
+        if (listener != null) {
+            metrics.recordNanos(MetricsRegistry.REQUEST_WAIT, listener.requestSent() - start);
+        }
+        var usage = response.usage();
+        long input = usage.totalInputTokens();
+        metrics.record(MetricsRegistry.REQUEST_TOKENS, Histogram.Unit.TOKENS,
+                input > 0 ? input : context.estimatedTokens());
+        long output = usage.outputTokens() > 0
+                ? usage.outputTokens()
+                : TokenEstimator.estimate(ContextMessage.assistantWithToolCalls(
+                        response.content(), response.toolCalls()));
+        metrics.record(MetricsRegistry.RESPONSE_TOKENS, Histogram.Unit.TOKENS, output);
+        long firstToken = listener != null ? listener.firstTokenAt() : -1;
+        long streaming = end - firstToken;
+        if (firstToken >= 0 && streaming >= MIN_RATE_WINDOW_NANOS) {
+            metrics.record(MetricsRegistry.TOKENS_PER_SECOND, Histogram.Unit.TOKENS_PER_SECOND,
+                    output * TimeUnit.SECONDS.toNanos(1) / streaming);
+        }
+    }
+
+    /** Record the end of a cancelled turn, keeping any partial reply. */
+    private String cancelTurn(String partialText) {
+        var text = partialText == null || partialText.isEmpty()
+                ? CANCELLED_NOTE
+                : partialText + "\n\n" + CANCELLED_NOTE;
+        LOG.debug("Turn cancelled");
+        context.addAssistant(text);
+        return text;
+    }
 
-            if (onToolEvent != null) {
-                onToolEvent.accept(
-                        ToolEvent.toolCall(
-                                call.id(),
-                                name,
-                                call.function().arguments()));
+    /**
+     * Record the tool calls that a failed or cancelled round had already
+     * dispatched early, with their results, so the context shows every
+     * command that ran. Calls that were not dispatched are not run.
+     *
+     * @param cancel {@code true} to cancel calls still running (finished
+     *               calls keep their results), {@code false} to wait for them
+     * @return whether any call was recorded
+     */
+    private boolean recordDispatchedCalls(ToolCallScheduler scheduler, String partialText,
+                                          boolean cancel) throws IOException {
+        var calls = scheduler.dispatchedCalls();
+        if (calls.isEmpty()) {
+            return false;
+        }
+        if (cancel) {
+            scheduler.cancel();
+        }
+        context.addAssistantToolCalls(partialText, calls);
+        executeToolCalls(scheduler, calls);
+        return true;
+    }
+
+    private void executeToolCalls(ToolCallScheduler scheduler,
+                                  List<ContextMessage.ToolCallData> calls) throws IOException {
+        try {
+            var results = scheduler.awaitAll(calls);
+            for (int i = 0; i < calls.size(); i++) {
+                context.addToolResult(calls.get(i).id(), results.get(i));
             }
+        } catch (InterruptedException e) {
+            // Keep every tool_call paired with a result before bailing out
+            for (var call : calls) {
+                context.addToolResult(call.id(), ToolCallScheduler.CANCELLED_RESULT);
+            }
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running tools", e);
+        }
+    }
 
-            var args = JsonParser.parseString(call.function().arguments())
-                    .getAsJsonObject();
-            var result = tools.execute(name, args);
+    /**
+     * Listener for one streamed round. Forwards text, hands completed tool
+     * calls to the scheduler when early dispatch is enabled, registers the
+     * open stream with the cancellation token, and records the time from
+     * the provider sending the request to the first streamed event as soon
+     * as it arrives.
+     */
+    private final class RoundListener implements ChatListener {
+
+        private final Consumer<String> onTextDelta;
+        private final ToolCallScheduler scheduler;
+        private final CancellationToken cancellation;
+        private final boolean separateFromEarlierText;
+        private final StringBuilder partial = new StringBuilder();
+        private volatile AutoCloseable stream;
+        private long requestSent;
+        private long firstTokenAt = -1;
 
-            LOG.debug("Tool result for {}: {} chars", name, result.length());
-            context.addToolResult(call.id(), result);
+        RoundListener(Consumer<String> onTextDelta,
+                      ToolCallScheduler scheduler,
+                      CancellationToken cancellation,
+                      boolean separateFromEarlierText,
+                      long requestStart) {
+            this.onTextDelta = onTextDelta;
+            this.scheduler = scheduler;
+            this.cancellation = cancellation;
+            this.separateFromEarlierText = separateFromEarlierText;
+            this.requestSent = requestStart;
+        }
 
-            if (onToolEvent != null) {
-                onToolEvent.accept(ToolEvent.toolResult(call.id(), name, result));
+        @Override
+        public void onTextDelta(String fragment) {
+            markFirstToken();
+            synchronized (partial) {
+                if (partial.isEmpty() && separateFromEarlierText) {
+                    onTextDelta.accept(ROUND_SEPARATOR);
+                }
+                partial.append(fragment);
+            }
+            onTextDelta.accept(fragment);
+        }
+
+        @Override
+        public void onToolCallReady(ContextMessage.ToolCallData toolCall) {
+            markFirstToken();
+            if (earlyToolDispatch) {
+                scheduler.dispatch(toolCall);
+            }
+        }
+
+        @Override
+        public synchronized void onRequestSent(long sentNanos) {
+            if (firstTokenAt < 0) {
+                requestSent = sentNanos;
+            }
+        }
+
+        @Override
+        public void onStreamOpened(AutoCloseable openedStream) {
+            stream = openedStream;
+            cancellation.onCancel(openedStream);
+        }
+
+        /** When the provider last sent the request, or when the round started if it did not say. */
+        synchronized long requestSent() {
+            return requestSent;
+        }
+
+        /** When the first text or tool call arrived, or -1 if none came. */
+        synchronized long firstTokenAt() {
+            return firstTokenAt;
+        }
+
+        private synchronized void markFirstToken() {
+            if (firstTokenAt < 0) {
+                firstTokenAt = System.nanoTime();
+                metrics.recordNanos(MetricsRegistry.TIME_TO_FIRST_TOKEN, firstTokenAt - requestSent);
+            }
+        }
+
+        /** Text streamed in this round so far. */
+        String partialText() {
+            synchronized (partial) {
+                return partial.toString();
+            }
+        }
+
+        boolean hasText() {
+            synchronized (partial) {
+                return !partial.isEmpty();
+            }
+        }
+
+        /** Unregister the stream once the provider call has returned. */
+        void release() {
+            var opened = stream;
+            if (opened != null) {
+                cancellation.remove(opened);
             }
         }
     }
@@ -142,7 +469,7 @@ public class AgentLoop {
                             ToolEventType type) {
 
         /** Type of tool event. */
-        public enum ToolEventType { TOOL_CALL, TOOL_RESULT }
+        public enum ToolEventType { TOOL_CALL, PROGRESS, TOOL_RESULT }
 
         /** Create a tool-call event. */
         public static ToolEvent toolCall(String toolCallId,
@@ -151,6 +478,13 @@ public class AgentLoop {
             return new ToolEvent(toolCallId, toolName, payload, ToolEventType.TOOL_CALL);
         }
 
+        /** Create a progress event carrying a snapshot of recent output. */
+        public static ToolEvent progress(String toolCallId,
+                                         String toolName,
+                                         String payload) {
+            return new ToolEvent(toolCallId, toolName, payload, ToolEventType.PROGRESS);
+        }
+
         /** Create a tool-result event. */
         public static ToolEvent toolResult(String toolCallId,
                                            String toolName,
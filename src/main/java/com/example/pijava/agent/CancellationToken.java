@@ -0,0 +1,74 @@
+package com.example.pijava.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cooperative cancellation signal for a single agent turn.
+ *
+ * <p>The UI thread calls {@link #cancel()}; the agent loop and providers
+ * register the resources that must be released to unblock the turn (open
+ * response streams, tool executors) via {@link #onCancel(AutoCloseable)}.
+ * Resources registered after cancellation are closed immediately.</p>
+ */
+public final class CancellationToken {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CancellationToken.class);
+
+    private final List<AutoCloseable> onCancel = new ArrayList<>();
+    private boolean cancelled;
+
+    /** Request cancellation and close every registered resource. */
+    public void cancel() {
+        List<AutoCloseable> toClose;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = new ArrayList<>(onCancel);
+            onCancel.clear();
+        }
+        toClose.forEach(CancellationToken::closeQuietly);
+    }
+
+    /** {@code true} once {@link #cancel()} has been called. */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Register a resource to close when the turn is cancelled.
+     *
+     * @param resource the resource to close on cancellation
+     */
+    public void onCancel(AutoCloseable resource) {
+        synchronized (this) {
+            if (!cancelled) {
+                onCancel.add(resource);
+                return;
+            }
+        }
+        closeQuietly(resource);
+    }
+
+    /**
+     * Unregister a resource that finished normally.
+     *
+     * @param resource a resource previously passed to {@link #onCancel(AutoCloseable)}
+     */
+    public synchronized void remove(AutoCloseable resource) {
+        onCancel.remove(resource);
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            LOG.debug("Error closing resource on cancel: {}", e.getMessage());
+        }
+    }
+}
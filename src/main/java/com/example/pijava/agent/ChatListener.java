@@ -0,0 +1,83 @@
+package com.example.pijava.agent;
+
+import java.util.function.Consumer;
+
+/**
+ * Receives events while an {@link LlmProvider} streams a response.
+ *
+ * <p>Every method has a no-op default so callers only override the events
+ * they care about. Callbacks are invoked on the thread that reads the
+ * stream.</p>
+ *
+ * <p>Text is delivered as fragments: each call carries only the newly
+ * generated text, so streaming cost stays linear in the response length.
+ * Use {@link #accumulating(Consumer)} to adapt a callback that expects the
+ * full text so far.</p>
+ */
+public interface ChatListener {
+
+    /**
+     * Called whenever new assistant text arrives.
+     *
+     * @param fragment the text generated since the previous call
+     */
+    default void onTextDelta(String fragment) {
+        // no-op by default
+    }
+
+    /**
+     * Called as soon as one tool call's arguments are complete, while the
+     * model may still be generating later calls. Each call is reported
+     * exactly once and matches the corresponding entry of the final
+     * {@link LlmResponse#toolCalls()}.
+     *
+     * @param toolCall the completed tool call
+     */
+    default void onToolCallReady(ContextMessage.ToolCallData toolCall) {
+        // no-op by default
+    }
+
+    /**
+     * Called as the provider sends a request, after any rate-limit wait or
+     * retry backoff. A provider that retries calls it once per attempt; one
+     * that races several backends reports only the winning attempt, before
+     * its first event.
+     *
+     * @param sentNanos {@link System#nanoTime()} when the request was sent
+     */
+    default void onRequestSent(long sentNanos) {
+        // no-op by default
+    }
+
+    /**
+     * Called once the provider has opened its response stream. Closing the
+     * handle aborts the stream, which is how an in-flight turn is cancelled.
+     *
+     * @param stream the open response stream
+     */
+    default void onStreamOpened(AutoCloseable stream) {
+        // no-op by default
+    }
+
+    /**
+     * Adapt a callback that expects the progressively accumulated text, as
+     * streaming callbacks originally received, to a fragment listener.
+     * Note that this re-copies the whole text on every fragment.
+     *
+     * @param onAccumulatedText callback that receives all assistant text so far
+     * @return a listener that accumulates fragments, or {@code null} if the callback is {@code null}
+     */
+    static ChatListener accumulating(Consumer<String> onAccumulatedText) {
+        if (onAccumulatedText == null) {
+            return null;
+        }
+        var accumulated = new StringBuilder();
+        return new ChatListener() {
+            @Override
+            public void onTextDelta(String fragment) {
+                accumulated.append(fragment);
+                onAccumulatedText.accept(accumulated.toString());
+            }
+        };
+    }
+}
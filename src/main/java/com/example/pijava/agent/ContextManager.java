@@ -1,8 +1,15 @@
 package com.example.pijava.agent;
 
+import com.example.pijava.agent.tool.ToolRegistry;
+import com.example.pijava.session.SessionJournal;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Manages the ordered list of {@link ContextMessage}s that form the
@@ -10,52 +17,348 @@ import java.util.List;
  *
  * <p>Each call to the LLM replays the full context, so this class is the
  * single source of truth for the conversation history.</p>
+ *
+ * <p>Every message's estimated token count is computed once when it is
+ * added and kept alongside it, together with a running total. When a
+ * token budget is set and exceeded, {@link #compactToBudget()} trims the
+ * history before a request to a low-water mark below the budget: first
+ * by eliding the oldest tool outputs, then by dropping the oldest whole
+ * exchanges, and finally by eliding the outputs of earlier rounds of the
+ * current exchange. Tool calls and their results are never separated,
+ * and the system prompt, the current user message and the latest round's
+ * tool results are kept. A result that a later result refers to
+ * ({@link ToolRegistry#resultReference}) is never elided, and when it is
+ * dropped its output moves to the first reference, so a reference always
+ * points at a full result.</p>
+ *
+ * <p>When a {@link SessionJournal} is attached, every append, replacement
+ * and removal is also recorded there so the session can be resumed.</p>
  */
 public class ContextManager {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ContextManager.class);
+
     private static final String DEFAULT_SYSTEM_PROMPT = """
             You are a helpful coding assistant running in a terminal \
-            (pi-java). You can read files, list directories, and run \
+            (pi-java). You can read files, list directories, search code, and run \
             shell commands to help the user with their coding tasks. \
             Be concise in your responses. When asked to perform an \
             action, use the available tools.""";
 
+    /**
+     * Compaction shrinks the context to this fraction of the budget, so
+     * that the following rounds fit without compacting again and the
+     * prompt-cache prefix stays stable for a while.
+     */
+    private static final double LOW_WATER_FRACTION = 0.75;
+
+    /** Tool outputs shorter than this are not worth eliding. */
+    private static final int MIN_ELIDE_CHARS = 200;
+
+    private static final String ROLE_USER = "user";
+    private static final String ROLE_TOOL = "tool";
+
     private final List<ContextMessage> contextMessages = new ArrayList<>();
+    /** Estimated tokens of {@code contextMessages}, index for index. */
+    private final List<Integer> tokenCounts = new ArrayList<>();
+    /**
+     * Ids of the tool results present with their full output. Read by tool
+     * threads while the agent thread appends, hence concurrent.
+     */
+    private final Set<String> fullToolResults = ConcurrentHashMap.newKeySet();
+    private long totalTokens;
+    private int tokenBudget;
+    private SessionJournal journal;
 
     /** Create a manager with the default system prompt. */
     public ContextManager() {
-        contextMessages.add(ContextMessage.system(DEFAULT_SYSTEM_PROMPT));
+        append(ContextMessage.system(DEFAULT_SYSTEM_PROMPT));
     }
 
     /** Create a manager with a custom system prompt. */
     public ContextManager(String systemPrompt) {
-        contextMessages.add(ContextMessage.system(systemPrompt));
+        append(ContextMessage.system(systemPrompt));
     }
 
     /** Append a user message. */
     public void addUser(String content) {
-        contextMessages.add(ContextMessage.user(content));
+        append(ContextMessage.user(content));
     }
 
     /** Append a plain assistant reply. */
     public void addAssistant(String content) {
-        contextMessages.add(ContextMessage.assistant(content));
+        append(ContextMessage.assistant(content));
     }
 
     /** Append an assistant message that contains tool-call requests. */
     public void addAssistantToolCalls(
             String content,
             List<ContextMessage.ToolCallData> toolCalls) {
-        contextMessages.add(ContextMessage.assistantWithToolCalls(content, toolCalls));
+        append(ContextMessage.assistantWithToolCalls(content, toolCalls));
     }
 
     /** Append a tool-result message. */
     public void addToolResult(String toolCallId, String content) {
-        contextMessages.add(ContextMessage.toolResult(toolCallId, content));
+        append(ContextMessage.toolResult(toolCallId, content));
+    }
+
+    /**
+     * Start journaling this context: the current messages are written to
+     * the journal, followed by every later change.
+     *
+     * @param journal a newly created journal
+     */
+    public void startJournal(SessionJournal journal) {
+        contextMessages.forEach(journal::contextAppended);
+        this.journal = journal;
+    }
+
+    /**
+     * Replace the whole context, including the system prompt, with messages
+     * replayed from a session journal, and keep journaling later changes
+     * to it.
+     *
+     * @param restored the replayed messages, system prompt first
+     * @param journal  the journal they were replayed from, reopened for appending
+     */
+    public void restore(List<ContextMessage> restored, SessionJournal journal) {
+        this.journal = null;
+        contextMessages.clear();
+        tokenCounts.clear();
+        fullToolResults.clear();
+        totalTokens = 0;
+        restored.forEach(this::append);
+        this.journal = journal;
+    }
+
+    /**
+     * Whether the result of a tool call is in the context with its full
+     * output, i.e. neither dropped nor elided by compaction. Safe to call
+     * from any thread.
+     *
+     * @param toolCallId the id of the tool call
+     * @return {@code true} if the model can still see the call's result
+     */
+    public boolean containsToolResult(String toolCallId) {
+        return fullToolResults.contains(toolCallId);
     }
 
     /** Return an unmodifiable view of the current context. */
     public List<ContextMessage> messages() {
         return Collections.unmodifiableList(contextMessages);
     }
+
+    /**
+     * Set the maximum estimated size of the context sent with a request.
+     *
+     * @param tokenBudget the budget in tokens, or {@code 0} for no limit
+     */
+    public void setTokenBudget(int tokenBudget) {
+        this.tokenBudget = Math.max(0, tokenBudget);
+    }
+
+    /** The configured token budget, or {@code 0} when unlimited. */
+    public int tokenBudget() {
+        return tokenBudget;
+    }
+
+    /** Estimated token count of the whole context. */
+    public long estimatedTokens() {
+        return totalTokens;
+    }
+
+    /**
+     * Shrink the context once it exceeds the token budget.
+     *
+     * <p>Policies are applied in order, oldest messages first, and stop as
+     * soon as the context is down to three quarters of the budget. The
+     * headroom lets many later rounds fit unchanged, rather than rewriting
+     * part of the history (and invalidating the provider's prompt cache
+     * from that point) on every round once the budget is reached:</p>
+     * <ol>
+     *   <li>replace old tool outputs with a short placeholder;</li>
+     *   <li>drop whole exchanges (a user message and everything up to the
+     *       next user message);</li>
+     *   <li>replace the tool outputs of earlier rounds of the latest
+     *       exchange with a short placeholder.</li>
+     * </ol>
+     * <p>The system prompt, the latest user message, the assistant's tool
+     * calls and the latest round's tool results are never touched, so the
+     * context only exceeds the budget if those alone do.</p>
+     *
+     * @return {@code true} if the context was modified
+     */
+    public boolean compactToBudget() {
+        if (tokenBudget <= 0 || totalTokens <= tokenBudget) {
+            return false;
+        }
+        var before = totalTokens;
+        long target = (long) (tokenBudget * LOW_WATER_FRACTION);
+        int protectedFrom = lastUserIndex();
+
+        elideToolOutputs(1, protectedFrom, target);
+
+        while (totalTokens > target) {
+            int end = nextUserIndex(2);
+            if (end < 0) {
+                break; // only the latest exchange is left
+            }
+            moveReferencedResults(1, end);
+            removeRange(1, end);
+        }
+
+        // Earlier rounds of the latest exchange; the latest round's results stay
+        elideToolOutputs(1, lastToolCallIndex(), target);
+
+        if (totalTokens > tokenBudget) {
+            LOG.warn("Context still over budget after compaction: {} > {} tokens",
+                    totalTokens, tokenBudget);
+        } else {
+            LOG.debug("Compacted context from {} to {} tokens", before, totalTokens);
+        }
+        return totalTokens != before;
+    }
+
+    /** Elide tool outputs in {@code [from, to)}, oldest first, until the context fits the target. */
+    private void elideToolOutputs(int from, int to, long target) {
+        var referenced = referencedResults();
+        for (int i = from; i < to && totalTokens > target; i++) {
+            var msg = contextMessages.get(i);
+            if (ROLE_TOOL.equals(msg.role()) && msg.content().length() > MIN_ELIDE_CHARS
+                    && !referenced.contains(msg.toolCallId())) {
+                replace(i, ContextMessage.toolResult(msg.toolCallId(),
+                        "[tool output elided to save context: "
+                                + msg.content().length() + " chars]"), false);
+            }
+        }
+    }
+
+    /** Ids of the tool calls whose result a later result refers to. */
+    private Set<String> referencedResults() {
+        var ids = new HashSet<String>();
+        for (var msg : contextMessages) {
+            if (ROLE_TOOL.equals(msg.role())) {
+                var id = ToolRegistry.referencedCallId(msg.content());
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Before {@code [from, to)} is dropped, move the output of every result
+     * in it that is referenced from after {@code to} into the first such
+     * reference, and point the other references there.
+     */
+    private void moveReferencedResults(int from, int to) {
+        for (int i = from; i < to; i++) {
+            var msg = contextMessages.get(i);
+            if (!ROLE_TOOL.equals(msg.role())) {
+                continue;
+            }
+            String holder = null;
+            for (int j = to; j < contextMessages.size(); j++) {
+                var later = contextMessages.get(j);
+                if (!ROLE_TOOL.equals(later.role())
+                        || !msg.toolCallId().equals(ToolRegistry.referencedCallId(later.content()))) {
+                    continue;
+                }
+                if (holder == null) {
+                    holder = later.toolCallId();
+                    replace(j, ContextMessage.toolResult(holder, msg.content()),
+                            fullToolResults.contains(msg.toolCallId()));
+                } else {
+                    replace(j, ContextMessage.toolResult(later.toolCallId(),
+                            ToolRegistry.retargetReference(later.content(), holder)), false);
+                }
+            }
+        }
+    }
+
+    private void append(ContextMessage message) {
+        int tokens = TokenEstimator.estimate(message);
+        contextMessages.add(message);
+        tokenCounts.add(tokens);
+        totalTokens += tokens;
+        if (ROLE_TOOL.equals(message.role())) {
+            fullToolResults.add(message.toolCallId());
+        }
+        if (journal != null) {
+            journal.contextAppended(message);
+        }
+    }
+
+    /**
+     * Replace a message.
+     *
+     * @param fullResult whether a replacement tool result holds the call's
+     *                   full output rather than a placeholder or reference
+     */
+    private void replace(int index, ContextMessage message, boolean fullResult) {
+        int tokens = TokenEstimator.estimate(message);
+        totalTokens += tokens - tokenCounts.get(index);
+        if (ROLE_TOOL.equals(contextMessages.get(index).role())) {
+            fullToolResults.remove(contextMessages.get(index).toolCallId());
+        }
+        if (fullResult && ROLE_TOOL.equals(message.role())) {
+            fullToolResults.add(message.toolCallId());
+        }
+        contextMessages.set(index, message);
+        tokenCounts.set(index, tokens);
+        if (journal != null) {
+            journal.contextReplaced(index, message);
+        }
+    }
+
+    private void removeRange(int from, int to) {
+        var counts = tokenCounts.subList(from, to);
+        for (int tokens : counts) {
+            totalTokens -= tokens;
+        }
+        counts.clear();
+        var removed = contextMessages.subList(from, to);
+        for (var message : removed) {
+            if (ROLE_TOOL.equals(message.role())) {
+                fullToolResults.remove(message.toolCallId());
+            }
+        }
+        removed.clear();
+        if (journal != null) {
+            journal.contextRemoved(from, to);
+        }
+    }
+
+    private int lastUserIndex() {
+        for (int i = contextMessages.size() - 1; i > 0; i--) {
+            if (ROLE_USER.equals(contextMessages.get(i).role())) {
+                return i;
+            }
+        }
+        return contextMessages.size();
+    }
+
+    /** Index of the latest assistant message with tool calls, or 0 if none. */
+    private int lastToolCallIndex() {
+        for (int i = contextMessages.size() - 1; i > 0; i--) {
+            var msg = contextMessages.get(i);
+            if (ROLE_USER.equals(msg.role())) {
+                return 0;
+            }
+            if (!msg.toolCalls().isEmpty()) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private int nextUserIndex(int from) {
+        for (int i = from; i < contextMessages.size(); i++) {
+            if (ROLE_USER.equals(contextMessages.get(i).role())) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,149 @@
+package com.example.pijava.agent;
+
+import java.util.Locale;
+
+/**
+ * Distribution of non-negative {@code long} values with bounded relative
+ * error, in the manner of an HDR histogram.
+ *
+ * <p>Values below 128 are counted exactly. Larger values fall into
+ * log-linear buckets: each power of two is split into 64 equal
+ * sub-buckets, so a reported percentile is never more than about 1.6%
+ * above the recorded value it stands for. The whole {@code long} range fits
+ * in a fixed array of counts, recording is constant time and allocation
+ * free, and memory does not grow with the number of values.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public final class Histogram {
+
+    /** How recorded values are interpreted and printed. */
+    public enum Unit {
+        /** Durations, recorded in microseconds. */
+        MICROSECONDS,
+        /** Token counts. */
+        TOKENS,
+        /** Rates, in tokens per second. */
+        TOKENS_PER_SECOND;
+
+        /** Format a value of this unit for display, e.g. {@code 1.2 s} or {@code 38 tok/s}. */
+        public String format(long value) {
+            return switch (this) {
+                case MICROSECONDS -> value < 1_000 ? value + " µs"
+                        : value < 10_000 ? String.format(Locale.ROOT, "%.1f ms", value / 1e3)
+                        : value < 1_000_000 ? value / 1_000 + " ms"
+                        : String.format(Locale.ROOT, "%.1f s", value / 1e6);
+                case TOKENS -> Long.toString(value);
+                case TOKENS_PER_SECOND -> value + " tok/s";
+            };
+        }
+    }
+
+    /** Bits of sub-bucket resolution: values up to 2^7 are exact. */
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final Unit unit;
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private long last;
+
+    /**
+     * Create an empty histogram.
+     *
+     * @param unit how values are interpreted
+     */
+    public Histogram(Unit unit) {
+        this.unit = unit;
+    }
+
+    /** How recorded values are interpreted. */
+    public Unit unit() {
+        return unit;
+    }
+
+    /**
+     * Record one value; negative values are recorded as zero.
+     *
+     * @param value the value
+     */
+    public synchronized void record(long value) {
+        long v = Math.max(0, value);
+        counts[index(v)]++;
+        count++;
+        sum = sum + v < 0 ? Long.MAX_VALUE : sum + v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        last = v;
+    }
+
+    /** Number of recorded values. */
+    public synchronized long count() {
+        return count;
+    }
+
+    /** The most recently recorded value, or 0 if none. */
+    public synchronized long last() {
+        return last;
+    }
+
+    /** Smallest recorded value, or 0 if none. */
+    public synchronized long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    /** Largest recorded value, or 0 if none. */
+    public synchronized long max() {
+        return max;
+    }
+
+    /** Arithmetic mean of the recorded values, or 0 if none. */
+    public synchronized double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * The value below which the given percentage of recorded values fall,
+     * to within the histogram's resolution.
+     *
+     * @param percentile between 0 and 100
+     * @return the value at that percentile, or 0 if nothing was recorded
+     */
+    public synchronized long valueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        double fraction = Math.min(100, Math.max(0, percentile)) / 100;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, highestEquivalentValue(i)));
+            }
+        }
+        return max;
+    }
+
+    /** Bucket of a value: exact below 128, then 64 sub-buckets per power of two. */
+    private static int index(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    /** Largest value that falls into the bucket. */
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - (long) shift * SUB_BUCKET_HALF;
+        long next = (subBucket + 1) << shift;
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
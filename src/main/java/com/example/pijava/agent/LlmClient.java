@@ -36,7 +36,7 @@ public class LlmClient {
      * @throws IOException if the API call fails
      */
     public LlmResponse chat(List<ContextMessage> context) throws IOException {
-        return chat(context, null);
+        return chat(context, (ChatListener) null);
     }
 
     /**
@@ -44,7 +44,8 @@ public class LlmClient {
      * optionally receiving streamed assistant text updates.
      *
      * @param context     ordered list of context messages
-     * @param onTextDelta callback that receives progressively accumulated assistant text
+     * @param onTextDelta callback that receives all assistant text so far; prefer the
+     *                    {@link ChatListener} overload, which delivers fragments without copying
      * @return the parsed {@link LlmResponse}
      * @throws IOException if the API call fails
      */
@@ -54,6 +55,21 @@ public class LlmClient {
         return provider.chat(context, tools, onTextDelta);
     }
 
+    /**
+     * Send the conversation context to the LLM, reporting streaming events
+     * (text updates and completed tool calls) to the given listener.
+     *
+     * @param context  ordered list of context messages
+     * @param listener receiver of streaming events, or {@code null} for a non-streaming call
+     * @return the parsed {@link LlmResponse}
+     * @throws IOException if the API call fails
+     */
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ChatListener listener) throws IOException {
+        return provider.chat(context, tools, listener);
+    }
+
     /**
      * Returns the provider name for identification/logging.
      *
@@ -4,6 +4,7 @@ import com.example.pijava.agent.tool.ToolRegistry;
 import java.io.IOException;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Abstraction layer for LLM providers (OpenAI, Anthropic, etc.).
@@ -32,7 +33,8 @@ public interface LlmProvider {
      *
      * @param context     ordered list of context messages
      * @param tools       the tool registry for building tool definitions
-     * @param onTextDelta callback that receives progressively accumulated assistant text
+     * @param onTextDelta callback that receives all assistant text so far; prefer the
+     *                    {@link ChatListener} overload, which delivers fragments without copying
      * @return the parsed {@link LlmResponse}
      * @throws IOException if the API call fails
      */
@@ -43,10 +45,69 @@ public interface LlmProvider {
         return chat(context, tools);
     }
 
+    /**
+     * Send a chat request to the LLM provider, reporting streaming events to
+     * a {@link ChatListener}.
+     *
+     * <p>Providers that stream natively override this to report each tool
+     * call as soon as its arguments are complete. The default implementation
+     * streams text via {@link #chat(List, ToolRegistry, Consumer)} and reports
+     * all tool calls once the response has finished.</p>
+     *
+     * @param context  ordered list of context messages
+     * @param tools    the tool registry for building tool definitions
+     * @param listener receiver of streaming events, or {@code null} for a non-streaming call
+     * @return the parsed {@link LlmResponse}
+     * @throws IOException if the API call fails
+     */
+    default LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        if (listener == null) {
+            return chat(context, tools);
+        }
+        // Turn the accumulated-text callback back into fragments
+        var delivered = new int[] {0};
+        var response = chat(context, tools, accumulatedText -> {
+            listener.onTextDelta(accumulatedText.substring(delivered[0]));
+            delivered[0] = accumulatedText.length();
+        });
+        response.toolCalls().forEach(listener::onToolCallReady);
+        return response;
+    }
+
     /**
      * Returns the provider name for identification/logging.
      *
      * @return the provider name (e.g., "openai", "anthropic")
      */
     String getProviderName();
+
+    /**
+     * Register a receiver for the HTTP headers of every API response, error
+     * responses included, e.g. to follow the provider's rate-limit headers.
+     * Headers are passed as a lookup from header name to values.
+     *
+     * <p>The default implementation ignores the receiver, for providers
+     * that have no HTTP responses to report.</p>
+     *
+     * @param listener receiver of response headers
+     */
+    default void setResponseHeadersListener(Consumer<Function<String, List<String>>> listener) {
+        // no headers to report
+    }
+
+    /**
+     * Register the registry to record provider-side metrics in, such as
+     * {@link MetricsRegistry#REQUEST_BUILD}.
+     *
+     * <p>The default implementation ignores the registry, for providers
+     * that have nothing of their own to measure.</p>
+     *
+     * @param metrics the session's metrics
+     */
+    default void setMetrics(MetricsRegistry metrics) {
+        // nothing to record
+    }
 }
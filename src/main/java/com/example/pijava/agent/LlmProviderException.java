@@ -0,0 +1,134 @@
+package com.example.pijava.agent;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A failed LLM API call, classified so that callers can decide whether to
+ * try again.
+ *
+ * <p>Providers translate their SDK's errors into this type: HTTP errors
+ * with their status code and the server's retry hints, and transport
+ * failures (connection reset, timeout) with no status. Other exceptions
+ * thrown by {@link LlmProvider#chat} are not worth retrying.</p>
+ */
+public class LlmProviderException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Status code used for failures that never produced an HTTP response. */
+    public static final int NO_STATUS = -1;
+
+    private final int statusCode;
+    private final boolean retryable;
+    private final Duration retryAfter;
+
+    /**
+     * Create an exception.
+     *
+     * @param message    the error message
+     * @param cause      the SDK exception
+     * @param statusCode the HTTP status, or {@link #NO_STATUS}
+     * @param retryable  whether the same request may succeed when repeated
+     * @param retryAfter how long the server asked to wait, or {@code null}
+     */
+    public LlmProviderException(String message, Throwable cause, int statusCode,
+                                boolean retryable, Duration retryAfter) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryable = retryable;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Classify an HTTP error response.
+     *
+     * <p>Request timeouts, conflicts, rate limits and server errors
+     * (including Anthropic's 529 "overloaded") are retryable; other client
+     * errors are not. An {@code x-should-retry} header overrides the status,
+     * and {@code retry-after-ms} or {@code retry-after} (seconds or an HTTP
+     * date) give the requested delay.</p>
+     *
+     * @param message    the error message
+     * @param cause      the SDK exception
+     * @param statusCode the HTTP status
+     * @param headers    looks up the values of a response header by name
+     * @return the classified exception
+     */
+    public static LlmProviderException forStatus(String message, Throwable cause, int statusCode,
+                                                 Function<String, List<String>> headers) {
+        boolean retryable = statusCode == 408 || statusCode == 409 || statusCode == 429
+                || statusCode >= 500;
+        var shouldRetry = first(headers, "x-should-retry");
+        if ("true".equalsIgnoreCase(shouldRetry)) {
+            retryable = true;
+        } else if ("false".equalsIgnoreCase(shouldRetry)) {
+            retryable = false;
+        }
+        return new LlmProviderException(message, cause, statusCode, retryable, retryAfter(headers));
+    }
+
+    /**
+     * Classify a failure to reach the API at all, which is always retryable.
+     *
+     * @param message the error message
+     * @param cause   the SDK exception
+     * @return the classified exception
+     */
+    public static LlmProviderException forTransport(String message, Throwable cause) {
+        return new LlmProviderException(message, cause, NO_STATUS, true, null);
+    }
+
+    /** The HTTP status, or {@link #NO_STATUS} for transport failures. */
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /** Whether repeating the same request may succeed. */
+    public boolean retryable() {
+        return retryable;
+    }
+
+    /** The delay the server asked for, or {@code null} if it gave none. */
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+
+    private static Duration retryAfter(Function<String, List<String>> headers) {
+        var millis = first(headers, "retry-after-ms");
+        if (millis != null) {
+            try {
+                return Duration.ofMillis(Math.max(0, (long) Double.parseDouble(millis)));
+            } catch (NumberFormatException e) {
+                // fall through to retry-after
+            }
+        }
+        var value = first(headers, "retry-after");
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofMillis(Math.max(0, (long) (Double.parseDouble(value) * 1000)));
+        } catch (NumberFormatException e) {
+            // An HTTP date rather than a number of seconds
+        }
+        try {
+            var at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            var delay = Duration.between(Instant.now(), at);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String first(Function<String, List<String>> headers, String name) {
+        var values = headers.apply(name);
+        return values == null || values.isEmpty() ? null : values.get(0).trim();
+    }
+}
@@ -8,10 +8,12 @@ import java.util.List;
  * @param content   the assistant's text reply (may be empty
  *                  when the response contains only tool calls)
  * @param toolCalls tool invocations requested by the assistant
+ * @param usage     token usage reported by the provider
  */
 public record LlmResponse(
         String content,
-        List<ContextMessage.ToolCallData> toolCalls) {
+        List<ContextMessage.ToolCallData> toolCalls,
+        TokenUsage usage) {
 
     /**
      * Compact constructor that creates a defensive copy of the toolCalls list.
@@ -19,6 +21,12 @@ public record LlmResponse(
     public LlmResponse {
         toolCalls = toolCalls != null ? List.copyOf(toolCalls) : List.of();
         content = content != null ? content : "";
+        usage = usage != null ? usage : TokenUsage.NONE;
+    }
+
+    /** Create a response without usage information. */
+    public LlmResponse(String content, List<ContextMessage.ToolCallData> toolCalls) {
+        this(content, toolCalls, TokenUsage.NONE);
     }
 
     /**
@@ -0,0 +1,116 @@
+package com.example.pijava.agent;
+
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-process registry of named {@link Histogram}s for one session.
+ *
+ * <p>{@link AgentLoop} records, for every model round, how long the request
+ * waited before it was sent, the time to the first streamed token, the
+ * model's total time, the streaming rate and the request and response
+ * sizes; the providers record how long building each
+ * SDK request took; every tool call records its execution time under
+ * {@link #TOOL} and under its own name. Histograms are created on first
+ * use.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public final class MetricsRegistry {
+
+    /** Time a provider spent converting the context into an SDK request. */
+    public static final String REQUEST_BUILD = "model.request_build";
+    /**
+     * Time from issuing a request to the provider sending it: building it,
+     * rate-limit queueing, retry backoff and failed attempts.
+     */
+    public static final String REQUEST_WAIT = "model.wait";
+    /** Time from the provider sending a request to its first streamed text or tool call. */
+    public static final String TIME_TO_FIRST_TOKEN = "model.ttft";
+    /** Time a model call took, including retries and rate-limit waits. */
+    public static final String MODEL_TIME = "model.time";
+    /** Output tokens per second between the first streamed token and the end. */
+    public static final String TOKENS_PER_SECOND = "model.tokens_per_second";
+    /** Input tokens of a request, as reported by the provider or estimated. */
+    public static final String REQUEST_TOKENS = "model.request_tokens";
+    /** Output tokens of a response, as reported by the provider or estimated. */
+    public static final String RESPONSE_TOKENS = "model.response_tokens";
+    /** Execution time of every tool call; each tool also has {@code tool.<name>}. */
+    public static final String TOOL = "tool";
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    /**
+     * The histogram with the given name, created with the given unit if it
+     * does not exist yet.
+     *
+     * @param name the metric name
+     * @param unit the unit of a new histogram
+     * @return the histogram
+     */
+    public Histogram histogram(String name, Histogram.Unit unit) {
+        return histograms.computeIfAbsent(name, ignored -> new Histogram(unit));
+    }
+
+    /**
+     * Record a duration, in microseconds.
+     *
+     * @param name  the metric name
+     * @param nanos the duration in nanoseconds
+     */
+    public void recordNanos(String name, long nanos) {
+        histogram(name, Histogram.Unit.MICROSECONDS).record(nanos / 1_000);
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param name  the metric name
+     * @param unit  the unit of the value
+     * @param value the value
+     */
+    public void record(String name, Histogram.Unit unit, long value) {
+        histogram(name, unit).record(value);
+    }
+
+    /**
+     * The latest value recorded under a name.
+     *
+     * @param name the metric name
+     * @return the value, or empty if nothing was recorded yet
+     */
+    public OptionalLong last(String name) {
+        var histogram = histograms.get(name);
+        return histogram != null && histogram.count() > 0
+                ? OptionalLong.of(histogram.last())
+                : OptionalLong.empty();
+    }
+
+    /**
+     * Percentiles of every metric as a markdown table, or a note if
+     * nothing has been recorded yet.
+     *
+     * @return the report
+     */
+    public String report() {
+        if (histograms.isEmpty()) {
+            return "No metrics recorded yet.";
+        }
+        var report = new StringBuilder(
+                "| Metric | Count | Mean | p50 | p90 | p99 | Max |\n"
+                        + "| --- | ---: | ---: | ---: | ---: | ---: | ---: |\n");
+        histograms.forEach((name, histogram) -> {
+            var unit = histogram.unit();
+            report.append("| ").append(name)
+                    .append(" | ").append(histogram.count())
+                    .append(" | ").append(unit.format(Math.round(histogram.mean())))
+                    .append(" | ").append(unit.format(histogram.valueAtPercentile(50)))
+                    .append(" | ").append(unit.format(histogram.valueAtPercentile(90)))
+                    .append(" | ").append(unit.format(histogram.valueAtPercentile(99)))
+                    .append(" | ").append(unit.format(histogram.max()))
+                    .append(" |\n");
+        });
+        return report.toString();
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.pijava.agent;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Client-side limit on requests and tokens per minute for one API key.
+ *
+ * <p>Each limit is a token bucket that refills continuously and holds at
+ * most one minute's allowance. Callers {@link #reserve reserve} a request
+ * and its estimated tokens before sending it and are told how long to wait
+ * first. A reservation may take a bucket below zero, so nobody is refused:
+ * each caller's wait covers the debt of everyone who reserved before it,
+ * which queues callers in arrival order and spreads them out instead of
+ * letting them hit the provider's limit together.</p>
+ *
+ * <p>Limits are learned from the provider's rate-limit response headers
+ * (OpenAI's {@code x-ratelimit-*}, Anthropic's {@code anthropic-ratelimit-*}),
+ * which also report what the key has left once other clients have taken
+ * their share. The token bucket is charged with input and output tokens;
+ * Anthropic's separate limit on input tokens has a bucket of its own,
+ * charged with input only. Until a limit is known it is not enforced. A rate-limit
+ * error {@link #pause pauses} every caller for the delay the server asked
+ * for.</p>
+ *
+ * <p>Instances are thread-safe; {@link #shared} returns one limiter per key
+ * for every session in the JVM.</p>
+ */
+public final class RateLimiter {
+
+    private static final Map<String, RateLimiter> SHARED = new ConcurrentHashMap<>();
+
+    private static final long NANOS_PER_MINUTE = Duration.ofMinutes(1).toNanos();
+    /** Output tokens assumed for a response before any has been measured. */
+    private static final long INITIAL_OUTPUT_ESTIMATE = 1_024;
+    /** Weight of the latest response in the running output estimate. */
+    private static final double OUTPUT_ESTIMATE_WEIGHT = 0.2;
+
+    private static final String[] REQUEST_LIMIT_HEADERS = {
+            "x-ratelimit-limit-requests", "anthropic-ratelimit-requests-limit"};
+    private static final String[] REQUEST_REMAINING_HEADERS = {
+            "x-ratelimit-remaining-requests", "anthropic-ratelimit-requests-remaining"};
+    private static final String[] TOKEN_LIMIT_HEADERS = {
+            "x-ratelimit-limit-tokens", "anthropic-ratelimit-tokens-limit"};
+    private static final String[] TOKEN_REMAINING_HEADERS = {
+            "x-ratelimit-remaining-tokens", "anthropic-ratelimit-tokens-remaining"};
+    private static final String[] INPUT_TOKEN_LIMIT_HEADERS = {"anthropic-ratelimit-input-tokens-limit"};
+    private static final String[] INPUT_TOKEN_REMAINING_HEADERS = {"anthropic-ratelimit-input-tokens-remaining"};
+
+    private final Bucket requests;
+    private final Bucket tokens;
+    private final Bucket inputTokens;
+    private long pausedUntil;
+    private double outputEstimate = INITIAL_OUTPUT_ESTIMATE;
+
+    /** Create a limiter that enforces nothing until it learns the limits. */
+    public RateLimiter() {
+        this(0, 0);
+    }
+
+    /**
+     * Create a limiter with known limits.
+     *
+     * @param requestsPerMinute requests allowed per minute, or 0 if unknown
+     * @param tokensPerMinute   input and output tokens allowed per minute, or 0 if unknown
+     */
+    public RateLimiter(long requestsPerMinute, long tokensPerMinute) {
+        long now = System.nanoTime();
+        this.requests = new Bucket(requestsPerMinute, now);
+        this.tokens = new Bucket(tokensPerMinute, now);
+        this.inputTokens = new Bucket(0, now);
+        this.pausedUntil = now;
+    }
+
+    /**
+     * The limiter shared by every session in this JVM that uses the given key.
+     *
+     * @param key identifies the rate-limited account, e.g. provider and a hash of the API key
+     * @return the shared limiter, created on first use
+     */
+    public static RateLimiter shared(String key) {
+        return SHARED.computeIfAbsent(key, ignored -> new RateLimiter());
+    }
+
+    /**
+     * Set the limits explicitly; response headers may still adjust them later.
+     *
+     * @param requestsPerMinute requests allowed per minute, or 0 to leave unchanged
+     * @param tokensPerMinute   tokens allowed per minute, or 0 to leave unchanged
+     */
+    public synchronized void setLimits(long requestsPerMinute, long tokensPerMinute) {
+        long now = System.nanoTime();
+        if (requestsPerMinute > 0) {
+            requests.setLimit(requestsPerMinute, now);
+        }
+        if (tokensPerMinute > 0) {
+            tokens.setLimit(tokensPerMinute, now);
+        }
+    }
+
+    /** Requests allowed per minute, or 0 while unknown. */
+    public synchronized long requestsPerMinute() {
+        return requests.limit;
+    }
+
+    /** Tokens allowed per minute, or 0 while unknown. */
+    public synchronized long tokensPerMinute() {
+        return tokens.limit;
+    }
+
+    /** Output tokens a response is expected to use, from recent responses. */
+    public synchronized long expectedOutputTokens() {
+        return Math.round(outputEstimate);
+    }
+
+    /**
+     * Reserve one request, its estimated input tokens and the output tokens
+     * a response is expected to use (see {@link #expectedOutputTokens}).
+     *
+     * @param estimatedInputTokens estimated input tokens of the request
+     * @return the reservation, which says how long to wait before sending
+     */
+    public synchronized Reservation reserve(long estimatedInputTokens) {
+        long now = System.nanoTime();
+        long total = estimatedInputTokens + Math.round(outputEstimate);
+        long wait = Math.max(requests.take(1, now), tokens.take(total, now));
+        wait = Math.max(wait, inputTokens.take(estimatedInputTokens, now));
+        wait = Math.max(wait, pausedUntil - now);
+        return new Reservation(estimatedInputTokens, total, Duration.ofNanos(Math.max(0, wait)));
+    }
+
+    /**
+     * Hold back every caller for the given time, after the provider
+     * reported that the limit was hit. Both buckets are emptied, so callers
+     * released afterwards are spaced out rather than sent together.
+     *
+     * @param delay how long the server asked callers to wait
+     */
+    public synchronized void pause(Duration delay) {
+        long now = System.nanoTime();
+        pausedUntil = Math.max(pausedUntil, now + delay.toNanos());
+        requests.drain(now);
+        tokens.drain(now);
+        inputTokens.drain(now);
+    }
+
+    /**
+     * Adjust the limits from a response's rate-limit headers. Limits are
+     * taken as given; remaining counts can only lower what this limiter
+     * thinks is available, since requests still in flight are not yet
+     * reflected in them.
+     *
+     * @param headers looks up the values of a response header by name
+     */
+    public void updateFromHeaders(Function<String, List<String>> headers) {
+        long requestLimit = first(headers, REQUEST_LIMIT_HEADERS);
+        long requestRemaining = first(headers, REQUEST_REMAINING_HEADERS);
+        long tokenLimit = first(headers, TOKEN_LIMIT_HEADERS);
+        long tokenRemaining = first(headers, TOKEN_REMAINING_HEADERS);
+        long inputLimit = first(headers, INPUT_TOKEN_LIMIT_HEADERS);
+        long inputRemaining = first(headers, INPUT_TOKEN_REMAINING_HEADERS);
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (requestLimit > 0) {
+                requests.setLimit(requestLimit, now);
+            }
+            if (tokenLimit > 0) {
+                tokens.setLimit(tokenLimit, now);
+            }
+            if (requestRemaining >= 0) {
+                requests.atMost(requestRemaining, now);
+            }
+            if (tokenRemaining >= 0) {
+                tokens.atMost(tokenRemaining, now);
+            }
+            if (inputLimit > 0) {
+                inputTokens.setLimit(inputLimit, now);
+            }
+            if (inputRemaining >= 0) {
+                inputTokens.atMost(inputRemaining, now);
+            }
+        }
+    }
+
+    private synchronized void settle(long reservedInput, long reservedTokens, TokenUsage usage) {
+        long used = usage.totalInputTokens() + usage.outputTokens();
+        if (used == 0) {
+            // The provider reported no usage; keep the estimate
+            return;
+        }
+        long now = System.nanoTime();
+        tokens.giveBack(reservedTokens - used, now);
+        inputTokens.giveBack(reservedInput - usage.totalInputTokens(), now);
+        outputEstimate += OUTPUT_ESTIMATE_WEIGHT * (usage.outputTokens() - outputEstimate);
+    }
+
+    private synchronized void refund(long reservedInput, long reservedTokens, boolean sent) {
+        long now = System.nanoTime();
+        tokens.giveBack(reservedTokens, now);
+        inputTokens.giveBack(reservedInput, now);
+        if (!sent) {
+            requests.giveBack(1, now);
+        }
+    }
+
+    private static long first(Function<String, List<String>> headers, String[] names) {
+        for (var name : names) {
+            var values = headers.apply(name);
+            if (values != null && !values.isEmpty()) {
+                try {
+                    return Long.parseLong(values.get(0).trim());
+                } catch (NumberFormatException e) {
+                    // try the next header
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A request's claim on the limits. Exactly one of {@link #settle},
+     * {@link #failed} or {@link #cancel} should be called once the request
+     * is over, so that the estimate is corrected.
+     */
+    public final class Reservation {
+
+        private final long input;
+        private final long tokens;
+        private final Duration delay;
+        private boolean closed;
+
+        private Reservation(long input, long tokens, Duration delay) {
+            this.input = input;
+            this.tokens = tokens;
+            this.delay = delay;
+        }
+
+        /** How long to wait before sending the request. */
+        public Duration delay() {
+            return delay;
+        }
+
+        /**
+         * The request completed; replace the estimate with the usage the
+         * provider reported.
+         *
+         * @param usage the response's token usage
+         */
+        public void settle(TokenUsage usage) {
+            if (close()) {
+                RateLimiter.this.settle(input, tokens, usage);
+            }
+        }
+
+        /** The request was sent but failed; its tokens were not used. */
+        public void failed() {
+            if (close()) {
+                refund(input, tokens, true);
+            }
+        }
+
+        /** The request was never sent. */
+        public void cancel() {
+            if (close()) {
+                refund(input, tokens, false);
+            }
+        }
+
+        private synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+    }
+
+    /**
+     * One limit as a continuously refilling bucket holding at most a
+     * minute's allowance. Guarded by the enclosing limiter's lock.
+     */
+    private static final class Bucket {
+
+        private long limit;
+        private double available;
+        private long refilledAt;
+
+        Bucket(long limit, long now) {
+            this.limit = limit;
+            this.available = limit;
+            this.refilledAt = now;
+        }
+
+        /** Take an amount, possibly into debt, returning the nanoseconds until it is repaid. */
+        long take(long amount, long now) {
+            if (limit <= 0) {
+                return 0;
+            }
+            refill(now);
+            available -= amount;
+            return available >= 0 ? 0 : (long) Math.ceil(-available * NANOS_PER_MINUTE / limit);
+        }
+
+        void giveBack(long amount, long now) {
+            if (limit > 0) {
+                refill(now);
+                available = Math.min(limit, available + amount);
+            }
+        }
+
+        void setLimit(long newLimit, long now) {
+            refill(now);
+            available = limit <= 0 ? newLimit : Math.min(available, newLimit);
+            limit = newLimit;
+        }
+
+        void atMost(long remaining, long now) {
+            if (limit > 0) {
+                refill(now);
+                available = Math.min(available, remaining);
+            }
+        }
+
+        void drain(long now) {
+            atMost(0, now);
+        }
+
+        private void refill(long now) {
+            if (limit > 0) {
+                available = Math.min(limit,
+                        available + (double) (now - refilledAt) * limit / NANOS_PER_MINUTE);
+            }
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.pijava.agent;
+
+import java.util.Locale;
+
+/**
+ * Cheap, provider-independent token estimates for {@link ContextMessage}s.
+ *
+ * <p>Uses the common "about four characters per token" heuristic plus a
+ * small fixed overhead per message and per tool call. The numbers are
+ * only used to keep requests under a budget, so being roughly right and
+ * fast matters more than matching a real tokenizer.</p>
+ */
+public final class TokenEstimator {
+
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MESSAGE_OVERHEAD = 4;
+    private static final int TOOL_CALL_OVERHEAD = 8;
+
+    /** Fraction of the model's context window used for the request itself. */
+    private static final double BUDGET_FRACTION = 0.75;
+
+    private TokenEstimator() { /* utility */ }
+
+    /**
+     * Estimate the number of tokens a message occupies in a request.
+     *
+     * @param message the message to measure
+     * @return the estimated token count (always positive)
+     */
+    public static int estimate(ContextMessage message) {
+        long tokens = MESSAGE_OVERHEAD + estimate(message.content());
+        for (var call : message.toolCalls()) {
+            tokens += TOOL_CALL_OVERHEAD
+                    + estimate(call.function().name())
+                    + estimate(call.function().arguments());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, tokens);
+    }
+
+    /**
+     * Estimate the number of tokens in a piece of text.
+     *
+     * @param text the text, may be {@code null}
+     * @return the estimated token count
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Default request budget for a model: a fixed fraction of its context
+     * window, leaving room for the response.
+     *
+     * @param model the model identifier
+     * @return the token budget for the request context
+     */
+    public static int defaultBudgetFor(String model) {
+        return (int) (contextWindow(model) * BUDGET_FRACTION);
+    }
+
+    private static int contextWindow(String model) {
+        var name = model == null ? "" : model.toLowerCase(Locale.ROOT);
+        if (name.startsWith("claude")) {
+            return 200_000;
+        } else if (name.startsWith("gpt-4o") || name.startsWith("gpt-4-turbo")
+                || name.startsWith("o1") || name.startsWith("o3")) {
+            return 128_000;
+        } else if (name.startsWith("gpt-4.1")) {
+            return 1_000_000;
+        } else if (name.startsWith("gpt-3.5")) {
+            return 16_000;
+        } else if (name.startsWith("gpt-4")) {
+            return 8_000;
+        }
+        return 32_000; // Conservative default for unknown / custom models
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.pijava.agent;
+
+/**
+ * Token accounting reported by the provider for one or more requests.
+ *
+ * <p>{@code inputTokens} counts uncached input only; prompt-cache reads and
+ * writes are reported separately so cache hit rates can be verified.</p>
+ *
+ * @param inputTokens              uncached input tokens
+ * @param outputTokens             generated output tokens
+ * @param cacheReadInputTokens     input tokens served from the prompt cache
+ * @param cacheCreationInputTokens input tokens written to the prompt cache
+ */
+public record TokenUsage(
+        long inputTokens,
+        long outputTokens,
+        long cacheReadInputTokens,
+        long cacheCreationInputTokens) {
+
+    /** Usage of a response whose provider reported nothing. */
+    public static final TokenUsage NONE = new TokenUsage(0, 0, 0, 0);
+
+    /** Sum of this usage and another. */
+    public TokenUsage plus(TokenUsage other) {
+        return new TokenUsage(
+                inputTokens + other.inputTokens,
+                outputTokens + other.outputTokens,
+                cacheReadInputTokens + other.cacheReadInputTokens,
+                cacheCreationInputTokens + other.cacheCreationInputTokens);
+    }
+
+    /** All input tokens, cached or not. */
+    public long totalInputTokens() {
+        return inputTokens + cacheReadInputTokens + cacheCreationInputTokens;
+    }
+
+    /** Fraction of input tokens served from the prompt cache, {@code 0} if none. */
+    public double cacheHitRate() {
+        var total = totalInputTokens();
+        return total == 0 ? 0.0 : (double) cacheReadInputTokens / total;
+    }
+}
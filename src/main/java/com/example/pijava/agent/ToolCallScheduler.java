@@ -0,0 +1,220 @@
+package com.example.pijava.agent;
+
+import com.example.pijava.agent.tool.ToolBudget;
+import com.example.pijava.agent.tool.ToolRegistry;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the tool calls of a single LLM round on virtual threads.
+ *
+ * <p>Calls are ordered by a barrier in request order: a read-only call
+ * waits for the last side-effecting call requested before it, and a
+ * side-effecting call waits for that call and for every read-only call
+ * requested since. Read-only calls between two side-effecting calls run in
+ * parallel with each other, while every read sees the effects of the
+ * writes before it and no write overtakes an earlier read. When parallel
+ * execution is disabled every call is treated as side-effecting, which
+ * reproduces plain sequential execution.</p>
+ *
+ * <p>{@link AgentLoop.ToolEvent#progress} events relay partial output of
+ * long-running tools, and {@link AgentLoop.ToolEvent#toolResult} events
+ * fire as each call finishes; {@link #awaitAll(List)} returns results in
+ * the original call order so the context stays deterministic.</p>
+ *
+ * <p>Each call is charged to the turn's {@link ToolBudget}, shared by
+ * every round of the turn, and repeated idempotent calls may be answered
+ * by reference to a result the conversation still contains. The
+ * execution time of every call is recorded in the session's
+ * {@link MetricsRegistry}.</p>
+ *
+ * <p>{@link #cancel()} interrupts running tools and completes every
+ * unfinished call with a cancellation result, so waiting callers return
+ * immediately.</p>
+ */
+final class ToolCallScheduler implements AutoCloseable {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ToolCallScheduler.class);
+
+    static final String CANCELLED_RESULT = "Error: cancelled by user";
+
+    private final ToolRegistry tools;
+    private final boolean parallel;
+    private final Consumer<AgentLoop.ToolEvent> onToolEvent;
+    private final ToolBudget budget;
+    private final Predicate<String> inContext;
+    private final MetricsRegistry metrics;
+    private final ExecutorService executor =
+            Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, CompletableFuture<String>> dispatched =
+            new LinkedHashMap<>();
+    private final List<ContextMessage.ToolCallData> dispatchedCalls = new ArrayList<>();
+
+    /** The last side-effecting call; later calls run after it. */
+    private CompletableFuture<String> lastSideEffect =
+            CompletableFuture.completedFuture("");
+    /** Read-only calls dispatched since the last side-effecting call. */
+    private final List<CompletableFuture<String>> readsSinceSideEffect = new ArrayList<>();
+    private boolean cancelled;
+
+    ToolCallScheduler(ToolRegistry tools, boolean parallel,
+                      Consumer<AgentLoop.ToolEvent> onToolEvent, ToolBudget budget,
+                      Predicate<String> inContext, MetricsRegistry metrics) {
+        this.tools = tools;
+        this.parallel = parallel;
+        this.onToolEvent = onToolEvent;
+        this.budget = budget;
+        this.inContext = inContext;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Start a tool call unless it has already been dispatched.
+     *
+     * @param call the tool call to run
+     */
+    synchronized void dispatch(ContextMessage.ToolCallData call) {
+        if (dispatched.containsKey(call.id())) {
+            return;
+        }
+        dispatchedCalls.add(call);
+        if (cancelled) {
+            dispatched.put(call.id(), CompletableFuture.completedFuture(CANCELLED_RESULT));
+            return;
+        }
+        var name = call.function().name();
+        LOG.debug("Tool call: {} ({})", name, call.id());
+        emit(AgentLoop.ToolEvent.toolCall(
+                call.id(), name, call.function().arguments()));
+
+        CompletableFuture<String> future;
+        if (parallel && tools.isReadOnly(name)) {
+            future = lastSideEffect.handleAsync(
+                    (ignoredResult, ignoredError) -> run(call), executor);
+            readsSinceSideEffect.add(future);
+        } else {
+            readsSinceSideEffect.add(lastSideEffect);
+            var barrier = CompletableFuture.allOf(
+                    readsSinceSideEffect.toArray(CompletableFuture<?>[]::new));
+            future = barrier.handleAsync(
+                    (ignoredResult, ignoredError) -> run(call), executor);
+            lastSideEffect = future;
+            readsSinceSideEffect.clear();
+        }
+        dispatched.put(call.id(), future);
+    }
+
+    /**
+     * Every call dispatched so far, in dispatch order, including calls
+     * answered with a cancellation result.
+     *
+     * @return a snapshot of the dispatched calls
+     */
+    synchronized List<ContextMessage.ToolCallData> dispatchedCalls() {
+        return List.copyOf(dispatchedCalls);
+    }
+
+    /**
+     * Dispatch any calls not yet started and wait for all of them.
+     *
+     * @param calls the calls of this round, in LLM order
+     * @return one result per call, in the same order
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    List<String> awaitAll(List<ContextMessage.ToolCallData> calls)
+            throws InterruptedException {
+        var futures = new ArrayList<CompletableFuture<String>>(calls.size());
+        for (var call : calls) {
+            dispatch(call);
+            synchronized (this) {
+                futures.add(dispatched.get(call.id()));
+            }
+        }
+
+        var results = new ArrayList<String>(calls.size());
+        for (int i = 0; i < calls.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                var name = calls.get(i).function().name();
+                results.add("Error executing " + name + ": "
+                        + e.getCause().getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Cancel the round: interrupt running tools, skip queued ones and
+     * complete every unfinished call with a cancellation result.
+     */
+    void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            for (var future : dispatched.values()) {
+                future.complete(CANCELLED_RESULT);
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private String run(ContextMessage.ToolCallData call) {
+        var name = call.function().name();
+        synchronized (this) {
+            if (cancelled) {
+                return CANCELLED_RESULT;
+            }
+        }
+        String result;
+        try {
+            var args = JsonParser.parseString(call.function().arguments())
+                    .getAsJsonObject();
+            long start = System.nanoTime();
+            result = tools.execute(call.id(), name, args,
+                    progress -> emit(AgentLoop.ToolEvent.progress(call.id(), name, progress)),
+                    budget, inContext);
+            long elapsed = System.nanoTime() - start;
+            metrics.recordNanos(MetricsRegistry.TOOL, elapsed);
+            metrics.recordNanos(MetricsRegistry.TOOL + "." + name, elapsed);
+        } catch (JsonParseException | IllegalStateException e) {
+            result = "Error: invalid arguments for " + name + ": " + e.getMessage();
+        }
+
+        LOG.debug("Tool result for {}: {} chars", name, result.length());
+        emit(AgentLoop.ToolEvent.toolResult(call.id(), name, result));
+        return result;
+    }
+
+    private void emit(AgentLoop.ToolEvent event) {
+        if (onToolEvent != null) {
+            onToolEvent.accept(event);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (cancelled) {
+                // Do not wait for tools that ignore interruption
+                return;
+            }
+        }
+        executor.close();
+    }
+}
@@ -2,16 +2,25 @@ package com.example.pijava.agent.provider;
 
 import com.anthropic.client.AnthropicClient;
 import com.anthropic.client.okhttp.AnthropicOkHttpClient;
+import com.anthropic.errors.AnthropicIoException;
+import com.anthropic.errors.AnthropicServiceException;
+import com.anthropic.models.messages.CacheControlEphemeral;
 import com.anthropic.models.messages.ContentBlockParam;
 import com.anthropic.models.messages.Message;
 import com.anthropic.models.messages.MessageCreateParams;
 import com.anthropic.models.messages.MessageParam;
 import com.anthropic.models.messages.Model;
+import com.anthropic.models.messages.TextBlockParam;
 import com.anthropic.models.messages.ToolResultBlockParam;
 import com.anthropic.models.messages.ToolUseBlockParam;
+import com.anthropic.models.messages.Usage;
+import com.example.pijava.agent.ChatListener;
 import com.example.pijava.agent.ContextMessage;
 import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.LlmProviderException;
 import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.MetricsRegistry;
+import com.example.pijava.agent.TokenUsage;
 import com.example.pijava.agent.tool.ToolRegistry;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,6 +30,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,15 +40,32 @@ import org.slf4j.LoggerFactory;
  * <p>Uses the Messages API with tool support. Note that Anthropic's API
  * structure differs from OpenAI's - system messages are passed separately
  * and tool results use a different format.</p>
+ *
+ * <p>Requests carry prompt-cache breakpoints on the tool catalogue, the
+ * system prompt and the final message. Consecutive rounds of a session share
+ * almost their whole prefix, so each round reads the previous round's
+ * prefix from the cache and only pays full price for the new messages.
+ * Cache reads and writes are reported in {@link LlmResponse#usage()}.</p>
+ *
+ * <p>The SDK's built-in retries are turned off; failures are reported as
+ * {@link LlmProviderException}s so that {@link RetryingLlmProvider} can
+ * apply one retry policy to every provider.</p>
  */
 public class AnthropicLlmProvider implements LlmProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(AnthropicLlmProvider.class);
     private static final String ROLE_SYSTEM = "system";
+    private static final com.google.gson.Gson GSON = new com.google.gson.Gson();
+    private static final CacheControlEphemeral CACHE_BREAKPOINT =
+            CacheControlEphemeral.builder().build();
 
     private final AnthropicClient client;
     private final Optional<Model> model;
     private final String modelName;
+    private volatile Consumer<Function<String, List<String>>> headersListener = headers -> { };
+    private volatile MetricsRegistry metrics;
+    private final MessageConversionCache<MessageParam> conversions =
+            new MessageConversionCache<>();
 
     /**
      * Create a provider targeting the Anthropic API.
@@ -51,12 +78,31 @@ public class AnthropicLlmProvider implements LlmProvider {
         this.modelName = model;
         this.client = AnthropicOkHttpClient.builder()
                 .apiKey(apiKey)
+                .maxRetries(0)
+                .build();
+    }
+
+    /**
+     * Create a provider with a custom base URL (for proxies, compatible
+     * gateways or a local {@link MockLlmServer}).
+     *
+     * @param apiKey  API key for authentication
+     * @param baseUrl base URL for the API endpoint
+     * @param model   model identifier
+     */
+    public AnthropicLlmProvider(String apiKey, String baseUrl, String model) {
+        this.model = resolveModel(model);
+        this.modelName = model;
+        this.client = AnthropicOkHttpClient.builder()
+                .apiKey(apiKey)
+                .maxRetries(0)
+                .baseUrl(baseUrl)
                 .build();
     }
 
     @Override
     public LlmResponse chat(List<ContextMessage> context, ToolRegistry tools) throws IOException {
-        return chat(context, tools, null);
+        return chat(context, tools, (ChatListener) null);
     }
 
     @Override
@@ -64,57 +110,50 @@ public class AnthropicLlmProvider implements LlmProvider {
             List<ContextMessage> context,
             ToolRegistry tools,
             Consumer<String> onTextDelta) throws IOException {
-        try {
-            var paramsBuilder = MessageCreateParams.builder();
-
-            // Set model
-            model.ifPresentOrElse(
-                    paramsBuilder::model,
-                    () -> paramsBuilder.model(modelName)
-            );
-
-            // Anthropic requires max_tokens
-            paramsBuilder.maxTokens(4096L);
-
-            // Extract system message (Anthropic handles system separately)
-            String systemPrompt = null;
-            List<ContextMessage> conversationMessages = new ArrayList<>();
-            for (var msg : context) {
-                if (ROLE_SYSTEM.equals(msg.role())) {
-                    systemPrompt = msg.content();
-                } else {
-                    conversationMessages.add(msg);
-                }
-            }
-
-            if (systemPrompt != null) {
-                paramsBuilder.system(systemPrompt);
-            }
-
-            // Convert messages to Anthropic format
-            // Anthropic alternates user/assistant messages
-            List<MessageParam> messages = buildMessageParams(conversationMessages);
-            for (var msg : messages) {
-                paramsBuilder.addMessage(msg);
-            }
+        return chat(context, tools, ChatListener.accumulating(onTextDelta));
+    }
 
-            // Add tool definitions if any
-            var toolDefs = tools.toAnthropicTools();
-            for (var tool : toolDefs) {
-                paramsBuilder.addTool(tool);
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        try {
+            long buildStart = System.nanoTime();
+            var params = buildParams(context, tools);
+            var registry = metrics;
+            if (registry != null) {
+                registry.recordNanos(MetricsRegistry.REQUEST_BUILD, System.nanoTime() - buildStart);
             }
-
-            var params = paramsBuilder.build();
-            if (onTextDelta == null) {
-                var message = client.messages().create(params);
-                return parseResponse(message);
+            if (listener == null) {
+                try (var raw = client.messages().withRawResponse().create(params)) {
+                    headersListener.accept(raw.headers()::values);
+                    return parseResponse(raw.parse());
+                }
             }
 
             var content = new StringBuilder();
             Map<Long, StreamToolCallAccumulator> streamedToolCalls = new LinkedHashMap<>();
+            var usage = new TokenUsage[] {TokenUsage.NONE};
 
-            try (var streamResponse = client.messages().createStreaming(params)) {
+            listener.onRequestSent(System.nanoTime());
+            try (var raw = client.messages().withRawResponse().createStreaming(params);
+                    var streamResponse = raw.parse()) {
+                headersListener.accept(raw.headers()::values);
+                listener.onStreamOpened(streamResponse);
                 streamResponse.stream().forEach(event -> {
+                    // message_start carries input and cache usage, message_delta the output count
+                    if (event.isMessageStart()) {
+                        usage[0] = toTokenUsage(event.asMessageStart().message().usage());
+                    } else if (event.isMessageDelta()) {
+                        var start = usage[0];
+                        usage[0] = new TokenUsage(
+                                start.inputTokens(),
+                                event.asMessageDelta().usage().outputTokens(),
+                                start.cacheReadInputTokens(),
+                                start.cacheCreationInputTokens());
+                    }
+
                     if (event.isContentBlockStart()) {
                         var start = event.asContentBlockStart();
                         var block = start.contentBlock();
@@ -136,7 +175,7 @@ public class AnthropicLlmProvider implements LlmProvider {
                             var text = delta.asText().text();
                             if (!text.isEmpty()) {
                                 content.append(text);
-                                onTextDelta.accept(content.toString());
+                                listener.onTextDelta(text);
                             }
                         } else if (delta.isInputJson()) {
                             var acc = streamedToolCalls.computeIfAbsent(
@@ -148,33 +187,105 @@ public class AnthropicLlmProvider implements LlmProvider {
                             }
                         }
                     }
+
+                    // A finished tool_use block can be dispatched before the stream ends
+                    if (event.isContentBlockStop()) {
+                        completeToolCall(
+                                event.asContentBlockStop().index(),
+                                streamedToolCalls,
+                                listener);
+                    }
                 });
             }
 
             List<ContextMessage.ToolCallData> toolCalls = new ArrayList<>();
-            for (var entry : streamedToolCalls.entrySet()) {
-                var index = entry.getKey();
-                var call = entry.getValue();
-                var id = call.id != null ? call.id : "tool_call_" + index;
-                var name = call.name != null ? call.name : "";
-                var arguments = call.arguments.length() > 0
-                        ? call.arguments.toString()
-                        : "{}";
-
-                toolCalls.add(new ContextMessage.ToolCallData(
-                        id,
-                        "function",
-                        new ContextMessage.FunctionData(name, arguments)));
+            for (var index : streamedToolCalls.keySet()) {
+                toolCalls.add(completeToolCall(index, streamedToolCalls, listener));
             }
 
-            return new LlmResponse(content.toString(), toolCalls);
+            return new LlmResponse(content.toString(), toolCalls, usage[0]);
 
+        } catch (AnthropicServiceException e) {
+            headersListener.accept(e.headers()::values);
+            LOG.warn("Anthropic API error (HTTP {}): {}", e.statusCode(), e.getMessage());
+            throw LlmProviderException.forStatus("Anthropic API error: " + e.getMessage(), e,
+                    e.statusCode(), e.headers()::values);
+        } catch (AnthropicIoException e) {
+            LOG.warn("Anthropic API connection error: {}", e.getMessage());
+            throw LlmProviderException.forTransport("Anthropic API error: " + e.getMessage(), e);
         } catch (Exception e) {
             LOG.error("Anthropic API error: {}", e.getMessage(), e);
             throw new IOException("Anthropic API error: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Build the request for a conversation; {@link #chat} sends it as is.
+     * Package-private so the benchmarks can measure it without a network.
+     */
+    MessageCreateParams buildParams(List<ContextMessage> context, ToolRegistry tools) {
+        var paramsBuilder = MessageCreateParams.builder();
+
+        // Set model
+        model.ifPresentOrElse(
+                paramsBuilder::model,
+                () -> paramsBuilder.model(modelName)
+        );
+
+        // Anthropic requires max_tokens
+        paramsBuilder.maxTokens(4096L);
+
+        // Extract system message (Anthropic handles system separately)
+        String systemPrompt = null;
+        List<ContextMessage> conversationMessages = new ArrayList<>();
+        for (var msg : context) {
+            if (ROLE_SYSTEM.equals(msg.role())) {
+                systemPrompt = msg.content();
+            } else {
+                conversationMessages.add(msg);
+            }
+        }
+
+        if (systemPrompt != null) {
+            paramsBuilder.systemOfTextBlockParams(List.of(TextBlockParam.builder()
+                    .text(systemPrompt)
+                    .cacheControl(CACHE_BREAKPOINT)
+                    .build()));
+        }
+
+        // Convert messages to Anthropic format
+        // Anthropic alternates user/assistant messages
+        List<MessageParam> messages = buildMessageParams(conversationMessages);
+        for (int i = 0; i < messages.size(); i++) {
+            var msg = messages.get(i);
+            // The final message becomes the cached prefix of the next round
+            paramsBuilder.addMessage(i == messages.size() - 1
+                    ? withCacheBreakpoint(msg)
+                    : msg);
+        }
+
+        // Add tool definitions if any; the breakpoint on the last one caches them all
+        var toolDefs = tools.toAnthropicTools();
+        for (int i = 0; i < toolDefs.size(); i++) {
+            var tool = toolDefs.get(i);
+            paramsBuilder.addTool(i == toolDefs.size() - 1
+                    ? tool.toBuilder().cacheControl(CACHE_BREAKPOINT).build()
+                    : tool);
+        }
+
+        return paramsBuilder.build();
+    }
+
+    @Override
+    public void setResponseHeadersListener(Consumer<Function<String, List<String>>> listener) {
+        this.headersListener = listener;
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public String getProviderName() {
         return "anthropic";
@@ -189,89 +300,94 @@ public class AnthropicLlmProvider implements LlmProvider {
         });
     }
 
+    /**
+     * Convert the conversation to Anthropic message params. Earlier messages
+     * are served from the per-provider conversion cache, so only messages
+     * appended since the previous round are converted.
+     */
     private List<MessageParam> buildMessageParams(List<ContextMessage> messages) {
-        var result = new ArrayList<MessageParam>();
+        return conversions.convertAll(messages, AnthropicLlmProvider::toMessageParam);
+    }
 
-        for (var msg : messages) {
-            switch (msg.role()) {
-                case "user" -> {
-                    var contentBlocks = new ArrayList<ContentBlockParam>();
-                    var textBlock = com.anthropic.models.messages.TextBlockParam.builder()
+    /** Convert one message, or return {@code null} if it has nothing to send. */
+    private static MessageParam toMessageParam(ContextMessage msg) {
+        switch (msg.role()) {
+            case "user" -> {
+                var contentBlocks = new ArrayList<ContentBlockParam>();
+                var textBlock = TextBlockParam.builder()
+                        .text(msg.content())
+                        .build();
+                contentBlocks.add(ContentBlockParam.ofText(textBlock));
+                return MessageParam.builder()
+                        .role(MessageParam.Role.USER)
+                        .contentOfBlockParams(contentBlocks)
+                        .build();
+            }
+
+            case "assistant" -> {
+                var contentBlocks = new ArrayList<ContentBlockParam>();
+
+                // Add text content if present
+                if (msg.content() != null && !msg.content().isEmpty()) {
+                    var textBlock = TextBlockParam.builder()
                             .text(msg.content())
                             .build();
                     contentBlocks.add(ContentBlockParam.ofText(textBlock));
-                    result.add(MessageParam.builder()
-                            .role(MessageParam.Role.USER)
-                            .contentOfBlockParams(contentBlocks)
-                            .build());
                 }
 
-                case "assistant" -> {
-                    var contentBlocks = new ArrayList<ContentBlockParam>();
-
-                    // Add text content if present
-                    if (msg.content() != null && !msg.content().isEmpty()) {
-                        var textBlock = com.anthropic.models.messages.TextBlockParam.builder()
-                                .text(msg.content())
-                                .build();
-                        contentBlocks.add(ContentBlockParam.ofText(textBlock));
-                    }
-
-                    // Add tool calls
-                    if (msg.toolCalls() != null && !msg.toolCalls().isEmpty()) {
-                        for (var tc : msg.toolCalls()) {
-                            var inputMap = parseJsonToMap(tc.function().arguments());
-                            var inputBuilder = ToolUseBlockParam.Input.builder();
-                            for (var entry : inputMap.entrySet()) {
-                                inputBuilder.putAdditionalProperty(entry.getKey(), 
-                                    objectToJsonValue(entry.getValue()));
-                            }
-                            var toolUseBlock = ToolUseBlockParam.builder()
-                                    .id(tc.id())
-                                    .name(tc.function().name())
-                                    .input(inputBuilder.build())
-                                    .build();
-                            contentBlocks.add(ContentBlockParam.ofToolUse(toolUseBlock));
+                // Add tool calls
+                if (msg.toolCalls() != null && !msg.toolCalls().isEmpty()) {
+                    for (var tc : msg.toolCalls()) {
+                        var inputMap = parseJsonToMap(tc.function().arguments());
+                        var inputBuilder = ToolUseBlockParam.Input.builder();
+                        for (var entry : inputMap.entrySet()) {
+                            inputBuilder.putAdditionalProperty(entry.getKey(), 
+                                objectToJsonValue(entry.getValue()));
                         }
-                    }
-
-                    if (!contentBlocks.isEmpty()) {
-                        result.add(MessageParam.builder()
-                                .role(MessageParam.Role.ASSISTANT)
-                                .contentOfBlockParams(contentBlocks)
-                                .build());
+                        var toolUseBlock = ToolUseBlockParam.builder()
+                                .id(tc.id())
+                                .name(tc.function().name())
+                                .input(inputBuilder.build())
+                                .build();
+                        contentBlocks.add(ContentBlockParam.ofToolUse(toolUseBlock));
                     }
                 }
 
-                case "tool" -> {
-                    // Anthropic tool results are sent as user messages with tool_result blocks
-                    var contentBlocks = new ArrayList<ContentBlockParam>();
-                    var toolResultBlock = ToolResultBlockParam.builder()
-                            .toolUseId(msg.toolCallId())
-                            .content(msg.content())
-                            .build();
-                    contentBlocks.add(ContentBlockParam.ofToolResult(toolResultBlock));
-                    result.add(MessageParam.builder()
-                            .role(MessageParam.Role.USER)
+                if (!contentBlocks.isEmpty()) {
+                    return MessageParam.builder()
+                            .role(MessageParam.Role.ASSISTANT)
                             .contentOfBlockParams(contentBlocks)
-                            .build());
+                            .build();
                 }
+                // Nothing to send for an empty assistant message
+                return null;
+            }
 
-                default -> throw new IllegalArgumentException("Unknown message role: " + msg.role());
+            case "tool" -> {
+                // Anthropic tool results are sent as user messages with tool_result blocks
+                var contentBlocks = new ArrayList<ContentBlockParam>();
+                var toolResultBlock = ToolResultBlockParam.builder()
+                        .toolUseId(msg.toolCallId())
+                        .content(msg.content())
+                        .build();
+                contentBlocks.add(ContentBlockParam.ofToolResult(toolResultBlock));
+                return MessageParam.builder()
+                        .role(MessageParam.Role.USER)
+                        .contentOfBlockParams(contentBlocks)
+                        .build();
             }
-        }
 
-        return result;
+            default -> throw new IllegalArgumentException("Unknown message role: " + msg.role());
+        }
     }
 
     @SuppressWarnings("unchecked")
     private static Map<String, Object> parseJsonToMap(String json) {
         try {
-            var gson = new com.google.gson.Gson();
-            var obj = gson.fromJson(json, com.google.gson.JsonObject.class);
+            var obj = GSON.fromJson(json, com.google.gson.JsonObject.class);
             Map<String, Object> result = new LinkedHashMap<>();
             for (String key : obj.keySet()) {
-                result.put(key, gson.fromJson(obj.get(key), Object.class));
+                result.put(key, GSON.fromJson(obj.get(key), Object.class));
             }
             return result;
         } catch (Exception e) {
@@ -321,12 +437,79 @@ public class AnthropicLlmProvider implements LlmProvider {
             }
         }
 
-        return new LlmResponse(content, toolCalls);
+        return new LlmResponse(content, toolCalls, toTokenUsage(message.usage()));
+    }
+
+    private static TokenUsage toTokenUsage(Usage usage) {
+        return new TokenUsage(
+                usage.inputTokens(),
+                usage.outputTokens(),
+                usage.cacheReadInputTokens().orElse(0L),
+                usage.cacheCreationInputTokens().orElse(0L));
+    }
+
+    /**
+     * Return a copy of the message whose last content block carries a
+     * prompt-cache breakpoint.
+     */
+    private static MessageParam withCacheBreakpoint(MessageParam message) {
+        if (!message.content().isBlockParams()) {
+            return message;
+        }
+        var blocks = new ArrayList<>(message.content().asBlockParams());
+        if (blocks.isEmpty()) {
+            return message;
+        }
+        var last = blocks.get(blocks.size() - 1);
+        ContentBlockParam cached;
+        if (last.isText()) {
+            cached = ContentBlockParam.ofText(
+                    last.asText().toBuilder().cacheControl(CACHE_BREAKPOINT).build());
+        } else if (last.isToolUse()) {
+            cached = ContentBlockParam.ofToolUse(
+                    last.asToolUse().toBuilder().cacheControl(CACHE_BREAKPOINT).build());
+        } else if (last.isToolResult()) {
+            cached = ContentBlockParam.ofToolResult(
+                    last.asToolResult().toBuilder().cacheControl(CACHE_BREAKPOINT).build());
+        } else {
+            return message;
+        }
+        blocks.set(blocks.size() - 1, cached);
+        return message.toBuilder().contentOfBlockParams(blocks).build();
+    }
+
+    /**
+     * Freeze the accumulated tool call at {@code index} and report it to the
+     * listener the first time it completes. Text blocks have no accumulator
+     * and are ignored.
+     */
+    private static ContextMessage.ToolCallData completeToolCall(
+            long index,
+            Map<Long, StreamToolCallAccumulator> streamedToolCalls,
+            ChatListener listener) {
+        var acc = streamedToolCalls.get(index);
+        if (acc == null) {
+            return null;
+        }
+        if (acc.completed == null) {
+            var id = acc.id != null ? acc.id : "tool_call_" + index;
+            var name = acc.name != null ? acc.name : "";
+            var arguments = acc.arguments.length() > 0
+                    ? acc.arguments.toString()
+                    : "{}";
+            acc.completed = new ContextMessage.ToolCallData(
+                    id,
+                    "function",
+                    new ContextMessage.FunctionData(name, arguments));
+            listener.onToolCallReady(acc.completed);
+        }
+        return acc.completed;
     }
 
     private static final class StreamToolCallAccumulator {
         private String id;
         private String name;
         private final StringBuilder arguments = new StringBuilder();
+        private ContextMessage.ToolCallData completed;
     }
 }
@@ -0,0 +1,51 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ChatListener;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A wait between API attempts that the user can cut short.
+ *
+ * <p>A turn is cancelled by closing the streams reported through
+ * {@link ChatListener#onStreamOpened}, so a provider decorator that waits
+ * before calling its delegate registers the wait itself as such a stream.
+ * Closing it ends the wait with an {@link IOException}, exactly as an
+ * aborted stream would.</p>
+ */
+final class CancellableWait {
+
+    private CancellableWait() {
+    }
+
+    /**
+     * Wait for the given delay.
+     *
+     * @param delay    how long to wait
+     * @param listener the turn's listener, or {@code null} if it cannot be cancelled
+     * @param reason   what is being waited for, used in the exception message
+     * @throws IOException if the turn was cancelled or the thread interrupted
+     */
+    static void sleep(Duration delay, ChatListener listener, String reason) throws IOException {
+        if (delay.isNegative() || delay.isZero()) {
+            return;
+        }
+        var wake = new CountDownLatch(1);
+        if (listener != null) {
+            listener.onStreamOpened(wake::countDown);
+        }
+        boolean cancelled;
+        try {
+            cancelled = wake.await(delay.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while " + reason);
+        }
+        if (cancelled) {
+            throw new IOException("Cancelled while " + reason);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.agent.LlmProviderException;
+import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.TokenUsage;
+import com.example.pijava.agent.tool.ToolRegistry;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * File format shared by {@link RecordingLlmProvider} and
+ * {@link ReplayLlmProvider}.
+ *
+ * <p>A cassette is a JSON Lines file with one recorded call per line: the
+ * request's fingerprint, the streamed events with their offsets from the
+ * start of the call, and the final response or error. Lines are appended
+ * as calls complete, so a cassette stays readable (and diffable) if the
+ * recording run is interrupted.</p>
+ */
+final class Cassette {
+
+    private Cassette() {
+    }
+
+    /**
+     * One streamed event: a text fragment or a completed tool call.
+     *
+     * @param atMicros offset from the start of the call
+     * @param text     the text fragment, or {@code null}
+     * @param toolCall the tool call, or {@code null}
+     */
+    record Chunk(long atMicros, String text, ContextMessage.ToolCallData toolCall) {
+    }
+
+    /**
+     * One recorded call.
+     *
+     * @param fingerprint   {@link #fingerprint} of the request
+     * @param chunks        streamed events, empty for a non-streaming call
+     * @param response      the response, or {@code null} if the call failed
+     * @param failure       the error, or {@code null} if the call succeeded
+     * @param latencyMicros duration of the whole call
+     */
+    record Interaction(String fingerprint, List<Chunk> chunks, LlmResponse response,
+                       LlmProviderException failure, long latencyMicros) {
+
+        /** Defensive copy of the chunks. */
+        Interaction {
+            chunks = List.copyOf(chunks);
+        }
+    }
+
+    /**
+     * Identify a request by its messages and tool definitions, so that a
+     * replay can find the recorded answer to the same request.
+     */
+    static String fingerprint(List<ContextMessage> context, ToolRegistry tools) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        var request = new JsonObject();
+        var messages = new JsonArray();
+        for (var message : context) {
+            var json = new JsonObject();
+            json.addProperty("role", message.role());
+            json.addProperty("content", message.content());
+            json.addProperty("toolCallId", message.toolCallId());
+            var calls = new JsonArray();
+            message.toolCalls().forEach(call -> calls.add(toJson(call)));
+            json.add("toolCalls", calls);
+            messages.add(json);
+        }
+        request.add("messages", messages);
+        request.add("tools", tools != null ? tools.toJsonSchema() : new JsonArray());
+        return HexFormat.of().formatHex(
+                digest.digest(request.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Read every call recorded in a cassette.
+     *
+     * @throws IOException if the file cannot be read or a line is not a recorded call
+     */
+    static List<Interaction> read(Path file) throws IOException {
+        var interactions = new ArrayList<Interaction>();
+        int lineNumber = 0;
+        for (var line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                interactions.add(fromJson(JsonParser.parseString(line).getAsJsonObject()));
+            } catch (JsonParseException | IllegalStateException | UnsupportedOperationException
+                     | NumberFormatException e) {
+                throw new IOException(file + ":" + lineNumber + ": not a recorded call", e);
+            }
+        }
+        return interactions;
+    }
+
+    /** Append one call to a cassette, creating the file if needed. */
+    static void append(Path file, Interaction interaction) throws IOException {
+        var parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, toJson(interaction) + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static JsonObject toJson(Interaction interaction) {
+        var json = new JsonObject();
+        json.addProperty("fingerprint", interaction.fingerprint());
+        json.addProperty("latencyMicros", interaction.latencyMicros());
+        var chunks = new JsonArray();
+        for (var chunk : interaction.chunks()) {
+            var item = new JsonObject();
+            item.addProperty("atMicros", chunk.atMicros());
+            if (chunk.text() != null) {
+                item.addProperty("text", chunk.text());
+            }
+            if (chunk.toolCall() != null) {
+                item.add("toolCall", toJson(chunk.toolCall()));
+            }
+            chunks.add(item);
+        }
+        json.add("chunks", chunks);
+        if (interaction.response() != null) {
+            var response = interaction.response();
+            var item = new JsonObject();
+            item.addProperty("content", response.content());
+            var calls = new JsonArray();
+            response.toolCalls().forEach(call -> calls.add(toJson(call)));
+            item.add("toolCalls", calls);
+            var usage = new JsonObject();
+            usage.addProperty("input", response.usage().inputTokens());
+            usage.addProperty("output", response.usage().outputTokens());
+            usage.addProperty("cacheRead", response.usage().cacheReadInputTokens());
+            usage.addProperty("cacheCreation", response.usage().cacheCreationInputTokens());
+            item.add("usage", usage);
+            json.add("response", item);
+        }
+        if (interaction.failure() != null) {
+            var failure = interaction.failure();
+            var item = new JsonObject();
+            item.addProperty("message", failure.getMessage());
+            item.addProperty("status", failure.statusCode());
+            item.addProperty("retryable", failure.retryable());
+            if (failure.retryAfter() != null) {
+                item.addProperty("retryAfterMillis", failure.retryAfter().toMillis());
+            }
+            json.add("error", item);
+        }
+        return json;
+    }
+
+    private static Interaction fromJson(JsonObject json) {
+        var chunks = new ArrayList<Chunk>();
+        for (var element : field(json, "chunks").getAsJsonArray()) {
+            var item = element.getAsJsonObject();
+            chunks.add(new Chunk(field(item, "atMicros").getAsLong(),
+                    item.has("text") ? field(item, "text").getAsString() : null,
+                    item.has("toolCall") ? toolCall(field(item, "toolCall").getAsJsonObject()) : null));
+        }
+        LlmResponse response = null;
+        if (json.has("response")) {
+            var item = field(json, "response").getAsJsonObject();
+            var calls = new ArrayList<ContextMessage.ToolCallData>();
+            for (var call : field(item, "toolCalls").getAsJsonArray()) {
+                calls.add(toolCall(call.getAsJsonObject()));
+            }
+            var usage = field(item, "usage").getAsJsonObject();
+            response = new LlmResponse(field(item, "content").getAsString(), calls, new TokenUsage(
+                    field(usage, "input").getAsLong(), field(usage, "output").getAsLong(),
+                    field(usage, "cacheRead").getAsLong(), field(usage, "cacheCreation").getAsLong()));
+        }
+        LlmProviderException failure = null;
+        if (json.has("error")) {
+            var item = field(json, "error").getAsJsonObject();
+            failure = new LlmProviderException(field(item, "message").getAsString(), null,
+                    field(item, "status").getAsInt(), field(item, "retryable").getAsBoolean(),
+                    item.has("retryAfterMillis")
+                            ? Duration.ofMillis(field(item, "retryAfterMillis").getAsLong()) : null);
+        }
+        return new Interaction(field(json, "fingerprint").getAsString(), chunks, response, failure,
+                field(json, "latencyMicros").getAsLong());
+    }
+
+    private static JsonElement toJson(ContextMessage.ToolCallData call) {
+        var json = new JsonObject();
+        json.addProperty("id", call.id());
+        json.addProperty("type", call.type());
+        json.addProperty("name", call.function().name());
+        json.addProperty("arguments", call.function().arguments());
+        return json;
+    }
+
+    private static ContextMessage.ToolCallData toolCall(JsonObject json) {
+        var type = json.get("type");
+        return new ContextMessage.ToolCallData(field(json, "id").getAsString(),
+                type != null && !type.isJsonNull() ? type.getAsString() : "function",
+                new ContextMessage.FunctionData(field(json, "name").getAsString(),
+                        field(json, "arguments").getAsString()));
+    }
+
+    private static JsonElement field(JsonObject json, String name) {
+        var value = json.get(name);
+        if (value == null || value.isJsonNull()) {
+            throw new JsonParseException("missing field " + name);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ContextMessage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Memoizes the conversion of {@link ContextMessage}s into a provider's SDK
+ * wire type, keyed by message identity.
+ *
+ * <p>The context is append-mostly and its messages are immutable, so on
+ * each round only newly appended (or compacted and therefore replaced)
+ * messages need converting. Entries for messages that have left the
+ * context are dropped on every call, so the cache never outgrows the
+ * live history.</p>
+ *
+ * @param <T> the provider-specific message parameter type
+ */
+final class MessageConversionCache<T> {
+
+    private Map<ContextMessage, T> converted = new IdentityHashMap<>();
+
+    /**
+     * Convert every message, reusing earlier conversions of the same
+     * instances.
+     *
+     * @param messages  the messages to convert, in order
+     * @param converter conversion for messages not seen before; may return
+     *                  {@code null} for messages the provider omits
+     * @return the non-null conversions, in message order
+     */
+    synchronized List<T> convertAll(List<ContextMessage> messages,
+                                    Function<ContextMessage, T> converter) {
+        var next = new IdentityHashMap<ContextMessage, T>(messages.size() * 2);
+        var result = new ArrayList<T>(messages.size());
+        for (var msg : messages) {
+            T value;
+            if (converted.containsKey(msg)) {
+                value = converted.get(msg);
+            } else {
+                value = converter.apply(msg);
+            }
+            next.put(msg, value);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        converted = next;
+        return result;
+    }
+}
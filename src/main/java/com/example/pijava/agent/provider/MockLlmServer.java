@@ -0,0 +1,618 @@
+package com.example.pijava.agent.provider;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local stand-in for the OpenAI and Anthropic APIs, for load tests and
+ * offline runs of the provider stack.
+ *
+ * <p>The server answers {@code POST /v1/chat/completions} and
+ * {@code POST /v1/messages}, streaming (server-sent events) or not, in the
+ * shape the official SDKs expect. Point {@link OpenAiLlmProvider} at
+ * {@link #openAiBaseUrl()} and {@link AnthropicLlmProvider} at
+ * {@link #baseUrl()}. Each connection is served on its own virtual thread,
+ * so thousands of concurrent sessions cost little more than their
+ * sockets.</p>
+ *
+ * <p>What the server says and how fast is set by {@link Settings}, which
+ * can be changed while it runs: time to first token, tokens per second, a
+ * script of replies and tool calls, a request-per-minute limit reported in
+ * the usual rate-limit headers, and randomly injected 429 and 529 errors
+ * and stalls before the first token. The reply to a request is the script
+ * entry at the index of the number of assistant messages already in the
+ * conversation, so every session walks through the same script
+ * independently.</p>
+ */
+public final class MockLlmServer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MockLlmServer.class);
+
+    private static final Pattern TOKEN = Pattern.compile("\\S+\\s*|\\s+");
+    /** Characters of tool arguments sent per streamed fragment. */
+    private static final int ARGUMENT_FRAGMENT = 16;
+    private static final long MINUTE_MILLIS = Duration.ofMinutes(1).toMillis();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong ids = new AtomicLong();
+    private volatile Settings settings;
+    private Random random;
+    private long windowStart;
+    private int windowCount;
+
+    /**
+     * One scripted reply: text, or a call to a tool.
+     *
+     * @param text          the reply text, or {@code null} for a tool call
+     * @param toolName      the tool to call, or {@code null} for a text reply
+     * @param toolArguments the tool's JSON arguments
+     */
+    public record Turn(String text, String toolName, String toolArguments) {
+
+        /** A text reply. */
+        public static Turn text(String text) {
+            return new Turn(text, null, null);
+        }
+
+        /** A call to a tool with the given JSON arguments. */
+        public static Turn toolCall(String toolName, String toolArguments) {
+            return new Turn(null, toolName, toolArguments);
+        }
+
+        boolean isToolCall() {
+            return toolName != null;
+        }
+    }
+
+    /**
+     * How the server behaves.
+     *
+     * @param timeToFirstToken  delay between the request and the first token
+     * @param tokensPerSecond   streaming speed; 0 or less sends everything at once
+     * @param script            replies by turn; the last one repeats once the script runs out
+     * @param requestsPerMinute limit answered with 429 once exceeded, or 0 for none
+     * @param rateLimitRate     probability of a spurious 429
+     * @param overloadRate      probability of a 529 "overloaded"
+     * @param stallRate         probability of a stall before the first token
+     * @param stallTime         length of a stall
+     * @param seed              seed of the random fault injection, for reproducible runs
+     */
+    public record Settings(Duration timeToFirstToken, double tokensPerSecond, List<Turn> script,
+                           int requestsPerMinute, double rateLimitRate, double overloadRate,
+                           double stallRate, Duration stallTime, long seed) {
+
+        /** A fast, reliable server that always says hello. */
+        public static final Settings DEFAULT = new Settings(Duration.ofMillis(200), 50,
+                List.of(Turn.text("Hello from the mock server.")), 0, 0, 0, 0,
+                Duration.ofSeconds(10), 42);
+
+        /** Validates the settings and copies the script. */
+        public Settings {
+            if (script.isEmpty()) {
+                throw new IllegalArgumentException("The script needs at least one turn");
+            }
+            script = List.copyOf(script);
+        }
+
+        /** A copy with different latency and speed. */
+        public Settings withSpeed(Duration newTimeToFirstToken, double newTokensPerSecond) {
+            return new Settings(newTimeToFirstToken, newTokensPerSecond, script, requestsPerMinute,
+                    rateLimitRate, overloadRate, stallRate, stallTime, seed);
+        }
+
+        /** A copy with a different script. */
+        public Settings withScript(List<Turn> newScript) {
+            return new Settings(timeToFirstToken, tokensPerSecond, newScript, requestsPerMinute,
+                    rateLimitRate, overloadRate, stallRate, stallTime, seed);
+        }
+
+        /** A copy with a different request-per-minute limit. */
+        public Settings withRequestsPerMinute(int newRequestsPerMinute) {
+            return new Settings(timeToFirstToken, tokensPerSecond, script, newRequestsPerMinute,
+                    rateLimitRate, overloadRate, stallRate, stallTime, seed);
+        }
+
+        /** A copy with different fault injection. */
+        public Settings withFaults(double newRateLimitRate, double newOverloadRate,
+                                   double newStallRate, Duration newStallTime) {
+            return new Settings(timeToFirstToken, tokensPerSecond, script, requestsPerMinute,
+                    newRateLimitRate, newOverloadRate, newStallRate, newStallTime, seed);
+        }
+    }
+
+    private MockLlmServer(HttpServer server, ExecutorService executor, Settings settings) {
+        this.server = server;
+        this.executor = executor;
+        setSettings(settings);
+    }
+
+    /**
+     * Start a server on the loopback interface.
+     *
+     * @param port     the port, or 0 for any free port
+     * @param settings how the server behaves
+     * @return the running server
+     * @throws IOException if the port cannot be bound
+     */
+    public static MockLlmServer start(int port, Settings settings) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        var executor = Executors.newVirtualThreadPerTaskExecutor();
+        var mock = new MockLlmServer(server, executor, settings);
+        server.createContext("/v1/chat/completions", exchange -> mock.handle(exchange, false));
+        server.createContext("/v1/messages", exchange -> mock.handle(exchange, true));
+        server.setExecutor(executor);
+        server.start();
+        return mock;
+    }
+
+    /**
+     * Run a server until the process is killed.
+     *
+     * @param args an optional port (default 8080)
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        var mock = start(port, Settings.DEFAULT);
+        System.out.println("Mock LLM server listening on " + mock.baseUrl());
+        System.out.println("  OpenAI:    --base-url " + mock.openAiBaseUrl());
+        System.out.println("  Anthropic: ANTHROPIC_BASE_URL=" + mock.baseUrl());
+    }
+
+    /** Change how the server behaves; requests already in flight are not affected. */
+    public synchronized void setSettings(Settings newSettings) {
+        this.settings = newSettings;
+        this.random = new Random(newSettings.seed());
+    }
+
+    /** Base URL for Anthropic clients, e.g. {@code http://127.0.0.1:8080}. */
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /** Base URL for OpenAI clients, which expect the {@code /v1} prefix. */
+    public String openAiBaseUrl() {
+        return baseUrl() + "/v1";
+    }
+
+    /** Requests received so far. */
+    public long requestCount() {
+        return requests.get();
+    }
+
+    /** Error responses returned so far, limit and injected faults alike. */
+    public long errorCount() {
+        return injectedErrors.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    /** The fate of one request, drawn under the lock so that runs are reproducible. */
+    private enum Fault { NONE, RATE_LIMITED, OVERLOADED, STALLED }
+
+    private record Decision(Settings settings, Fault fault, int remaining, long resetMillis) {
+    }
+
+    private synchronized Decision decide() {
+        var current = settings;
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= MINUTE_MILLIS) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        long reset = windowStart + MINUTE_MILLIS - now;
+        int limit = current.requestsPerMinute();
+        if (limit > 0 && windowCount >= limit) {
+            return new Decision(current, Fault.RATE_LIMITED, 0, reset);
+        }
+        windowCount++;
+        int remaining = limit > 0 ? limit - windowCount : 0;
+        double draw = random.nextDouble();
+        Fault fault;
+        if (draw < current.rateLimitRate()) {
+            fault = Fault.RATE_LIMITED;
+        } else if (draw < current.rateLimitRate() + current.overloadRate()) {
+            fault = Fault.OVERLOADED;
+        } else if (draw < current.rateLimitRate() + current.overloadRate() + current.stallRate()) {
+            fault = Fault.STALLED;
+        } else {
+            fault = Fault.NONE;
+        }
+        return new Decision(current, fault, remaining, reset);
+    }
+
+    private void handle(HttpExchange exchange, boolean anthropic) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, error(anthropic, "invalid_request_error", "POST only"));
+                return;
+            }
+            JsonObject request;
+            try {
+                request = JsonParser.parseString(new String(
+                        exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                sendJson(exchange, 400, error(anthropic, "invalid_request_error", "Malformed JSON body"));
+                return;
+            }
+
+            var decision = decide();
+            var current = decision.settings();
+            addRateLimitHeaders(exchange, anthropic, current.requestsPerMinute(), decision);
+            if (decision.fault() == Fault.RATE_LIMITED) {
+                injectedErrors.incrementAndGet();
+                exchange.getResponseHeaders().set("retry-after",
+                        Long.toString(Math.max(1, (decision.resetMillis() + 999) / 1000)));
+                sendJson(exchange, 429, error(anthropic, "rate_limit_error", "Rate limit exceeded (mock)"));
+                return;
+            }
+            if (decision.fault() == Fault.OVERLOADED) {
+                injectedErrors.incrementAndGet();
+                sendJson(exchange, 529, error(anthropic, "overloaded_error", "Overloaded (mock)"));
+                return;
+            }
+
+            var turn = turnFor(request, current.script());
+            var model = request.has("model") ? request.get("model").getAsString() : "mock";
+            long inputTokens = Math.max(1, request.toString().length() / 4);
+            boolean stream = request.has("stream") && request.get("stream").getAsBoolean();
+            sleep(current.timeToFirstToken().plus(decision.fault() == Fault.STALLED
+                    ? current.stallTime() : Duration.ZERO));
+            if (!stream) {
+                sendJson(exchange, 200, anthropic
+                        ? anthropicMessage(turn, model, inputTokens)
+                        : openAiCompletion(turn, model, inputTokens));
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            var out = exchange.getResponseBody();
+            if (anthropic) {
+                streamAnthropic(out, turn, model, inputTokens, current.tokensPerSecond());
+            } else {
+                streamOpenAi(out, turn, model, includeUsage(request) ? inputTokens : -1,
+                        current.tokensPerSecond());
+            }
+        } catch (IOException e) {
+            // The client went away, e.g. a cancelled or hedged-out request
+            LOG.debug("Mock response aborted: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Turn turnFor(JsonObject request, List<Turn> script) {
+        int assistantMessages = 0;
+        if (request.has("messages")) {
+            for (var message : request.getAsJsonArray("messages")) {
+                var role = message.getAsJsonObject().get("role");
+                if (role != null && "assistant".equals(role.getAsString())) {
+                    assistantMessages++;
+                }
+            }
+        }
+        return script.get(Math.min(assistantMessages, script.size() - 1));
+    }
+
+    private static boolean includeUsage(JsonObject request) {
+        var options = request.getAsJsonObject("stream_options");
+        return options != null && options.has("include_usage") && options.get("include_usage").getAsBoolean();
+    }
+
+    /** Stream a chat completion, ending with a usage chunk unless {@code inputTokens} is negative. */
+    private void streamOpenAi(OutputStream out, Turn turn, String model, long inputTokens,
+                              double tokensPerSecond) throws IOException, InterruptedException {
+        var id = "chatcmpl-mock-" + ids.incrementAndGet();
+        var role = new JsonObject();
+        role.addProperty("role", "assistant");
+        event(out, null, openAiChunk(id, model, role, null));
+        if (turn.isToolCall()) {
+            var callId = "call_mock_" + ids.incrementAndGet();
+            var fragments = fragments(turn.toolArguments());
+            for (int i = 0; i <= fragments.size(); i++) {
+                var function = new JsonObject();
+                var call = new JsonObject();
+                call.addProperty("index", 0);
+                if (i == 0) {
+                    call.addProperty("id", callId);
+                    call.addProperty("type", "function");
+                    function.addProperty("name", turn.toolName());
+                    function.addProperty("arguments", "");
+                } else {
+                    function.addProperty("arguments", fragments.get(i - 1));
+                    pace(tokensPerSecond);
+                }
+                call.add("function", function);
+                var calls = new JsonArray();
+                calls.add(call);
+                var delta = new JsonObject();
+                delta.add("tool_calls", calls);
+                event(out, null, openAiChunk(id, model, delta, null));
+            }
+        } else {
+            for (var token : tokens(turn.text())) {
+                var delta = new JsonObject();
+                delta.addProperty("content", token);
+                event(out, null, openAiChunk(id, model, delta, null));
+                pace(tokensPerSecond);
+            }
+        }
+        event(out, null, openAiChunk(id, model, new JsonObject(),
+                turn.isToolCall() ? "tool_calls" : "stop"));
+        if (inputTokens >= 0) {
+            long outputTokens = turn.isToolCall()
+                    ? fragments(turn.toolArguments()).size()
+                    : tokens(turn.text()).size();
+            var usage = new JsonObject();
+            usage.addProperty("prompt_tokens", inputTokens);
+            usage.addProperty("completion_tokens", outputTokens);
+            usage.addProperty("total_tokens", inputTokens + outputTokens);
+            var chunk = openAiEnvelope(id, model, "chat.completion.chunk");
+            chunk.add("choices", new JsonArray());
+            chunk.add("usage", usage);
+            event(out, null, chunk);
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void streamAnthropic(OutputStream out, Turn turn, String model, long inputTokens,
+                                 double tokensPerSecond) throws IOException, InterruptedException {
+        var message = anthropicMessage(Turn.text(""), model, inputTokens);
+        message.add("content", new JsonArray());
+        message.add("stop_reason", null);
+        message.getAsJsonObject("usage").addProperty("output_tokens", 1);
+        var start = new JsonObject();
+        start.addProperty("type", "message_start");
+        start.add("message", message);
+        event(out, "message_start", start);
+
+        var block = new JsonObject();
+        List<String> pieces;
+        String deltaType;
+        String deltaField;
+        if (turn.isToolCall()) {
+            block.addProperty("type", "tool_use");
+            block.addProperty("id", "toolu_mock_" + ids.incrementAndGet());
+            block.addProperty("name", turn.toolName());
+            block.add("input", new JsonObject());
+            pieces = fragments(turn.toolArguments());
+            deltaType = "input_json_delta";
+            deltaField = "partial_json";
+        } else {
+            block.addProperty("type", "text");
+            block.addProperty("text", "");
+            pieces = tokens(turn.text());
+            deltaType = "text_delta";
+            deltaField = "text";
+        }
+        var blockStart = new JsonObject();
+        blockStart.addProperty("type", "content_block_start");
+        blockStart.addProperty("index", 0);
+        blockStart.add("content_block", block);
+        event(out, "content_block_start", blockStart);
+        for (var piece : pieces) {
+            var delta = new JsonObject();
+            delta.addProperty("type", deltaType);
+            delta.addProperty(deltaField, piece);
+            var deltaEvent = new JsonObject();
+            deltaEvent.addProperty("type", "content_block_delta");
+            deltaEvent.addProperty("index", 0);
+            deltaEvent.add("delta", delta);
+            event(out, "content_block_delta", deltaEvent);
+            pace(tokensPerSecond);
+        }
+        var blockStop = new JsonObject();
+        blockStop.addProperty("type", "content_block_stop");
+        blockStop.addProperty("index", 0);
+        event(out, "content_block_stop", blockStop);
+
+        var stop = new JsonObject();
+        stop.addProperty("stop_reason", turn.isToolCall() ? "tool_use" : "end_turn");
+        stop.add("stop_sequence", null);
+        var usage = new JsonObject();
+        usage.addProperty("output_tokens", pieces.size());
+        var messageDelta = new JsonObject();
+        messageDelta.addProperty("type", "message_delta");
+        messageDelta.add("delta", stop);
+        messageDelta.add("usage", usage);
+        event(out, "message_delta", messageDelta);
+        var messageStop = new JsonObject();
+        messageStop.addProperty("type", "message_stop");
+        event(out, "message_stop", messageStop);
+    }
+
+    private JsonObject openAiCompletion(Turn turn, String model, long inputTokens) {
+        var message = new JsonObject();
+        message.addProperty("role", "assistant");
+        long outputTokens;
+        if (turn.isToolCall()) {
+            message.add("content", null);
+            var function = new JsonObject();
+            function.addProperty("name", turn.toolName());
+            function.addProperty("arguments", turn.toolArguments());
+            var call = new JsonObject();
+            call.addProperty("id", "call_mock_" + ids.incrementAndGet());
+            call.addProperty("type", "function");
+            call.add("function", function);
+            var calls = new JsonArray();
+            calls.add(call);
+            message.add("tool_calls", calls);
+            outputTokens = fragments(turn.toolArguments()).size();
+        } else {
+            message.addProperty("content", turn.text());
+            outputTokens = tokens(turn.text()).size();
+        }
+        message.add("refusal", null);
+        var choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.addProperty("finish_reason", turn.isToolCall() ? "tool_calls" : "stop");
+        choice.add("logprobs", null);
+        var choices = new JsonArray();
+        choices.add(choice);
+        var usage = new JsonObject();
+        usage.addProperty("prompt_tokens", inputTokens);
+        usage.addProperty("completion_tokens", outputTokens);
+        usage.addProperty("total_tokens", inputTokens + outputTokens);
+        var completion = openAiEnvelope("chatcmpl-mock-" + ids.incrementAndGet(), model,
+                "chat.completion");
+        completion.add("choices", choices);
+        completion.add("usage", usage);
+        return completion;
+    }
+
+    private JsonObject anthropicMessage(Turn turn, String model, long inputTokens) {
+        var content = new JsonArray();
+        long outputTokens;
+        var block = new JsonObject();
+        if (turn.isToolCall()) {
+            block.addProperty("type", "tool_use");
+            block.addProperty("id", "toolu_mock_" + ids.incrementAndGet());
+            block.addProperty("name", turn.toolName());
+            block.add("input", JsonParser.parseString(turn.toolArguments()));
+            outputTokens = fragments(turn.toolArguments()).size();
+        } else {
+            block.addProperty("type", "text");
+            block.addProperty("text", turn.text());
+            outputTokens = tokens(turn.text()).size();
+        }
+        content.add(block);
+        var usage = new JsonObject();
+        usage.addProperty("input_tokens", inputTokens);
+        usage.addProperty("output_tokens", outputTokens);
+        usage.addProperty("cache_read_input_tokens", 0);
+        usage.addProperty("cache_creation_input_tokens", 0);
+        var message = new JsonObject();
+        message.addProperty("id", "msg_mock_" + ids.incrementAndGet());
+        message.addProperty("type", "message");
+        message.addProperty("role", "assistant");
+        message.addProperty("model", model);
+        message.add("content", content);
+        message.addProperty("stop_reason", turn.isToolCall() ? "tool_use" : "end_turn");
+        message.add("stop_sequence", null);
+        message.add("usage", usage);
+        return message;
+    }
+
+    private static JsonObject openAiChunk(String id, String model, JsonObject delta, String finishReason) {
+        var choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("delta", delta);
+        choice.addProperty("finish_reason", finishReason);
+        var choices = new JsonArray();
+        choices.add(choice);
+        var chunk = openAiEnvelope(id, model, "chat.completion.chunk");
+        chunk.add("choices", choices);
+        return chunk;
+    }
+
+    private static JsonObject openAiEnvelope(String id, String model, String object) {
+        var json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("object", object);
+        json.addProperty("created", System.currentTimeMillis() / 1000);
+        json.addProperty("model", model);
+        return json;
+    }
+
+    private static JsonObject error(boolean anthropic, String type, String message) {
+        var detail = new JsonObject();
+        detail.addProperty("type", type);
+        detail.addProperty("message", message);
+        var json = new JsonObject();
+        if (anthropic) {
+            json.addProperty("type", "error");
+        }
+        json.add("error", detail);
+        return json;
+    }
+
+    private static void addRateLimitHeaders(HttpExchange exchange, boolean anthropic, int limit,
+                                            Decision decision) {
+        if (limit <= 0) {
+            return;
+        }
+        var headers = exchange.getResponseHeaders();
+        var remaining = Integer.toString(decision.remaining());
+        if (anthropic) {
+            headers.set("anthropic-ratelimit-requests-limit", Integer.toString(limit));
+            headers.set("anthropic-ratelimit-requests-remaining", remaining);
+        } else {
+            headers.set("x-ratelimit-limit-requests", Integer.toString(limit));
+            headers.set("x-ratelimit-remaining-requests", remaining);
+            headers.set("x-ratelimit-reset-requests", decision.resetMillis() + "ms");
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        var bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void event(OutputStream out, String name, JsonObject data) throws IOException {
+        var text = (name != null ? "event: " + name + "\n" : "") + "data: " + data + "\n\n";
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /** Split text into word-sized tokens, whitespace included. */
+    private static List<String> tokens(String text) {
+        var tokens = new ArrayList<String>();
+        var matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            tokens.add(matcher.group());
+        }
+        return tokens;
+    }
+
+    private static List<String> fragments(String text) {
+        var fragments = new ArrayList<String>();
+        for (int i = 0; i < text.length(); i += ARGUMENT_FRAGMENT) {
+            fragments.add(text.substring(i, Math.min(text.length(), i + ARGUMENT_FRAGMENT)));
+        }
+        return fragments;
+    }
+
+    private static void pace(double tokensPerSecond) throws InterruptedException {
+        if (tokensPerSecond > 0) {
+            sleep(Duration.ofNanos((long) (1_000_000_000L / tokensPerSecond)));
+        }
+    }
+
+    private static void sleep(Duration delay) throws InterruptedException {
+        if (!delay.isZero() && !delay.isNegative()) {
+            Thread.sleep(delay);
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.example.pijava.agent.provider;
 
+import com.example.pijava.agent.ChatListener;
 import com.example.pijava.agent.ContextMessage;
 import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.LlmProviderException;
 import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.MetricsRegistry;
+import com.example.pijava.agent.TokenUsage;
 import com.example.pijava.agent.tool.ToolRegistry;
 import com.openai.client.OpenAIClient;
 import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.errors.OpenAIIoException;
+import com.openai.errors.OpenAIServiceException;
 import com.openai.models.ChatModel;
 import com.openai.models.chat.completions.ChatCompletion;
 import com.openai.models.chat.completions.ChatCompletionAssistantMessageParam;
@@ -13,9 +19,11 @@ import com.openai.models.chat.completions.ChatCompletionCreateParams;
 import com.openai.models.chat.completions.ChatCompletionMessageFunctionToolCall;
 import com.openai.models.chat.completions.ChatCompletionMessageParam;
 import com.openai.models.chat.completions.ChatCompletionMessageToolCall;
+import com.openai.models.chat.completions.ChatCompletionStreamOptions;
 import com.openai.models.chat.completions.ChatCompletionSystemMessageParam;
 import com.openai.models.chat.completions.ChatCompletionToolMessageParam;
 import com.openai.models.chat.completions.ChatCompletionUserMessageParam;
+import com.openai.models.completions.CompletionUsage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -24,11 +32,16 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * OpenAI SDK implementation of {@link LlmProvider}.
+ *
+ * <p>The SDK's built-in retries are turned off; failures are reported as
+ * {@link LlmProviderException}s so that {@link RetryingLlmProvider} can
+ * apply one retry policy to every provider.</p>
  */
 public class OpenAiLlmProvider implements LlmProvider {
 
@@ -37,6 +50,10 @@ public class OpenAiLlmProvider implements LlmProvider {
     private final OpenAIClient client;
     private final Optional<ChatModel> chatModel;
     private final String modelName;
+    private volatile Consumer<Function<String, List<String>>> headersListener = headers -> { };
+    private volatile MetricsRegistry metrics;
+    private final MessageConversionCache<ChatCompletionMessageParam> conversions =
+            new MessageConversionCache<>();
 
     /**
      * Create a provider targeting the OpenAI API.
@@ -49,6 +66,7 @@ public class OpenAiLlmProvider implements LlmProvider {
         this.modelName = model;
         this.client = OpenAIOkHttpClient.builder()
                 .apiKey(apiKey)
+                .maxRetries(0)
                 .build();
     }
 
@@ -64,13 +82,14 @@ public class OpenAiLlmProvider implements LlmProvider {
         this.modelName = model;
         this.client = OpenAIOkHttpClient.builder()
                 .apiKey(apiKey)
+                .maxRetries(0)
                 .baseUrl(baseUrl)
                 .build();
     }
 
     @Override
     public LlmResponse chat(List<ContextMessage> context, ToolRegistry tools) throws IOException {
-        return chat(context, tools, null);
+        return chat(context, tools, (ChatListener) null);
     }
 
     @Override
@@ -78,50 +97,60 @@ public class OpenAiLlmProvider implements LlmProvider {
             List<ContextMessage> context,
             ToolRegistry tools,
             Consumer<String> onTextDelta) throws IOException {
-        try {
-            var paramsBuilder = ChatCompletionCreateParams.builder();
-
-            // Set model - use ChatModel enum if known, otherwise use string
-            chatModel.ifPresentOrElse(
-                    paramsBuilder::model,
-                    () -> paramsBuilder.model(modelName)
-            );
-
-            // Add all messages from context
-            for (var msg : context) {
-                paramsBuilder.addMessage(buildMessageParam(msg));
-            }
+        return chat(context, tools, ChatListener.accumulating(onTextDelta));
+    }
 
-            // Add tool definitions if any
-            var toolDefs = tools.toSdkTools();
-            for (var tool : toolDefs) {
-                paramsBuilder.addTool(tool);
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        try {
+            long buildStart = System.nanoTime();
+            var params = buildParams(context, tools, listener != null);
+            var registry = metrics;
+            if (registry != null) {
+                registry.recordNanos(MetricsRegistry.REQUEST_BUILD, System.nanoTime() - buildStart);
             }
-
-            var params = paramsBuilder.build();
-            if (onTextDelta == null) {
-                var chatCompletion = client.chat().completions().create(params);
-                return parseResponse(chatCompletion);
+            if (listener == null) {
+                try (var raw = client.chat().completions().withRawResponse().create(params)) {
+                    headersListener.accept(raw.headers()::values);
+                    return parseResponse(raw.parse());
+                }
             }
 
             var content = new StringBuilder();
             Map<Long, StreamToolCallAccumulator> streamedToolCalls = new LinkedHashMap<>();
-
-            try (var streamResponse = client.chat().completions().createStreaming(params)) {
+            // Index of the tool call currently receiving argument fragments
+            var openIndex = new long[] {-1L};
+            // Sent in a last chunk with no choices, as requested by include_usage
+            var usage = new TokenUsage[] {TokenUsage.NONE};
+
+            listener.onRequestSent(System.nanoTime());
+            try (var raw = client.chat().completions().withRawResponse().createStreaming(params);
+                    var streamResponse = raw.parse()) {
+                headersListener.accept(raw.headers()::values);
+                listener.onStreamOpened(streamResponse);
                 streamResponse.stream().forEach(chunk -> {
+                    chunk.usage().ifPresent(reported -> usage[0] = toTokenUsage(reported));
                     for (var choice : chunk.choices()) {
                         var delta = choice.delta();
 
                         delta.content().ifPresent(text -> {
                             if (!text.isEmpty()) {
                                 content.append(text);
-                                onTextDelta.accept(content.toString());
+                                listener.onTextDelta(text);
                             }
                         });
 
                         delta.toolCalls().ifPresent(calls -> {
                             for (var call : calls) {
                                 var index = call.index();
+                                // A new index means the previous call's arguments are complete
+                                if (index != openIndex[0]) {
+                                    completeToolCall(openIndex[0], streamedToolCalls, listener);
+                                    openIndex[0] = index;
+                                }
                                 var acc = streamedToolCalls.computeIfAbsent(
                                         index,
                                         ignored -> new StreamToolCallAccumulator());
@@ -147,30 +176,69 @@ public class OpenAiLlmProvider implements LlmProvider {
             }
 
             List<ContextMessage.ToolCallData> toolCalls = new ArrayList<>();
-            for (var entry : streamedToolCalls.entrySet()) {
-                var index = entry.getKey();
-                var call = entry.getValue();
-
-                var id = call.id != null ? call.id : "tool_call_" + index;
-                var name = call.name != null ? call.name : "";
-                var arguments = call.arguments.length() > 0
-                        ? call.arguments.toString()
-                        : "{}";
-
-                toolCalls.add(new ContextMessage.ToolCallData(
-                        id,
-                        "function",
-                        new ContextMessage.FunctionData(name, arguments)));
+            for (var index : streamedToolCalls.keySet()) {
+                toolCalls.add(completeToolCall(index, streamedToolCalls, listener));
             }
 
-            return new LlmResponse(content.toString(), toolCalls);
+            return new LlmResponse(content.toString(), toolCalls, usage[0]);
 
+        } catch (OpenAIServiceException e) {
+            headersListener.accept(e.headers()::values);
+            LOG.warn("OpenAI API error (HTTP {}): {}", e.statusCode(), e.getMessage());
+            throw LlmProviderException.forStatus("OpenAI API error: " + e.getMessage(), e,
+                    e.statusCode(), e.headers()::values);
+        } catch (OpenAIIoException e) {
+            LOG.warn("OpenAI API connection error: {}", e.getMessage());
+            throw LlmProviderException.forTransport("OpenAI API error: " + e.getMessage(), e);
         } catch (Exception e) {
             LOG.error("OpenAI API error: {}", e.getMessage(), e);
             throw new IOException("OpenAI API error: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Build the request for a conversation; {@link #chat} sends it as is.
+     * Package-private so the benchmarks can measure it without a network.
+     *
+     * @param stream whether the request is streamed, in which case token
+     *               usage has to be asked for
+     */
+    ChatCompletionCreateParams buildParams(List<ContextMessage> context, ToolRegistry tools, boolean stream) {
+        var paramsBuilder = ChatCompletionCreateParams.builder();
+        if (stream) {
+            paramsBuilder.streamOptions(ChatCompletionStreamOptions.builder().includeUsage(true).build());
+        }
+
+        // Set model - use ChatModel enum if known, otherwise use string
+        chatModel.ifPresentOrElse(
+                paramsBuilder::model,
+                () -> paramsBuilder.model(modelName)
+        );
+
+        // Add all messages from context; only new messages are converted
+        for (var param : conversions.convertAll(context, this::buildMessageParam)) {
+            paramsBuilder.addMessage(param);
+        }
+
+        // Add tool definitions if any
+        var toolDefs = tools.toSdkTools();
+        for (var tool : toolDefs) {
+            paramsBuilder.addTool(tool);
+        }
+
+        return paramsBuilder.build();
+    }
+
+    @Override
+    public void setResponseHeadersListener(Consumer<Function<String, List<String>>> listener) {
+        this.headersListener = listener;
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public String getProviderName() {
         return "openai";
@@ -266,12 +334,49 @@ public class OpenAiLlmProvider implements LlmProvider {
             toolCalls = calls;
         }
 
-        return new LlmResponse(content, toolCalls);
+        return new LlmResponse(content, toolCalls,
+                completion.usage().map(OpenAiLlmProvider::toTokenUsage).orElse(TokenUsage.NONE));
+    }
+
+    /** OpenAI counts cached tokens as part of the prompt; {@link TokenUsage} does not. */
+    private static TokenUsage toTokenUsage(CompletionUsage usage) {
+        long cached = usage.promptTokensDetails()
+                .flatMap(CompletionUsage.PromptTokensDetails::cachedTokens)
+                .orElse(0L);
+        return new TokenUsage(usage.promptTokens() - cached, usage.completionTokens(), cached, 0);
+    }
+
+    /**
+     * Freeze the accumulated tool call at {@code index} and report it to the
+     * listener the first time it completes.
+     */
+    private static ContextMessage.ToolCallData completeToolCall(
+            long index,
+            Map<Long, StreamToolCallAccumulator> streamedToolCalls,
+            ChatListener listener) {
+        var acc = streamedToolCalls.get(index);
+        if (acc == null) {
+            return null;
+        }
+        if (acc.completed == null) {
+            var id = acc.id != null ? acc.id : "tool_call_" + index;
+            var name = acc.name != null ? acc.name : "";
+            var arguments = acc.arguments.length() > 0
+                    ? acc.arguments.toString()
+                    : "{}";
+            acc.completed = new ContextMessage.ToolCallData(
+                    id,
+                    "function",
+                    new ContextMessage.FunctionData(name, arguments));
+            listener.onToolCallReady(acc.completed);
+        }
+        return acc.completed;
     }
 
     private static final class StreamToolCallAccumulator {
         private String id;
         private String name;
         private final StringBuilder arguments = new StringBuilder();
+        private ContextMessage.ToolCallData completed;
     }
 }
@@ -0,0 +1,126 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ChatListener;
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.LlmProviderException;
+import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.MetricsRegistry;
+import com.example.pijava.agent.RateLimiter;
+import com.example.pijava.agent.TokenEstimator;
+import com.example.pijava.agent.tool.ToolRegistry;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LlmProvider} decorator that sends requests through a
+ * {@link RateLimiter}.
+ *
+ * <p>Each request reserves its estimated input tokens plus the limiter's
+ * expected output, waits as long as the limiter says (cancelling the turn
+ * ends the wait), and settles the reservation with the usage the provider
+ * reports. The delegate's response headers keep the limiter's limits up to
+ * date, and a rate-limit error pauses every session sharing the limiter.</p>
+ *
+ * <p>Wrap this inside a {@link RetryingLlmProvider} so that every retry is
+ * rate limited too.</p>
+ */
+public class RateLimitedLlmProvider implements LlmProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitedLlmProvider.class);
+
+    /** Pause after a rate-limit error that did not say how long to wait. */
+    private static final Duration DEFAULT_PAUSE = Duration.ofSeconds(1);
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final LlmProvider delegate;
+    private final RateLimiter limiter;
+
+    /**
+     * Create a rate-limited provider.
+     *
+     * @param delegate the provider to call
+     * @param limiter  the limiter, typically {@link RateLimiter#shared shared} by all
+     *                 sessions using the same API key
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
+            justification = "The limiter is shared on purpose")
+    public RateLimitedLlmProvider(LlmProvider delegate, RateLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        delegate.setResponseHeadersListener(limiter::updateFromHeaders);
+    }
+
+    @Override
+    public LlmResponse chat(List<ContextMessage> context, ToolRegistry tools) throws IOException {
+        return chat(context, tools, (ChatListener) null);
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            Consumer<String> onTextDelta) throws IOException {
+        return chat(context, tools, ChatListener.accumulating(onTextDelta));
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        long estimate = 0;
+        for (var message : context) {
+            estimate += TokenEstimator.estimate(message);
+        }
+        var reservation = limiter.reserve(estimate);
+        if (!reservation.delay().isZero()) {
+            LOG.info("Waiting {} ms for the {} rate limit", reservation.delay().toMillis(),
+                    delegate.getProviderName());
+        }
+        try {
+            CancellableWait.sleep(reservation.delay(), listener, "waiting for the rate limit");
+        } catch (IOException e) {
+            reservation.cancel();
+            throw e;
+        }
+        try {
+            var response = delegate.chat(context, tools, listener);
+            reservation.settle(response.usage());
+            return response;
+        } catch (LlmProviderException e) {
+            reservation.failed();
+            if (e.statusCode() == HTTP_TOO_MANY_REQUESTS) {
+                limiter.pause(e.retryAfter() != null ? e.retryAfter() : DEFAULT_PAUSE);
+            }
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            reservation.failed();
+            throw e;
+        }
+    }
+
+    @Override
+    public void setResponseHeadersListener(Consumer<Function<String, List<String>>> listener) {
+        delegate.setResponseHeadersListener(headers -> {
+            limiter.updateFromHeaders(headers);
+            listener.accept(headers);
+        });
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        delegate.setMetrics(metrics);
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+}
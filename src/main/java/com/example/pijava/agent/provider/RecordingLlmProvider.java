@@ -0,0 +1,132 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ChatListener;
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.LlmProviderException;
+import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.MetricsRegistry;
+import com.example.pijava.agent.tool.ToolRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LlmProvider} decorator that records every call to a cassette file
+ * for {@link ReplayLlmProvider}.
+ *
+ * <p>Each call is written once it completes: the request fingerprint, the
+ * streamed text fragments and tool calls with their timing, and the
+ * response or the classified {@link LlmProviderException}. Calls that
+ * fail otherwise (a cancelled turn, for instance) are not recorded. A
+ * cassette that cannot be written is logged and does not fail the
+ * call.</p>
+ */
+public class RecordingLlmProvider implements LlmProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordingLlmProvider.class);
+
+    private final LlmProvider delegate;
+    private final Path cassette;
+
+    /**
+     * Create a recording provider.
+     *
+     * @param delegate the provider to call
+     * @param cassette the file to append calls to
+     */
+    public RecordingLlmProvider(LlmProvider delegate, Path cassette) {
+        this.delegate = delegate;
+        this.cassette = cassette;
+    }
+
+    @Override
+    public LlmResponse chat(List<ContextMessage> context, ToolRegistry tools) throws IOException {
+        return chat(context, tools, (ChatListener) null);
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            Consumer<String> onTextDelta) throws IOException {
+        return chat(context, tools, ChatListener.accumulating(onTextDelta));
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        var fingerprint = Cassette.fingerprint(context, tools);
+        long start = System.nanoTime();
+        List<Cassette.Chunk> chunks = Collections.synchronizedList(new ArrayList<>());
+        ChatListener recorder = null;
+        if (listener != null) {
+            recorder = new ChatListener() {
+                @Override
+                public void onTextDelta(String fragment) {
+                    chunks.add(new Cassette.Chunk(micros(start), fragment, null));
+                    listener.onTextDelta(fragment);
+                }
+
+                @Override
+                public void onToolCallReady(ContextMessage.ToolCallData toolCall) {
+                    chunks.add(new Cassette.Chunk(micros(start), null, toolCall));
+                    listener.onToolCallReady(toolCall);
+                }
+
+                @Override
+                public void onRequestSent(long sentNanos) {
+                    listener.onRequestSent(sentNanos);
+                }
+
+                @Override
+                public void onStreamOpened(AutoCloseable stream) {
+                    listener.onStreamOpened(stream);
+                }
+            };
+        }
+        try {
+            var response = delegate.chat(context, tools, recorder);
+            record(new Cassette.Interaction(fingerprint, chunks, response, null, micros(start)));
+            return response;
+        } catch (LlmProviderException e) {
+            record(new Cassette.Interaction(fingerprint, chunks, null, e, micros(start)));
+            throw e;
+        }
+    }
+
+    @Override
+    public void setResponseHeadersListener(Consumer<Function<String, List<String>>> listener) {
+        delegate.setResponseHeadersListener(listener);
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        delegate.setMetrics(metrics);
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    private synchronized void record(Cassette.Interaction interaction) {
+        try {
+            Cassette.append(cassette, interaction);
+        } catch (IOException e) {
+            LOG.warn("Could not record to cassette {}: {}", cassette, e.getMessage());
+        }
+    }
+
+    private static long micros(long start) {
+        return (System.nanoTime() - start) / 1_000;
+    }
+}
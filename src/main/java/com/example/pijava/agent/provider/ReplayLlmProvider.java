@@ -0,0 +1,187 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ChatListener;
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.LlmProviderException;
+import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.tool.ToolRegistry;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LlmProvider} that answers from a cassette written by
+ * {@link RecordingLlmProvider}, without network access or an API key.
+ *
+ * <p>Each request is matched to the first unused recorded call with the
+ * same fingerprint. If there is none, because a tool result differs from
+ * the recording run (a timestamp or a timing, say), the next unused call in
+ * recorded order is used instead and the mismatch is logged; a run that
+ * makes the same requests in the same order therefore replays exactly.</p>
+ *
+ * <p>Streamed events are delivered either with their recorded timing, to
+ * reproduce what a user saw, or as fast as possible, to measure the agent
+ * loop, tools and rendering without the model's latency. Recorded errors
+ * are thrown again. Closing the stream handle aborts the replay as it
+ * would abort a live stream.</p>
+ */
+public class ReplayLlmProvider implements LlmProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayLlmProvider.class);
+
+    /** How fast recorded calls are played back. */
+    public enum Pacing {
+        /** Deliver every event at its recorded offset. */
+        ORIGINAL,
+        /** Deliver everything immediately. */
+        FAST
+    }
+
+    private final Path cassette;
+    private final List<Cassette.Interaction> interactions;
+    private final boolean[] used;
+    private final Pacing pacing;
+    private int mismatches;
+
+    /**
+     * Load a cassette.
+     *
+     * @param cassette the file written by {@link RecordingLlmProvider}
+     * @param pacing   how fast to play recorded calls back
+     * @throws IOException if the cassette cannot be read
+     */
+    public ReplayLlmProvider(Path cassette, Pacing pacing) throws IOException {
+        this.cassette = cassette;
+        this.interactions = Cassette.read(cassette);
+        this.used = new boolean[interactions.size()];
+        this.pacing = pacing;
+    }
+
+    @Override
+    public LlmResponse chat(List<ContextMessage> context, ToolRegistry tools) throws IOException {
+        return chat(context, tools, (ChatListener) null);
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            Consumer<String> onTextDelta) throws IOException {
+        return chat(context, tools, ChatListener.accumulating(onTextDelta));
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        var interaction = next(Cassette.fingerprint(context, tools));
+        long start = System.nanoTime();
+        var closed = new CountDownLatch(1);
+        if (listener != null) {
+            listener.onRequestSent(start);
+            listener.onStreamOpened(closed::countDown);
+            for (var chunk : chunks(interaction)) {
+                waitUntil(start, chunk.atMicros(), closed);
+                if (chunk.text() != null) {
+                    listener.onTextDelta(chunk.text());
+                }
+                if (chunk.toolCall() != null) {
+                    listener.onToolCallReady(chunk.toolCall());
+                }
+            }
+        }
+        waitUntil(start, interaction.latencyMicros(), closed);
+        var failure = interaction.failure();
+        if (failure != null) {
+            throw new LlmProviderException(failure.getMessage(), null, failure.statusCode(),
+                    failure.retryable(), failure.retryAfter());
+        }
+        return interaction.response();
+    }
+
+    @Override
+    public String getProviderName() {
+        return "replay";
+    }
+
+    /** Recorded calls not yet replayed. */
+    public synchronized int remaining() {
+        int remaining = 0;
+        for (var taken : used) {
+            if (!taken) {
+                remaining++;
+            }
+        }
+        return remaining;
+    }
+
+    /** Requests that had no recorded call with the same fingerprint. */
+    public synchronized int mismatches() {
+        return mismatches;
+    }
+
+    private synchronized Cassette.Interaction next(String fingerprint) throws IOException {
+        int fallback = -1;
+        for (int i = 0; i < interactions.size(); i++) {
+            if (used[i]) {
+                continue;
+            }
+            if (interactions.get(i).fingerprint().equals(fingerprint)) {
+                used[i] = true;
+                return interactions.get(i);
+            }
+            if (fallback < 0) {
+                fallback = i;
+            }
+        }
+        if (fallback < 0) {
+            throw new IOException("Cassette " + cassette + " has no more recorded calls");
+        }
+        mismatches++;
+        LOG.warn("No recorded call matches request {}; replaying call {} of {} in order",
+                fingerprint.substring(0, 12), fallback + 1, interactions.size());
+        used[fallback] = true;
+        return interactions.get(fallback);
+    }
+
+    /** The events to deliver; a non-streaming recording is streamed as one chunk. */
+    private static List<Cassette.Chunk> chunks(Cassette.Interaction interaction) {
+        var response = interaction.response();
+        if (!interaction.chunks().isEmpty() || response == null) {
+            return interaction.chunks();
+        }
+        var chunks = new ArrayList<Cassette.Chunk>();
+        if (!response.content().isEmpty()) {
+            chunks.add(new Cassette.Chunk(interaction.latencyMicros(), response.content(), null));
+        }
+        for (var toolCall : response.toolCalls()) {
+            chunks.add(new Cassette.Chunk(interaction.latencyMicros(), null, toolCall));
+        }
+        return chunks;
+    }
+
+    private void waitUntil(long start, long atMicros, CountDownLatch closed) throws IOException {
+        long delay = pacing == Pacing.ORIGINAL
+                ? start + atMicros * 1_000 - System.nanoTime()
+                : 0;
+        boolean aborted;
+        try {
+            aborted = closed.await(Math.max(0, delay), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during replay");
+        }
+        if (aborted) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
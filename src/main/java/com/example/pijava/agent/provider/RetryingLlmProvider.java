@@ -0,0 +1,259 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ChatListener;
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.LlmProviderException;
+import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.MetricsRegistry;
+import com.example.pijava.agent.tool.ToolRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LlmProvider} decorator that retries transient failures.
+ *
+ * <p>Only {@link LlmProviderException}s marked retryable are retried: rate
+ * limits, overload and server errors, and transport failures. Waits use
+ * exponential backoff with full jitter (a random delay between zero and
+ * {@code baseDelay * 2^(attempt-1)}, capped at {@code maxDelay}), so
+ * clients that failed together do not retry together; a server's
+ * {@code Retry-After} takes precedence, and a request to wait longer than
+ * {@value #MAX_RETRY_AFTER_SECONDS}s ends the retries.</p>
+ *
+ * <p>A streamed attempt is never repeated once it has delivered text or a
+ * tool call to the listener, since the caller has already shown or acted
+ * on it. Cancelling the turn, which closes the stream handle reported to
+ * the listener, also stops the retries, including a backoff wait in
+ * progress.</p>
+ */
+public class RetryingLlmProvider implements LlmProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryingLlmProvider.class);
+
+    /** Attempts per call, the first one included. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final Duration DEFAULT_BASE_DELAY = Duration.ofMillis(500);
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(30);
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final LlmProvider delegate;
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAdder backoffNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Retry up to {@value #DEFAULT_MAX_ATTEMPTS} attempts with the default delays.
+     *
+     * @param delegate the provider to call
+     */
+    public RetryingLlmProvider(LlmProvider delegate) {
+        this(delegate, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Retry with the default delays.
+     *
+     * @param delegate    the provider to call
+     * @param maxAttempts attempts per call, the first one included
+     */
+    public RetryingLlmProvider(LlmProvider delegate, int maxAttempts) {
+        this(delegate, maxAttempts, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Create a retrying provider.
+     *
+     * @param delegate    the provider to call
+     * @param maxAttempts attempts per call, the first one included
+     * @param baseDelay   upper bound of the first backoff delay
+     * @param maxDelay    upper bound of any backoff delay
+     */
+    public RetryingLlmProvider(LlmProvider delegate, int maxAttempts,
+                               Duration baseDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        this.delegate = delegate;
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public LlmResponse chat(List<ContextMessage> context, ToolRegistry tools) throws IOException {
+        return chat(context, tools, (ChatListener) null);
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            Consumer<String> onTextDelta) throws IOException {
+        return chat(context, tools, ChatListener.accumulating(onTextDelta));
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        calls.increment();
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                var guard = listener != null ? new AttemptListener(listener) : null;
+                attempts.increment();
+                try {
+                    return delegate.chat(context, tools, guard);
+                } catch (LlmProviderException e) {
+                    if (!e.retryable() || attempt >= maxAttempts
+                            || (guard != null && (guard.delivered || guard.aborted))) {
+                        throw e;
+                    }
+                    var delay = delayBefore(attempt + 1, e);
+                    if (delay == null) {
+                        throw e;
+                    }
+                    LOG.warn("{} (HTTP {}); retrying in {} ms, attempt {} of {}", e.getMessage(),
+                            e.statusCode(), delay.toMillis(), attempt + 1, maxAttempts);
+                    sleep(delay, listener);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            latencyNanos.add(elapsed);
+            maxLatencyNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    @Override
+    public void setResponseHeadersListener(Consumer<Function<String, List<String>>> listener) {
+        delegate.setResponseHeadersListener(listener);
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        delegate.setMetrics(metrics);
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    /** Counters accumulated since this provider was created. */
+    public Stats stats() {
+        return new Stats(calls.sum(), attempts.sum(), failures.sum(),
+                Duration.ofNanos(latencyNanos.sum()), Duration.ofNanos(maxLatencyNanos.get()),
+                Duration.ofNanos(backoffNanos.sum()));
+    }
+
+    /**
+     * How long to wait before the given attempt.
+     *
+     * @return the delay, or {@code null} if the server asked for a longer
+     *         wait than is worth keeping the user waiting for
+     */
+    private Duration delayBefore(int attempt, LlmProviderException failure) {
+        var requested = failure.retryAfter();
+        if (requested != null) {
+            return requested.toSeconds() > MAX_RETRY_AFTER_SECONDS ? null : requested;
+        }
+        long ceiling = Math.min(maxDelay.toMillis(),
+                baseDelay.toMillis() << Math.min(attempt - 2, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    /** Wait out a backoff delay; cancelling the turn cuts it short. */
+    private void sleep(Duration delay, ChatListener listener) throws IOException {
+        long start = System.nanoTime();
+        try {
+            CancellableWait.sleep(delay, listener, "waiting to retry");
+        } finally {
+            backoffNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Retry counters.
+     *
+     * @param calls        chat calls made through this provider
+     * @param attempts     requests sent, retries included
+     * @param failures     calls that failed after their last attempt
+     * @param totalLatency time spent in calls, backoff included
+     * @param maxLatency   the longest single call
+     * @param totalBackoff time spent waiting between attempts
+     */
+    public record Stats(long calls, long attempts, long failures,
+                        Duration totalLatency, Duration maxLatency, Duration totalBackoff) {
+
+        /** Requests that were repeats of a failed attempt. */
+        public long retries() {
+            return attempts - calls;
+        }
+
+        /** Mean time per call, or zero before the first call. */
+        public Duration meanLatency() {
+            return calls == 0 ? Duration.ZERO : totalLatency.dividedBy(calls);
+        }
+    }
+
+    /**
+     * Forwards one attempt's events, noting whether anything reached the
+     * caller and whether the caller closed the stream to cancel.
+     */
+    private static final class AttemptListener implements ChatListener {
+
+        private final ChatListener listener;
+        volatile boolean delivered;
+        volatile boolean aborted;
+
+        AttemptListener(ChatListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onTextDelta(String fragment) {
+            delivered = true;
+            listener.onTextDelta(fragment);
+        }
+
+        @Override
+        public void onToolCallReady(ContextMessage.ToolCallData toolCall) {
+            delivered = true;
+            listener.onToolCallReady(toolCall);
+        }
+
+        @Override
+        public void onRequestSent(long sentNanos) {
+            listener.onRequestSent(sentNanos);
+        }
+
+        @Override
+        public void onStreamOpened(AutoCloseable stream) {
+            listener.onStreamOpened(() -> {
+                aborted = true;
+                stream.close();
+            });
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package com.example.pijava.agent.provider;
+
+import com.example.pijava.agent.ChatListener;
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.agent.LlmProvider;
+import com.example.pijava.agent.LlmProviderException;
+import com.example.pijava.agent.LlmResponse;
+import com.example.pijava.agent.MetricsRegistry;
+import com.example.pijava.agent.tool.ToolRegistry;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LlmProvider} that routes each request across several backends,
+ * hedging against slow ones and failing over from broken ones.
+ *
+ * <p>A request goes to the primary: the healthy backend with the lowest
+ * 95th-percentile time to first token. If no token has arrived by that
+ * percentile, the request is also sent to the next backend, and so on.
+ * The first attempt to produce output wins; its events go to the caller and
+ * every other attempt's stream is closed. A retryable failure before any
+ * output starts the next backend immediately. A non-retryable one starts no
+ * other backend, but is only reported once no other attempt is left to
+ * answer. A failure after output was delivered is reported, since the
+ * caller has already seen part of the response.</p>
+ *
+ * <p>Every backend keeps a window of recent latencies (an attempt that lost
+ * a hedge counts as taking at least as long as it ran) and a count of
+ * consecutive failures; {@value #FAILURES_TO_MARK_DOWN} in a row take it out
+ * of rotation for {@link #MARK_DOWN_TIME}, after which it is tried again.</p>
+ */
+public class RoutingLlmProvider implements LlmProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingLlmProvider.class);
+
+    /** Hedge delay while a backend has too few samples for a percentile. */
+    private static final Duration DEFAULT_HEDGE_DELAY = Duration.ofSeconds(10);
+    private static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(500);
+    private static final Duration MAX_HEDGE_DELAY = Duration.ofSeconds(30);
+    private static final int LATENCY_WINDOW = 100;
+    private static final int MIN_SAMPLES = 10;
+    private static final int FAILURES_TO_MARK_DOWN = 3;
+    private static final Duration MARK_DOWN_TIME = Duration.ofSeconds(30);
+
+    private final List<Backend> backends;
+
+    /**
+     * Create a router.
+     *
+     * @param backends providers by display name, in order of preference
+     *                 while their latencies are unknown
+     */
+    public RoutingLlmProvider(Map<String, LlmProvider> backends) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("At least one backend is required");
+        }
+        var list = new ArrayList<Backend>();
+        new LinkedHashMap<>(backends).forEach((name, provider) -> list.add(new Backend(name, provider)));
+        this.backends = List.copyOf(list);
+    }
+
+    @Override
+    public LlmResponse chat(List<ContextMessage> context, ToolRegistry tools) throws IOException {
+        return chat(context, tools, (ChatListener) null);
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            Consumer<String> onTextDelta) throws IOException {
+        return chat(context, tools, ChatListener.accumulating(onTextDelta));
+    }
+
+    @Override
+    public LlmResponse chat(
+            List<ContextMessage> context,
+            ToolRegistry tools,
+            ChatListener listener) throws IOException {
+        return new Call(context, tools, listener).run();
+    }
+
+    @Override
+    public void setResponseHeadersListener(Consumer<Function<String, List<String>>> listener) {
+        for (var backend : backends) {
+            backend.provider.setResponseHeadersListener(listener);
+        }
+    }
+
+    @Override
+    public void setMetrics(MetricsRegistry metrics) {
+        for (var backend : backends) {
+            backend.provider.setMetrics(metrics);
+        }
+    }
+
+    @Override
+    public String getProviderName() {
+        return ranked().get(0).provider.getProviderName();
+    }
+
+    /** Current statistics of every backend, in configuration order. */
+    public List<BackendStats> stats() {
+        long now = System.nanoTime();
+        return backends.stream().map(backend -> backend.stats(now)).toList();
+    }
+
+    /** Backends in the order to try them: healthy ones first, fastest first. */
+    private List<Backend> ranked() {
+        long now = System.nanoTime();
+        var ranked = new ArrayList<>(backends);
+        ranked.sort(Comparator.comparing((Backend backend) -> !backend.healthy(now))
+                .thenComparing(Backend::hedgeDelay));
+        return ranked;
+    }
+
+    /**
+     * Statistics of one backend.
+     *
+     * @param name        the backend's display name
+     * @param requests    attempts sent to it, hedges included
+     * @param wins        attempts whose response was used
+     * @param failures    attempts that failed
+     * @param p50         median time to first token, or {@code null} before enough samples
+     * @param p95         95th-percentile time to first token, or {@code null} before enough samples
+     * @param healthy     whether it is in rotation
+     */
+    public record BackendStats(String name, long requests, long wins, long failures,
+                               Duration p50, Duration p95, boolean healthy) {
+    }
+
+    /** One backend with its latency window and health. */
+    private static final class Backend {
+
+        final String name;
+        final LlmProvider provider;
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int samples;
+        private long requests;
+        private long wins;
+        private long failures;
+        private int consecutiveFailures;
+        private long downUntil;
+
+        Backend(String name, LlmProvider provider) {
+            this.name = name;
+            this.provider = provider;
+        }
+
+        synchronized void recordRequest() {
+            requests++;
+        }
+
+        synchronized void recordLatency(long nanos) {
+            latencies[samples % LATENCY_WINDOW] = nanos;
+            samples++;
+        }
+
+        synchronized void recordWin() {
+            wins++;
+            consecutiveFailures = 0;
+        }
+
+        synchronized void recordFailure() {
+            failures++;
+            if (++consecutiveFailures >= FAILURES_TO_MARK_DOWN) {
+                downUntil = System.nanoTime() + MARK_DOWN_TIME.toNanos();
+                LOG.warn("Backend {} failed {} times in a row; out of rotation for {}s",
+                        name, consecutiveFailures, MARK_DOWN_TIME.toSeconds());
+                consecutiveFailures = 0;
+            }
+        }
+
+        synchronized boolean healthy(long now) {
+            return now - downUntil >= 0;
+        }
+
+        /** How long to wait for a first token before hedging. */
+        synchronized Duration hedgeDelay() {
+            var p95 = percentile(0.95);
+            if (p95 == null) {
+                return DEFAULT_HEDGE_DELAY;
+            }
+            return p95.compareTo(MIN_HEDGE_DELAY) < 0 ? MIN_HEDGE_DELAY
+                    : p95.compareTo(MAX_HEDGE_DELAY) > 0 ? MAX_HEDGE_DELAY : p95;
+        }
+
+        synchronized BackendStats stats(long now) {
+            return new BackendStats(name, requests, wins, failures,
+                    percentile(0.5), percentile(0.95), healthy(now));
+        }
+
+        private Duration percentile(double fraction) {
+            int count = Math.min(samples, LATENCY_WINDOW);
+            if (count < MIN_SAMPLES) {
+                return null;
+            }
+            var sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return Duration.ofNanos(sorted[(int) Math.ceil(fraction * count) - 1]);
+        }
+    }
+
+    /** What an attempt reports to the routing loop. */
+    private record Outcome(Attempt attempt, LlmResponse response, Exception failure) {
+    }
+
+    /** One routed request: its attempts and which of them won. */
+    private final class Call {
+
+        private final List<ContextMessage> context;
+        private final ToolRegistry tools;
+        private final ChatListener listener;
+        private final BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        private final List<Attempt> attempts = new ArrayList<>();
+        private final AtomicReference<Attempt> winner = new AtomicReference<>();
+        private volatile boolean cancelled;
+
+        Call(List<ContextMessage> context, ToolRegistry tools, ChatListener listener) {
+            this.context = context;
+            this.tools = tools;
+            this.listener = listener;
+        }
+
+        LlmResponse run() throws IOException {
+            if (listener != null) {
+                listener.onStreamOpened(this::cancel);
+            }
+            var candidates = ranked();
+            int next = 0;
+            int running = 0;
+            IOException lastFailure = null;
+            long hedgeAt = start(candidates.get(next++));
+            running++;
+            try {
+                while (true) {
+                    Outcome outcome;
+                    if (winner.get() == null && next < candidates.size()) {
+                        outcome = outcomes.poll(hedgeAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (outcome == null) {
+                            var backup = candidates.get(next++);
+                            LOG.info("No response yet; hedging request to {}", backup.name);
+                            hedgeAt = start(backup);
+                            running++;
+                            continue;
+                        }
+                    } else {
+                        outcome = outcomes.take();
+                    }
+                    if (outcome.attempt().lost()) {
+                        continue;
+                    }
+                    if (outcome.failure() == null) {
+                        if (outcome.response() == null) {
+                            // The attempt produced its first output and won
+                            closeLosers();
+                            continue;
+                        }
+                        outcome.attempt().backend.recordWin();
+                        closeLosers();
+                        return outcome.response();
+                    }
+
+                    running--;
+                    var failure = asIOException(outcome.failure());
+                    if (cancelled) {
+                        throw new IOException("Cancelled", failure);
+                    }
+                    outcome.attempt().backend.recordFailure();
+                    var won = winner.get();
+                    if (won != null && won != outcome.attempt()) {
+                        // Failed before it could be closed as a loser
+                        continue;
+                    }
+                    if (won != null) {
+                        // Output was already delivered; failing over would repeat it
+                        closeAll();
+                        throw failure;
+                    }
+                    lastFailure = failure;
+                    if (!isFailover(failure)) {
+                        // Not worth another backend, but one already running may still answer
+                        if (running == 0) {
+                            closeAll();
+                            throw failure;
+                        }
+                        LOG.warn("{} failed ({}); waiting for the other attempts",
+                                outcome.attempt().backend.name, failure.getMessage());
+                        continue;
+                    }
+                    if (next < candidates.size()) {
+                        var backup = candidates.get(next++);
+                        LOG.warn("{} failed ({}); failing over to {}",
+                                outcome.attempt().backend.name, failure.getMessage(), backup.name);
+                        hedgeAt = start(backup);
+                        running++;
+                    } else if (running == 0) {
+                        throw lastFailure;
+                    }
+                }
+            } catch (InterruptedException e) {
+                closeAll();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a response");
+            }
+        }
+
+        /** Start an attempt on a backend and return the time to hedge it. */
+        private long start(Backend backend) {
+            var attempt = new Attempt(this, backend);
+            synchronized (attempts) {
+                attempts.add(attempt);
+            }
+            backend.recordRequest();
+            Thread.ofVirtual().name("llm-" + backend.name).start(() -> {
+                try {
+                    var response = backend.provider.chat(context, tools,
+                            listener != null ? attempt : null);
+                    if (claim(attempt)) {
+                        outcomes.add(new Outcome(attempt, response, null));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    outcomes.add(new Outcome(attempt, null, e));
+                }
+            });
+            return attempt.startNanos + backend.hedgeDelay().toNanos();
+        }
+
+        /**
+         * Make the attempt the winner if no other attempt has produced
+         * output yet.
+         *
+         * @return whether the attempt is the winner
+         */
+        boolean claim(Attempt attempt) {
+            if (winner.compareAndSet(null, attempt)) {
+                attempt.backend.recordLatency(System.nanoTime() - attempt.startNanos);
+                if (listener != null) {
+                    listener.onRequestSent(attempt.sentNanos);
+                }
+                outcomes.add(new Outcome(attempt, null, null));
+                return true;
+            }
+            return winner.get() == attempt;
+        }
+
+        private void closeLosers() {
+            var won = winner.get();
+            for (var attempt : snapshot()) {
+                if (attempt != won) {
+                    attempt.lose();
+                }
+            }
+        }
+
+        private void closeAll() {
+            for (var attempt : snapshot()) {
+                attempt.close();
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            closeAll();
+        }
+
+        private List<Attempt> snapshot() {
+            synchronized (attempts) {
+                return List.copyOf(attempts);
+            }
+        }
+
+        private boolean isFailover(IOException failure) {
+            return !(failure instanceof LlmProviderException classified) || classified.retryable();
+        }
+
+        private IOException asIOException(Exception failure) {
+            return failure instanceof IOException io ? io
+                    : new IOException(failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * One backend's attempt at a request. Its events reach the caller only
+     * once it has won; a losing attempt's streams are closed.
+     */
+    private static final class Attempt implements ChatListener {
+
+        final Backend backend;
+        final long startNanos = System.nanoTime();
+        /** When the backend last sent the request; reported to the caller if this attempt wins. */
+        volatile long sentNanos = startNanos;
+        private final Call call;
+        private final List<AutoCloseable> streams = new ArrayList<>();
+        private boolean closed;
+        private volatile boolean lost;
+
+        Attempt(Call call, Backend backend) {
+            this.call = call;
+            this.backend = backend;
+        }
+
+        @Override
+        public void onTextDelta(String fragment) {
+            if (call.claim(this)) {
+                call.listener.onTextDelta(fragment);
+            } else {
+                close();
+            }
+        }
+
+        @Override
+        public void onToolCallReady(ContextMessage.ToolCallData toolCall) {
+            if (call.claim(this)) {
+                call.listener.onToolCallReady(toolCall);
+            } else {
+                close();
+            }
+        }
+
+        @Override
+        public void onRequestSent(long sentNanos) {
+            this.sentNanos = sentNanos;
+        }
+
+        @Override
+        public void onStreamOpened(AutoCloseable stream) {
+            synchronized (this) {
+                if (!closed) {
+                    streams.add(stream);
+                    return;
+                }
+            }
+            closeQuietly(stream);
+        }
+
+        boolean lost() {
+            return lost;
+        }
+
+        /** Abandon the attempt after another one won, counting the time it ran. */
+        void lose() {
+            if (!lost) {
+                lost = true;
+                backend.recordLatency(System.nanoTime() - startNanos);
+                close();
+            }
+        }
+
+        void close() {
+            List<AutoCloseable> open;
+            synchronized (this) {
+                closed = true;
+                open = List.copyOf(streams);
+                streams.clear();
+            }
+            open.forEach(Attempt::closeQuietly);
+        }
+
+        private static void closeQuietly(AutoCloseable stream) {
+            try {
+                stream.close();
+            } catch (Exception e) {
+                LOG.debug("Error closing a hedged stream: {}", e.getMessage());
+            }
+        }
+    }
+}
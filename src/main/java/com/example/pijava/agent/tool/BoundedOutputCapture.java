@@ -0,0 +1,126 @@
+package com.example.pijava.agent.tool;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constant-memory capture of a process's output stream.
+ *
+ * <p>Keeps the first {@code headBytes} bytes and, in a ring buffer, the
+ * last {@code tailBytes} bytes; everything in between is only counted. The
+ * beginning shows what was run and the end is where errors and summaries
+ * usually are, so this keeps the useful parts of arbitrarily long output
+ * without buffering it.</p>
+ *
+ * <p>Writes come from the reader thread while snapshots may be taken from
+ * any thread, so all methods are synchronized.</p>
+ */
+final class BoundedOutputCapture {
+
+    private final byte[] head;
+    private int headLength;
+    private final byte[] tail;
+    /** Next write position in {@link #tail}. */
+    private int tailPosition;
+    private int tailLength;
+    private long totalBytes;
+
+    BoundedOutputCapture(int headBytes, int tailBytes) {
+        this.head = new byte[headBytes];
+        this.tail = new byte[tailBytes];
+    }
+
+    /** Append bytes read from the stream. */
+    synchronized void write(byte[] bytes, int offset, int length) {
+        totalBytes += length;
+        int toHead = Math.min(length, head.length - headLength);
+        System.arraycopy(bytes, offset, head, headLength, toHead);
+        headLength += toHead;
+        int from = offset + toHead;
+        int remaining = length - toHead;
+        if (remaining == 0 || tail.length == 0) {
+            return;
+        }
+        if (remaining >= tail.length) {
+            System.arraycopy(bytes, from + remaining - tail.length, tail, 0, tail.length);
+            tailPosition = 0;
+            tailLength = tail.length;
+            return;
+        }
+        int first = Math.min(remaining, tail.length - tailPosition);
+        System.arraycopy(bytes, from, tail, tailPosition, first);
+        System.arraycopy(bytes, from + first, tail, 0, remaining - first);
+        tailPosition = (tailPosition + remaining) % tail.length;
+        tailLength = Math.min(tail.length, tailLength + remaining);
+    }
+
+    /** Total number of bytes written, including the ones not kept. */
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * The captured output: the head, a marker for the bytes that were
+     * dropped, if any, and the tail.
+     */
+    synchronized String text() {
+        long omitted = omittedBytes();
+        if (omitted == 0) {
+            return new String(contiguous(), StandardCharsets.UTF_8);
+        }
+        var tailBytes = tailBytes();
+        int headEnd = Utf8.characterEnd(head, 0, headLength);
+        int tailStart = Utf8.characterStart(tailBytes, 0, tailBytes.length);
+        return new String(head, 0, headEnd, StandardCharsets.UTF_8)
+                + "\n... (" + omitted + " bytes omitted) ...\n"
+                + new String(tailBytes, tailStart, tailBytes.length - tailStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The most recent output, for progress display: at most
+     * {@code maxBytes} bytes, starting at a line boundary when cut.
+     */
+    synchronized String recent(int maxBytes) {
+        boolean gap = omittedBytes() > 0;
+        var latest = gap ? tailBytes() : contiguous();
+        int end = latest.length;
+        int start = Math.max(0, end - maxBytes);
+        if (start > 0 || gap) {
+            // Skip the partial first line
+            int newline = start;
+            while (newline < end && latest[newline] != '\n') {
+                newline++;
+            }
+            if (newline < end) {
+                start = newline + 1;
+            }
+        }
+        start = Utf8.characterStart(latest, start, end);
+        end = Utf8.characterEnd(latest, start, end);
+        return new String(latest, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private long omittedBytes() {
+        return totalBytes - headLength - tailLength;
+    }
+
+    /** Head and tail joined; only meaningful when nothing was omitted. */
+    private byte[] contiguous() {
+        var tailBytes = tailBytes();
+        var all = new byte[headLength + tailBytes.length];
+        System.arraycopy(head, 0, all, 0, headLength);
+        System.arraycopy(tailBytes, 0, all, headLength, tailBytes.length);
+        return all;
+    }
+
+    /** The ring buffer's contents in stream order. */
+    private byte[] tailBytes() {
+        var bytes = new byte[tailLength];
+        if (tailLength < tail.length) {
+            System.arraycopy(tail, 0, bytes, 0, tailLength);
+        } else {
+            System.arraycopy(tail, tailPosition, bytes, 0, tail.length - tailPosition);
+            System.arraycopy(tail, 0, bytes, tail.length - tailPosition, tailPosition);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.pijava.agent.tool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of decoded file contents, shared by file tools.
+ *
+ * <p>Entries are keyed by real path and validated against the file's
+ * modification time and size on every lookup, so an edit made by the user
+ * or by a shell command is picked up on the next read; a hit costs one
+ * {@code stat} instead of a full read and decode. The cache is a
+ * least-recently-used map bounded by the total characters it holds.</p>
+ *
+ * <p>Files modified within {@link #RACY_WINDOW} of being read are not
+ * cached: a second write in the same timestamp tick that keeps the size
+ * unchanged would otherwise go unnoticed.</p>
+ */
+public final class FileContentCache {
+
+    /** Default capacity: about 32 MB of {@code char} data. */
+    public static final long DEFAULT_MAX_CHARS = 16L * 1024 * 1024;
+
+    static final Duration RACY_WINDOW = Duration.ofSeconds(2);
+
+    private final long maxChars;
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalChars;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Create a cache with {@link #DEFAULT_MAX_CHARS} capacity. */
+    public FileContentCache() {
+        this(DEFAULT_MAX_CHARS);
+    }
+
+    /**
+     * Create a cache bounded by the total length of the cached contents.
+     *
+     * @param maxChars capacity in characters; files larger than a quarter of
+     *                 it are never cached
+     */
+    public FileContentCache(long maxChars) {
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("maxChars must be positive: " + maxChars);
+        }
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Return the content of a file, from the cache if it is unchanged.
+     *
+     * @param path the file to read
+     * @return the file content decoded as UTF-8
+     * @throws IOException if the file cannot be read
+     */
+    public String read(Path path) throws IOException {
+        var realPath = path.toRealPath();
+        var attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        var modified = attributes.lastModifiedTime();
+        long size = attributes.size();
+
+        synchronized (this) {
+            var entry = entries.get(realPath);
+            if (entry != null && entry.size == size && entry.modified.equals(modified)) {
+                hits.incrementAndGet();
+                return entry.content;
+            }
+        }
+        misses.incrementAndGet();
+
+        var content = Files.readString(realPath);
+        var racy = modified.toInstant().isAfter(Instant.now().minus(RACY_WINDOW));
+        if (!racy && content.length() <= maxChars / 4) {
+            put(realPath, new Entry(content, modified, size));
+        }
+        return content;
+    }
+
+    /** Drop every cached entry. */
+    public synchronized void clear() {
+        entries.clear();
+        totalChars = 0;
+    }
+
+    /** Number of reads served from the cache. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Number of reads that went to the file system. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Number of entries evicted to stay within capacity. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** Total characters currently cached. */
+    public synchronized long cachedChars() {
+        return totalChars;
+    }
+
+    private synchronized void put(Path path, Entry entry) {
+        var previous = entries.put(path, entry);
+        if (previous != null) {
+            totalChars -= previous.content.length();
+        }
+        totalChars += entry.content.length();
+
+        var eldest = entries.entrySet().iterator();
+        while (totalChars > maxChars && eldest.hasNext()) {
+            var victim = eldest.next().getValue();
+            eldest.remove();
+            totalChars -= victim.content.length();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private record Entry(String content, FileTime modified, long size) { }
+}
@@ -0,0 +1,231 @@
+package com.example.pijava.agent.tool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code .gitignore} rules in effect for one directory of a walk.
+ *
+ * <p>Each directory's rules are chained to its parent's: the deepest file
+ * with a matching pattern decides, and within a file the last matching
+ * pattern wins, as in git. Supported syntax: comments, {@code !} negation,
+ * a trailing {@code /} for directories only, a leading or inner {@code /}
+ * to anchor the pattern to its directory, and {@code *}, {@code ?},
+ * {@code [...]} and {@code **} wildcards.</p>
+ *
+ * <p>A walk that starts below the top of a repository begins with
+ * {@link #above}, so the {@code .gitignore} files of the directories above
+ * its start apply too.</p>
+ */
+final class GitIgnore {
+
+    /** No rules at all. */
+    static final GitIgnore NONE = new GitIgnore(null, "", List.of(), "");
+
+    private static final String FILE_NAME = ".gitignore";
+
+    private final GitIgnore parent;
+    /** Directory of the {@code .gitignore}, relative to the top, {@code ""} or ending in {@code /}. */
+    private final String base;
+    private final List<Rule> rules;
+    /** The walk root relative to the top directory of the chain, {@code ""} or ending in {@code /}. */
+    private final String offset;
+
+    private GitIgnore(GitIgnore parent, String base, List<Rule> rules, String offset) {
+        this.parent = parent;
+        this.base = base;
+        this.rules = rules;
+        this.offset = offset;
+    }
+
+    /**
+     * Rules that the {@code .gitignore} files above a directory apply
+     * inside it, for a walk rooted there; {@link #enter} the directory
+     * itself to add its own file. The files are read from the top of its
+     * repository, or of the working directory if it is in none, down to
+     * its parent.
+     *
+     * @param directory the walk root
+     * @return the rules, relative to {@code directory}
+     */
+    static GitIgnore above(Path directory) {
+        var start = directory.toAbsolutePath().normalize();
+        var rules = NONE;
+        var ancestors = ancestors(start);
+        if (ancestors.isEmpty()) {
+            return rules;
+        }
+        var top = ancestors.get(0);
+        for (var ancestor : ancestors) {
+            rules = rules.enter(ancestor, relative(top, ancestor));
+        }
+        return new GitIgnore(rules.parent, rules.base, rules.rules, relative(top, start) + "/");
+    }
+
+    /**
+     * The {@code .gitignore} files, present or not, whose rules
+     * {@link #above} applies to a directory.
+     *
+     * @param directory the walk root
+     * @return the files, top first
+     */
+    static List<Path> filesAbove(Path directory) {
+        return ancestors(directory.toAbsolutePath().normalize()).stream()
+                .map(ancestor -> ancestor.resolve(FILE_NAME))
+                .toList();
+    }
+
+    /** Directories from the top of the directory's repository down to its parent. */
+    private static List<Path> ancestors(Path directory) {
+        var top = repositoryRoot(directory);
+        if (top == null) {
+            var workingDirectory = Path.of("").toAbsolutePath().normalize();
+            top = directory.startsWith(workingDirectory) ? workingDirectory : directory;
+        }
+        var ancestors = new ArrayList<Path>();
+        for (var dir = directory.getParent(); dir != null && dir.startsWith(top); dir = dir.getParent()) {
+            ancestors.add(0, dir);
+        }
+        return ancestors;
+    }
+
+    private static Path repositoryRoot(Path directory) {
+        for (var dir = directory; dir != null; dir = dir.getParent()) {
+            if (Files.exists(dir.resolve(".git"))) {
+                return dir;
+            }
+        }
+        return null;
+    }
+
+    private static String relative(Path top, Path directory) {
+        return top.relativize(directory).toString().replace('\\', '/');
+    }
+
+    /**
+     * Rules for a subdirectory: these rules plus its own {@code .gitignore}, if any.
+     *
+     * @param directory    the subdirectory on disk
+     * @param relativePath its path relative to the walk root, {@code /}-separated
+     * @return the rules in effect inside it
+     */
+    GitIgnore enter(Path directory, String relativePath) {
+        var path = offset + relativePath;
+        var file = directory.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return this;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return this;
+        }
+        var parsed = new ArrayList<Rule>();
+        for (var line : lines) {
+            var rule = Rule.parse(line);
+            if (rule != null) {
+                parsed.add(rule);
+            }
+        }
+        if (parsed.isEmpty()) {
+            return this;
+        }
+        var prefix = path.isEmpty() ? "" : path.endsWith("/") ? path : path + "/";
+        return new GitIgnore(this, prefix, List.copyOf(parsed), offset);
+    }
+
+    /**
+     * Whether an entry is ignored.
+     *
+     * @param relativePath path relative to the walk root, {@code /}-separated
+     * @param directory    whether the entry is a directory
+     */
+    boolean isIgnored(String relativePath, boolean directory) {
+        var path = offset + relativePath;
+        for (var scope = this; scope != null; scope = scope.parent) {
+            if (!path.startsWith(scope.base)) {
+                continue;
+            }
+            var local = path.substring(scope.base.length());
+            for (int i = scope.rules.size() - 1; i >= 0; i--) {
+                var rule = scope.rules.get(i);
+                if (rule.matches(local, directory)) {
+                    return !rule.negated;
+                }
+            }
+        }
+        return false;
+    }
+
+    private record Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+
+        static Rule parse(String line) {
+            var text = line.stripTrailing();
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+            boolean negated = text.startsWith("!");
+            if (negated) {
+                text = text.substring(1);
+            } else if (text.startsWith("\\")) {
+                text = text.substring(1); // escaped leading '#' or '!'
+            }
+            boolean directoryOnly = text.endsWith("/");
+            if (directoryOnly) {
+                text = text.substring(0, text.length() - 1);
+            }
+            boolean anchored = text.contains("/");
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            if (text.isEmpty()) {
+                return null;
+            }
+            var regex = (anchored ? "" : "(?:.*/)?") + toRegex(text);
+            return new Rule(Pattern.compile(regex), negated, directoryOnly);
+        }
+
+        boolean matches(String path, boolean directory) {
+            return (directory || !directoryOnly) && pattern.matcher(path).matches();
+        }
+
+        private static String toRegex(String glob) {
+            var regex = new StringBuilder();
+            int i = 0;
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (glob.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?");
+                    i += 3;
+                } else if (glob.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 2;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                    i++;
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                    i++;
+                } else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+                    int end = glob.indexOf(']', i + 1);
+                    var set = glob.substring(i + 1, end).replace("\\", "\\\\");
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = end + 1;
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+                    i += 2;
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    i++;
+                }
+            }
+            return regex.toString();
+        }
+    }
+}
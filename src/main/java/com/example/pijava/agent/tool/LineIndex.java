@@ -0,0 +1,141 @@
+package com.example.pijava.agent.tool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+/**
+ * Sparse line-offset index of a file.
+ *
+ * <p>Records the byte offset of every {@value #STRIDE}th line, so finding
+ * line N costs one lookup plus a scan of at most {@value #STRIDE} lines,
+ * independently of the file size. Built with a single sequential pass
+ * through a fixed-size buffer; the index itself needs one {@code long} per
+ * {@value #STRIDE} lines. An index is only valid for the file version
+ * (modification time and size) it was built from.</p>
+ */
+final class LineIndex {
+
+    /** Lines between two recorded offsets. */
+    static final int STRIDE = 1024;
+
+    private static final int SCAN_BUFFER_BYTES = 64 * 1024;
+
+    private final FileTime modified;
+    private final long size;
+    private final long lineCount;
+    private final long[] offsets;
+
+    private LineIndex(FileTime modified, long size, long lineCount, long[] offsets) {
+        this.modified = modified;
+        this.size = size;
+        this.lineCount = lineCount;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Index a file.
+     *
+     * @param channel    an open channel on the file
+     * @param attributes the file's attributes, read before the channel was scanned
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    static LineIndex build(FileChannel channel, BasicFileAttributes attributes) throws IOException {
+        long size = attributes.size();
+        var offsets = new long[16];
+        int recorded = 1; // offsets[0] = 0: line 0 starts the file
+        long lines = 0;
+        var buffer = ByteBuffer.allocateDirect(SCAN_BUFFER_BYTES);
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    lines++;
+                    if (lines % STRIDE == 0) {
+                        if (recorded == offsets.length) {
+                            offsets = Arrays.copyOf(offsets, recorded * 2);
+                        }
+                        offsets[recorded++] = position + i + 1;
+                    }
+                }
+            }
+            position += read;
+        }
+        // A final line without a trailing newline still counts
+        if (size > 0 && lastByte(channel, size) != '\n') {
+            lines++;
+        }
+        return new LineIndex(attributes.lastModifiedTime(), size, lines,
+                Arrays.copyOf(offsets, recorded));
+    }
+
+    /** {@code true} if the file is still the version this index was built from. */
+    boolean matches(BasicFileAttributes attributes) {
+        return attributes.size() == size && attributes.lastModifiedTime().equals(modified);
+    }
+
+    /** Number of lines in the file. */
+    long lineCount() {
+        return lineCount;
+    }
+
+    /** Size of the indexed file in bytes. */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Byte offset at which a line starts.
+     *
+     * @param channel an open channel on the indexed file
+     * @param line    0-based line number; {@link #lineCount()} gives the file size
+     * @return the offset of the line's first byte
+     * @throws IOException if the file cannot be read
+     */
+    long offsetOf(FileChannel channel, long line) throws IOException {
+        if (line >= lineCount) {
+            return size;
+        }
+        int slot = (int) Math.min(line / STRIDE, offsets.length - 1L);
+        return skipLines(channel, offsets[slot], line - (long) slot * STRIDE, size);
+    }
+
+    /** Advance past {@code lines} newlines starting at {@code position}. */
+    private static long skipLines(FileChannel channel, long position, long lines, long size)
+            throws IOException {
+        if (lines == 0) {
+            return position;
+        }
+        var buffer = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+        long remaining = lines;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n' && --remaining == 0) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static byte lastByte(FileChannel channel, long size) throws IOException {
+        var one = ByteBuffer.allocate(1);
+        channel.read(one, size - 1);
+        return one.get(0);
+    }
+}
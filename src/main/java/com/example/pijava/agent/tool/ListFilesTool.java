@@ -3,15 +3,49 @@ package com.example.pijava.agent.tool;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import java.io.IOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.util.stream.Collectors;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tool that lists files and directories at a given path.
+ *
+ * <p>With {@code max_depth} greater than one the listing is recursive:
+ * each subdirectory is read by its own fork/join task, entries are typed
+ * with a single attribute read each, {@code .git} and anything matched by
+ * {@code .gitignore} files, including those of the directories above the
+ * listed one, are skipped, and optional include/exclude globs narrow the
+ * result. The output is an indented tree (directories end in {@code /})
+ * capped at {@value #MAX_ENTRIES} entries, so a whole project can be
+ * surveyed in one tool call. Directories that were not read to the end
+ * because the cap was reached are followed by {@code ...}.</p>
  */
 public class ListFilesTool implements Tool {
 
+    private static final int MAX_ENTRIES = 500;
+    private static final int MAX_DEPTH = 20;
+    /** Stop reading directories once this many entries have been collected; later ones are cut off. */
+    private static final int COLLECT_LIMIT = MAX_ENTRIES * 4;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final String ARG_PATH = "path";
+    private static final String ARG_MAX_DEPTH = "max_depth";
+    private static final String ARG_INCLUDE = "include";
+    private static final String ARG_EXCLUDE = "exclude";
+    private static final String ARG_GITIGNORE = "respect_gitignore";
+
     @Override
     public String name() {
         return "list_files";
@@ -19,7 +53,9 @@ public class ListFilesTool implements Tool {
 
     @Override
     public String description() {
-        return "List files and directories at the given path.";
+        return "List files and directories at the given path. Set max_depth to list "
+                + "recursively as an indented tree (directories end in '/'); .git and "
+                + ".gitignored entries are skipped. At most " + MAX_ENTRIES + " entries are returned.";
     }
 
     @Override
@@ -28,11 +64,34 @@ public class ListFilesTool implements Tool {
         pathProp.addProperty("type", "string");
         pathProp.addProperty("description", "Directory path to list");
 
+        var depthProp = new JsonObject();
+        depthProp.addProperty("type", "integer");
+        depthProp.addProperty("description",
+                "How many directory levels to descend (default 1: direct children only)");
+
+        var includeProp = new JsonObject();
+        includeProp.addProperty("type", "string");
+        includeProp.addProperty("description",
+                "Only list files matching this glob, e.g. '*.java' or 'src/**/*.kt'");
+
+        var excludeProp = new JsonObject();
+        excludeProp.addProperty("type", "string");
+        excludeProp.addProperty("description",
+                "Skip files and directories matching this glob, e.g. 'build' or '**/*.min.js'");
+
+        var gitignoreProp = new JsonObject();
+        gitignoreProp.addProperty("type", "boolean");
+        gitignoreProp.addProperty("description", "Skip entries matched by .gitignore files (default true)");
+
         var properties = new JsonObject();
-        properties.add("path", pathProp);
+        properties.add(ARG_PATH, pathProp);
+        properties.add(ARG_MAX_DEPTH, depthProp);
+        properties.add(ARG_INCLUDE, includeProp);
+        properties.add(ARG_EXCLUDE, excludeProp);
+        properties.add(ARG_GITIGNORE, gitignoreProp);
 
         var required = new JsonArray();
-        required.add("path");
+        required.add(ARG_PATH);
 
         var schema = new JsonObject();
         schema.addProperty("type", "object");
@@ -41,17 +100,267 @@ public class ListFilesTool implements Tool {
         return schema;
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
+    @Override
+    public boolean idempotent() {
+        return true;
+    }
+
+    /**
+     * The directory's own state, which changes when an entry is added,
+     * removed or renamed, plus its {@code .gitignore} and those above it.
+     * Deeper listings would need every subdirectory checked, so they are
+     * not memoized.
+     */
+    @Override
+    public String stateFingerprint(JsonObject arguments) {
+        var path = arguments.get(ARG_PATH);
+        if (path == null || !path.isJsonPrimitive()) {
+            return null;
+        }
+        try {
+            if (arguments.has(ARG_MAX_DEPTH) && arguments.get(ARG_MAX_DEPTH).getAsInt() > 1) {
+                return null;
+            }
+            var directory = Path.of(path.getAsString());
+            var state = ToolResultMemo.fingerprint(directory);
+            if (state == null) {
+                return null;
+            }
+            var ignoreFiles = new ArrayList<>(GitIgnore.filesAbove(directory));
+            ignoreFiles.add(directory.resolve(".gitignore"));
+            var fingerprint = new StringBuilder(state);
+            for (var file : ignoreFiles) {
+                var ignore = ToolResultMemo.fingerprintIfExists(file);
+                if (ignore == null) {
+                    return null;
+                }
+                fingerprint.append('|').append(ignore);
+            }
+            return fingerprint.toString();
+        } catch (InvalidPathException | IllegalStateException | UnsupportedOperationException
+                 | NumberFormatException e) {
+            return null;
+        }
+    }
+
     @Override
     public String execute(JsonObject arguments) {
-        var dirPath = arguments.get("path").getAsString();
-        try (var entries = Files.list(Path.of(dirPath))) {
-            return entries
-                    .map(p -> (Files.isDirectory(p) ? "[DIR]  " : "[FILE] ")
-                            + p.getFileName())
-                    .sorted()
-                    .collect(Collectors.joining("\n"));
-        } catch (IOException e) {
+        var dirPath = arguments.get(ARG_PATH).getAsString();
+        Walk walk;
+        try {
+            int maxDepth = arguments.has(ARG_MAX_DEPTH)
+                    ? arguments.get(ARG_MAX_DEPTH).getAsInt() : 1;
+            boolean gitignore = !arguments.has(ARG_GITIGNORE)
+                    || arguments.get(ARG_GITIGNORE).getAsBoolean();
+            walk = new Walk(
+                    Math.clamp(maxDepth, 1, MAX_DEPTH),
+                    globArg(arguments, ARG_INCLUDE),
+                    globArg(arguments, ARG_EXCLUDE),
+                    gitignore);
+        } catch (IllegalArgumentException | UnsupportedOperationException | IllegalStateException e) {
+            return "Error: invalid arguments: " + e.getMessage();
+        }
+
+        var root = Path.of(dirPath);
+        if (!Files.isDirectory(root)) {
+            return "Error listing directory: " + dirPath + " is not a directory";
+        }
+        var rules = walk.gitignore ? GitIgnore.above(root).enter(root, "") : GitIgnore.NONE;
+        var task = new DirectoryTask(walk, root, "", 1, rules);
+        List<Node> children;
+        try {
+            children = POOL.invoke(task);
+        } catch (RuntimeException e) {
             return "Error listing directory: " + e.getMessage();
         }
+        if (task.failure != null) {
+            return "Error listing directory: " + task.failure.getMessage();
+        }
+
+        var out = new StringBuilder();
+        int written = render(children, 0, out, 0);
+        if (written == 0) {
+            return walk.include != null ? "(no matching files)" : "(empty directory)";
+        }
+        if (walk.collected.get() > MAX_ENTRIES) {
+            out.append("... (truncated at ").append(MAX_ENTRIES).append(" entries; ");
+            // Entry names cannot contain '/', so only a cut-off directory renders this
+            if (out.indexOf("/ ...\n") >= 0) {
+                out.append("directories followed by ... were not read completely; ");
+            }
+            out.append("narrow with max_depth, include or exclude)");
+        } else if (out.length() > 0) {
+            out.setLength(out.length() - 1);
+        }
+        return out.toString();
+    }
+
+    /** Append the tree depth-first; returns the number of entries written so far. */
+    private static int render(List<Node> nodes, int depth, StringBuilder out, int written) {
+        for (var node : nodes) {
+            if (written >= MAX_ENTRIES) {
+                return written;
+            }
+            out.append("  ".repeat(depth)).append(node.name);
+            if (node.directory) {
+                out.append(node.cutOff ? "/ ..." : "/");
+            } else if (node.symlink) {
+                out.append('@');
+            }
+            out.append('\n');
+            written++;
+            written = render(node.children, depth + 1, out, written);
+        }
+        return written;
+    }
+
+    private static PathMatcher globArg(JsonObject arguments, String name) {
+        if (!arguments.has(name) || arguments.get(name).isJsonNull()) {
+            return null;
+        }
+        return globMatcher(arguments.get(name).getAsString());
+    }
+
+    /**
+     * Matcher for a glob over {@code /}-separated relative paths; a glob
+     * without a separator matches the entry name at any depth.
+     *
+     * @return the matcher, or {@code null} for a blank glob
+     */
+    static PathMatcher globMatcher(String glob) {
+        if (glob.isBlank()) {
+            return null;
+        }
+        var matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        if (glob.contains("/")) {
+            return matcher;
+        }
+        return path -> matcher.matches(path.getFileName());
+    }
+
+    /** Settings and shared counters of one listing. */
+    private static final class Walk {
+        final int maxDepth;
+        final PathMatcher include;
+        final PathMatcher exclude;
+        final boolean gitignore;
+        final AtomicInteger collected = new AtomicInteger();
+
+        Walk(int maxDepth, PathMatcher include, PathMatcher exclude, boolean gitignore) {
+            this.maxDepth = maxDepth;
+            this.include = include;
+            this.exclude = exclude;
+            this.gitignore = gitignore;
+        }
+    }
+
+    /**
+     * A listed entry; directories carry their (already filtered) children,
+     * which are incomplete if the directory was cut off.
+     */
+    private record Node(String name, boolean directory, boolean symlink, List<Node> children, boolean cutOff) {
+
+        static final Comparator<Node> ORDER = Comparator
+                .comparing((Node n) -> !n.directory)
+                .thenComparing(Node::name);
+    }
+
+    /** Reads one directory and forks a task per subdirectory to descend into. */
+    private static final class DirectoryTask extends RecursiveTask<List<Node>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Walk walk;
+        private final transient Path directory;
+        private final String relativePath;
+        private final int depth;
+        private final transient GitIgnore rules;
+        private transient IOException failure;
+        /** Whether the collect limit stopped this directory before its last entry. */
+        private boolean cutOff;
+
+        DirectoryTask(Walk walk, Path directory, String relativePath, int depth, GitIgnore rules) {
+            this.walk = walk;
+            this.directory = directory;
+            this.relativePath = relativePath;
+            this.depth = depth;
+            this.rules = rules;
+        }
+
+        @Override
+        protected List<Node> compute() {
+            var files = new ArrayList<Node>();
+            var subdirectories = new ArrayList<String>();
+            var subtasks = new ArrayList<DirectoryTask>();
+            try (var entries = Files.newDirectoryStream(directory)) {
+                for (var entry : entries) {
+                    if (walk.collected.get() > COLLECT_LIMIT) {
+                        cutOff = true;
+                        break;
+                    }
+                    var name = entry.getFileName().toString();
+                    var relative = relativePath.isEmpty() ? name : relativePath + "/" + name;
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue; // vanished or unreadable entry
+                    }
+                    boolean isDirectory = attributes.isDirectory();
+                    if ((isDirectory && ".git".equals(name))
+                            || (walk.gitignore && rules.isIgnored(relative, isDirectory))
+                            || (walk.exclude != null && walk.exclude.matches(Path.of(relative)))) {
+                        continue;
+                    }
+                    if (isDirectory) {
+                        subdirectories.add(name);
+                        if (depth < walk.maxDepth) {
+                            var childRules = walk.gitignore ? rules.enter(entry, relative) : rules;
+                            subtasks.add(new DirectoryTask(walk, entry, relative, depth + 1, childRules));
+                        } else {
+                            subtasks.add(null);
+                        }
+                        if (walk.include == null) {
+                            walk.collected.incrementAndGet();
+                        }
+                    } else if (walk.include == null || walk.include.matches(Path.of(relative))) {
+                        files.add(new Node(name, false, attributes.isSymbolicLink(), List.of(), false));
+                        walk.collected.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                if (depth == 1) {
+                    failure = e;
+                }
+                return List.of();
+            }
+
+            for (var subtask : subtasks) {
+                if (subtask != null) {
+                    subtask.fork();
+                }
+            }
+            var nodes = new ArrayList<Node>(files);
+            for (int i = 0; i < subtasks.size(); i++) {
+                var subtask = subtasks.get(i);
+                List<Node> children = subtask != null ? subtask.join() : List.of();
+                boolean childCutOff = subtask != null && subtask.cutOff;
+                // With an include filter, only show directories that lead to a match or were cut off
+                if (walk.include == null || !children.isEmpty() || childCutOff) {
+                    if (walk.include != null) {
+                        walk.collected.incrementAndGet();
+                    }
+                    nodes.add(new Node(subdirectories.get(i), true, false, children, childCutOff));
+                }
+            }
+            nodes.sort(Node.ORDER);
+            return nodes;
+        }
     }
 }
@@ -2,17 +2,73 @@ package com.example.pijava.agent.tool;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Tool that reads the contents of a file and returns them as text.
+ *
+ * <p>Small files are read whole through a {@link FileContentCache}, so
+ * re-reading an unchanged file does not touch its contents again. Larger
+ * files, and any read that asks for a byte range ({@code offset} /
+ * {@code limit}) or a line range ({@code start_line} / {@code end_line}),
+ * are served by positional reads of at most {@value #MAX_CHARS} bytes, so
+ * memory use does not depend on the file size. Line ranges are located
+ * through a cached sparse {@link LineIndex}.</p>
  */
 public class ReadFileTool implements Tool {
 
     private static final int MAX_CHARS = 10_000;
 
+    /** Files up to this size are read whole (through the cache) when no range is given. */
+    private static final long WHOLE_FILE_BYTES = 256 * 1024;
+
+    private static final int MAX_INDEXED_FILES = 16;
+
+    private static final String ARG_PATH = "path";
+    private static final String ARG_OFFSET = "offset";
+    private static final String ARG_LIMIT = "limit";
+    private static final String ARG_START_LINE = "start_line";
+    private static final String ARG_END_LINE = "end_line";
+
+    private final FileContentCache cache;
+    private final Map<Path, LineIndex> lineIndexes =
+            new LinkedHashMap<>(MAX_INDEXED_FILES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, LineIndex> eldest) {
+                    return size() > MAX_INDEXED_FILES;
+                }
+            };
+
+    /** Create the tool with its own default-sized cache. */
+    public ReadFileTool() {
+        this(new FileContentCache());
+    }
+
+    /** Create the tool reading through the given cache. */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
+            justification = "The cache is meant to be shared between file tools")
+    public ReadFileTool(FileContentCache cache) {
+        this.cache = cache;
+    }
+
+    /** The cache this tool reads through, for its hit/miss counters. */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP",
+            justification = "The cache is meant to be shared between file tools")
+    public FileContentCache cache() {
+        return cache;
+    }
+
     @Override
     public String name() {
         return "read_file";
@@ -20,7 +76,10 @@ public class ReadFileTool implements Tool {
 
     @Override
     public String description() {
-        return "Read the contents of a file at the given path.";
+        return "Read the contents of a file at the given path. Large files are returned "
+                + "in windows of up to " + MAX_CHARS + " bytes; use start_line/end_line "
+                + "(negative values count from the end, e.g. start_line=-50 for the last "
+                + "50 lines) or offset/limit to read other parts.";
     }
 
     @Override
@@ -31,10 +90,18 @@ public class ReadFileTool implements Tool {
                 "Absolute or relative file path to read");
 
         var properties = new JsonObject();
-        properties.add("path", pathProp);
+        properties.add(ARG_PATH, pathProp);
+        properties.add(ARG_OFFSET, integerProperty(
+                "Byte offset to start reading at; negative counts from the end of the file"));
+        properties.add(ARG_LIMIT, integerProperty(
+                "Maximum number of bytes to return (at most " + MAX_CHARS + ")"));
+        properties.add(ARG_START_LINE, integerProperty(
+                "First line to return, 1-based; negative counts from the end (-1 is the last line)"));
+        properties.add(ARG_END_LINE, integerProperty(
+                "Last line to return, inclusive; negative counts from the end"));
 
         var required = new JsonArray();
-        required.add("path");
+        required.add(ARG_PATH);
 
         var schema = new JsonObject();
         schema.addProperty("type", "object");
@@ -43,19 +110,217 @@ public class ReadFileTool implements Tool {
         return schema;
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
+    @Override
+    public boolean idempotent() {
+        return true;
+    }
+
+    @Override
+    public String stateFingerprint(JsonObject arguments) {
+        var path = arguments.get(ARG_PATH);
+        if (path == null || !path.isJsonPrimitive()) {
+            return null;
+        }
+        try {
+            return ToolResultMemo.fingerprint(Path.of(path.getAsString()));
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
     @Override
     public String execute(JsonObject arguments) {
-        var filePath = arguments.get("path").getAsString();
+        var filePath = arguments.get(ARG_PATH).getAsString();
+        Long startLine;
+        Long endLine;
+        Long offset;
+        Long limit;
         try {
-            var content = Files.readString(Path.of(filePath));
+            startLine = longArg(arguments, ARG_START_LINE);
+            endLine = longArg(arguments, ARG_END_LINE);
+            offset = longArg(arguments, ARG_OFFSET);
+            limit = longArg(arguments, ARG_LIMIT);
+        } catch (NumberFormatException | UnsupportedOperationException | IllegalStateException e) {
+            return "Error: offset, limit, start_line and end_line must be integers";
+        }
+
+        try {
+            var path = Path.of(filePath);
+            if (startLine != null || endLine != null) {
+                return readLines(path, startLine, endLine);
+            }
+            if (offset != null || limit != null) {
+                return readBytes(path, offset != null ? offset : 0, limit != null ? limit : MAX_CHARS);
+            }
+            if (Files.size(path) > WHOLE_FILE_BYTES) {
+                // First window only: no need to index the whole file for it
+                return readBytes(path, 0, MAX_CHARS);
+            }
+
+            var content = cache.read(path);
             if (content.length() > MAX_CHARS) {
                 return content.substring(0, MAX_CHARS)
                         + "\n... (truncated, file has "
-                        + content.length() + " chars)";
+                        + content.length() + " chars; use start_line or offset to read more)";
             }
             return content;
         } catch (IOException e) {
             return "Error reading file: " + e.getMessage();
         }
     }
+
+    /** Read a byte window of the file. */
+    private static String readBytes(Path path, long offset, long limit) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long from = offset < 0 ? Math.max(0, size + offset) : offset;
+            if (from >= size && size > 0) {
+                return "(offset " + offset + " is past the end of the file, which has "
+                        + size + " bytes)";
+            }
+            int length = (int) Math.max(0, Math.min(Math.min(limit, MAX_CHARS), size - from));
+            var bytes = read(channel, from, length);
+            var text = decode(bytes, true);
+            // Resume after the last whole character that was returned
+            long to = from + bytes.limit();
+            if (from == 0 && to == size) {
+                return text;
+            }
+            return text + "\n... (bytes " + from + "-" + to + " of " + size
+                    + (to < size ? "; use offset=" + to + " to continue)" : ")");
+        }
+    }
+
+    /** Read a 1-based, inclusive line range of the file; negative lines count from the end. */
+    private String readLines(Path path, Long startLine, Long endLine) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var index = lineIndex(path, channel);
+            long total = index.lineCount();
+            if (total == 0) {
+                return "(empty file)";
+            }
+            long first = resolveLine(startLine, 1, total);
+            long last = Math.min(resolveLine(endLine, total, total), total);
+            if (first > total) {
+                return "(start_line " + startLine + " is past the end of the file, which has "
+                        + total + " lines)";
+            }
+            if (last < first) {
+                return "(no lines between start_line " + startLine + " and end_line " + endLine + ")";
+            }
+
+            long from = index.offsetOf(channel, first - 1);
+            long to = index.offsetOf(channel, last);
+            int length = (int) Math.min(to - from, MAX_CHARS);
+            var bytes = read(channel, from, length);
+            boolean truncated = from + length < to;
+
+            long shownLast = last;
+            if (truncated) {
+                int cut = lastNewline(bytes);
+                if (cut < 0) {
+                    // A single line longer than the window
+                    var text = decode(bytes, true);
+                    return text + "\n... (line " + first + " of " + total
+                            + " is longer than " + MAX_CHARS + " bytes; use offset="
+                            + (from + bytes.limit()) + " to continue)";
+                }
+                bytes.limit(cut + 1);
+                shownLast = first + countNewlines(bytes) - 1;
+            }
+
+            var text = decode(bytes, false);
+            if (first == 1 && shownLast == total) {
+                return text;
+            }
+            return text + (text.endsWith("\n") ? "" : "\n") + "... (lines " + first + "-" + shownLast + " of " + total
+                    + (shownLast < last ? "; use start_line=" + (shownLast + 1) + " to continue)" : ")");
+        }
+    }
+
+    /** Return the cached index of the file, rebuilding it if the file changed. */
+    private LineIndex lineIndex(Path path, FileChannel channel) throws IOException {
+        var realPath = path.toRealPath();
+        var attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        synchronized (lineIndexes) {
+            var index = lineIndexes.get(realPath);
+            if (index != null && index.matches(attributes)) {
+                return index;
+            }
+        }
+        var index = LineIndex.build(channel, attributes);
+        synchronized (lineIndexes) {
+            lineIndexes.put(realPath, index);
+        }
+        return index;
+    }
+
+    private static long resolveLine(Long line, long defaultLine, long total) {
+        if (line == null) {
+            return defaultLine;
+        }
+        return line < 0 ? Math.max(1, total + line + 1) : Math.max(1, line);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Decode UTF-8, optionally dropping a partial character at either end
+     * of a window that was cut at an arbitrary byte.
+     */
+    private static String decode(ByteBuffer bytes, boolean trimPartial) {
+        var array = bytes.array();
+        if (trimPartial) {
+            int start = Utf8.characterStart(array, bytes.position(), bytes.limit());
+            int end = Utf8.characterEnd(array, start, bytes.limit());
+            bytes.position(start).limit(end);
+        }
+        // Malformed input decodes to replacement characters
+        return new String(array, bytes.position(), bytes.remaining(), StandardCharsets.UTF_8);
+    }
+
+    private static int lastNewline(ByteBuffer bytes) {
+        for (int i = bytes.limit() - 1; i >= bytes.position(); i--) {
+            if (bytes.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long countNewlines(ByteBuffer bytes) {
+        long count = 0;
+        for (int i = bytes.position(); i < bytes.limit(); i++) {
+            if (bytes.get(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Long longArg(JsonObject arguments, String name) {
+        var value = arguments.get(name);
+        return value == null || value.isJsonNull() ? null : value.getAsLong();
+    }
+
+    private static JsonObject integerProperty(String description) {
+        var prop = new JsonObject();
+        prop.addProperty("type", "integer");
+        prop.addProperty("description", description);
+        return prop;
+    }
 }
@@ -2,21 +2,70 @@ package com.example.pijava.agent.tool;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Tool that runs a shell command and returns its combined stdout/stderr.
  *
+ * <p>Commands run inside long-lived shells from a {@link ShellSessionPool},
+ * so there is no process start per call and exported variables carry over
+ * from one command to the next. The working directory does not: every
+ * command starts in the workspace directory, which the file tools also
+ * resolve relative paths against, so a path means the same file to every
+ * tool.</p>
+ *
  * <p>A safety timeout prevents runaway processes from blocking the agent
- * indefinitely.</p>
+ * indefinitely. On timeout, or when the calling thread is interrupted (as
+ * happens when a turn is cancelled), the processes the command started are
+ * killed and the shell is kept; a shell that does not come back, or that
+ * the command made exit, is discarded and the result says its state was
+ * lost.</p>
+ *
+ * <p>Output is streamed into a {@link BoundedOutputCapture}, so a command
+ * that prints gigabytes uses a few kilobytes of memory: the result keeps the
+ * first and last part of the output and says how much was left out. While
+ * the command runs, the most recent output is reported as progress.</p>
  */
 public class RunCommandTool implements Tool {
 
     private static final int TIMEOUT_SECONDS = 30;
-    private static final int MAX_OUTPUT_CHARS = 10_000;
+    /** How long a killed command gets to return control to its shell. */
+    private static final int STOP_GRACE_SECONDS = 2;
+    /** Output kept from the start of the stream. */
+    private static final int HEAD_BYTES = 4_000;
+    /** Output kept from the end of the stream. */
+    private static final int TAIL_BYTES = 6_000;
+    private static final String SHELL_RESET_NOTE =
+            "\n(the shell was restarted: exported variables are back to their defaults)";
+
+    private static final String NEW_SHELL_NOTE =
+            "\n(ran in a new shell: variables exported by earlier commands are not set)";
+
+    private final ShellSessionPool shells;
+
+    /** Create the tool with a pool of its own, started in the current directory. */
+    public RunCommandTool() {
+        this(new ShellSessionPool());
+    }
+
+    /**
+     * Create the tool over a shared shell pool.
+     *
+     * @param shells the pool; it stays owned by the caller, which closes it
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
+            justification = "The pool is shared and owned by the application")
+    public RunCommandTool(ShellSessionPool shells) {
+        this.shells = shells;
+    }
 
     @Override
     public String name() {
@@ -26,7 +75,11 @@ public class RunCommandTool implements Tool {
     @Override
     public String description() {
         return "Run a shell command and return its output. "
-                + "Use for compilation, testing, or inspecting the system.";
+                + "Use for compilation, testing, or inspecting the system. "
+                + "Every command starts in the workspace directory, so cd only lasts for the "
+                + "command it is in (use 'cd dir && ...'). Exported variables usually carry "
+                + "over to later commands, but are lost when the shell is restarted, which "
+                + "the result reports.";
     }
 
     @Override
@@ -49,66 +102,88 @@ public class RunCommandTool implements Tool {
         return schema;
     }
 
+    /** Leaves room for the command's own timeout and the time to stop it. */
+    @Override
+    public ToolPolicy policy() {
+        return new ToolPolicy(Duration.ofSeconds(TIMEOUT_SECONDS + STOP_GRACE_SECONDS + 10), 4);
+    }
+
     @Override
     public String execute(JsonObject arguments) {
+        return execute(arguments, progress -> { });
+    }
+
+    @Override
+    public String execute(JsonObject arguments, Consumer<String> onProgress) {
         var command = arguments.get("command").getAsString();
-        Process process;
+        var capture = new BoundedOutputCapture(HEAD_BYTES, TAIL_BYTES);
+        var running = new AtomicBoolean(true);
+        Consumer<String> progress = text -> {
+            if (running.get()) {
+                onProgress.accept(text);
+            }
+        };
+
+        ShellSession shell;
         try {
-            process = new ProcessBuilder("sh", "-c", command)
-                    .redirectErrorStream(true)
-                    .start();
+            shell = shells.acquire();
         } catch (IOException e) {
             return "Error running command: " + e.getMessage();
         }
-
-        // Read output on a virtual thread to prevent buffer deadlocks
-        var input = process.getInputStream();
-        var outputFuture = new CompletableFuture<String>();
-        Thread.startVirtualThread(() -> {
+        boolean reusable = false;
+        var note = shell.lacksEarlierState() ? NEW_SHELL_NOTE : "";
+        try {
+            var exit = shell.run(command, capture, progress);
             try {
-                outputFuture.complete(
-                        new String(input.readAllBytes(), StandardCharsets.UTF_8));
-            } catch (IOException e) {
-                outputFuture.complete("(error reading output)");
-            } finally {
-                try {
-                    input.close();
-                } catch (IOException e) {
-                    // Log but ignore close errors - we're in a finally anyway
-                    System.err.println("Warning: error closing process input: " + e.getMessage());
-                }
+                int exitCode = exit.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                reusable = true;
+                return formatOutput(capture.text(), exitCode) + note;
+            } catch (TimeoutException e) {
+                reusable = stop(shell, exit);
+                return capture.text() + "\n(timed out after " + TIMEOUT_SECONDS + "s)"
+                        + (reusable ? "" : SHELL_RESET_NOTE);
+            } catch (InterruptedException e) {
+                reusable = stop(shell, exit);
+                Thread.currentThread().interrupt();
+                return capture.text() + "\n(cancelled)" + (reusable ? "" : SHELL_RESET_NOTE);
+            } catch (ExecutionException e) {
+                // The command ended the shell itself, e.g. with exit or exec
+                return formatOutput(capture.text(), shell.shellExitCode()) + SHELL_RESET_NOTE;
             }
-        });
-
-        try {
-            var completed = process.waitFor(
-                    TIMEOUT_SECONDS, TimeUnit.SECONDS);
-
-            if (!completed) {
-                process.destroyForcibly();
-                var partial = outputFuture.getNow("");
-                return partial + "\n(timed out after "
-                        + TIMEOUT_SECONDS + "s)";
+        } catch (IOException e) {
+            return "Error running command: " + e.getMessage() + SHELL_RESET_NOTE;
+        } finally {
+            running.set(false);
+            if (reusable) {
+                shells.release(shell);
+            } else {
+                shell.close();
             }
+        }
+    }
 
-            var output = outputFuture.get(5, TimeUnit.SECONDS);
-            return formatOutput(output, process.exitValue());
-
-        } catch (Exception e) {
-            return "Error running command: " + e.getMessage();
-        } finally {
-            process.destroyForcibly();
+    /**
+     * Kill what the command started and wait briefly for the shell to
+     * report it finished.
+     *
+     * @return whether the shell is idle again and can be reused
+     */
+    private static boolean stop(ShellSession shell, CompletableFuture<Integer> exit) {
+        shell.killCommand();
+        try {
+            exit.get(STOP_GRACE_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
         }
     }
 
     private static String formatOutput(String output, int exitCode) {
-        var result = output;
-        if (result.length() > MAX_OUTPUT_CHARS) {
-            result = result.substring(0, MAX_OUTPUT_CHARS)
-                    + "\n... (truncated)";
-        }
-        return result.isEmpty()
+        return output.isEmpty()
                 ? "(no output, exit code " + exitCode + ")"
-                : result + "\n(exit code " + exitCode + ")";
+                : output + "\n(exit code " + exitCode + ")";
     }
 }
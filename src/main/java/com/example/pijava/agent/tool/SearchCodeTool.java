@@ -0,0 +1,253 @@
+package com.example.pijava.agent.tool;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Tool that searches the workspace for a literal string or regular
+ * expression and returns {@code file:line} matches with context.
+ *
+ * <p>Backed by a {@link TrigramIndex}: only files containing every
+ * trigram the pattern requires are opened, and those are scanned in
+ * parallel. Output uses grep's conventions ({@code path:line:} for
+ * matches, {@code path-line-} for context, {@code --} between hunks).</p>
+ *
+ * <p>Files too large to index are scanned on every search, up to
+ * {@value #MAX_SCAN_BYTES} bytes; larger ones are skipped and counted in the
+ * output, as is a workspace too large to index at all.</p>
+ */
+public class SearchCodeTool implements Tool {
+
+    private static final int MAX_CHARS = 10_000;
+    private static final int MAX_LINE_CHARS = 300;
+    private static final int DEFAULT_CONTEXT = 2;
+    private static final int MAX_CONTEXT = 10;
+    private static final int DEFAULT_MAX_RESULTS = 50;
+    private static final int MAX_RESULTS = 200;
+    private static final long MAX_SCAN_BYTES = 64L * 1024 * 1024;
+
+    private static final String ARG_PATTERN = "pattern";
+    private static final String ARG_REGEX = "regex";
+    private static final String ARG_IGNORE_CASE = "ignore_case";
+    private static final String ARG_INCLUDE = "include";
+    private static final String ARG_CONTEXT = "context";
+    private static final String ARG_MAX_RESULTS = "max_results";
+
+    private final TrigramIndex index;
+
+    /**
+     * Create the tool over a workspace index.
+     *
+     * @param index the index; it stays owned by the caller, which closes it
+     */
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
+            justification = "The index is shared and owned by the application")
+    public SearchCodeTool(TrigramIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public String name() {
+        return "search_code";
+    }
+
+    @Override
+    public String description() {
+        return "Search the files of the workspace for a string or regular expression "
+                + "(faster than grep; .gitignored and binary files and files over "
+                + MAX_SCAN_BYTES / (1024 * 1024) + " MB are skipped). Returns "
+                + "path:line: matches with surrounding context lines.";
+    }
+
+    @Override
+    public JsonObject parametersSchema() {
+        var properties = new JsonObject();
+        properties.add(ARG_PATTERN, property("string", "Text or regular expression to search for"));
+        properties.add(ARG_REGEX, property("boolean",
+                "Treat pattern as a Java regular expression (default false: literal text)"));
+        properties.add(ARG_IGNORE_CASE, property("boolean", "Match case-insensitively (default false)"));
+        properties.add(ARG_INCLUDE, property("string",
+                "Only search files matching this glob, e.g. '*.java' or 'src/**/*.ts'"));
+        properties.add(ARG_CONTEXT, property("integer",
+                "Lines of context around each match (default " + DEFAULT_CONTEXT + ")"));
+        properties.add(ARG_MAX_RESULTS, property("integer",
+                "Maximum number of matching lines (default " + DEFAULT_MAX_RESULTS
+                        + ", at most " + MAX_RESULTS + ")"));
+
+        var required = new JsonArray();
+        required.add(ARG_PATTERN);
+
+        var schema = new JsonObject();
+        schema.addProperty("type", "object");
+        schema.add("properties", properties);
+        schema.add("required", required);
+        return schema;
+    }
+
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
+    @Override
+    public String execute(JsonObject arguments) {
+        var text = arguments.get(ARG_PATTERN).getAsString();
+        if (text.isEmpty()) {
+            return "Error: pattern must not be empty";
+        }
+        boolean regex = booleanArg(arguments, ARG_REGEX);
+        boolean ignoreCase = booleanArg(arguments, ARG_IGNORE_CASE);
+        int context = Math.clamp(intArg(arguments, ARG_CONTEXT, DEFAULT_CONTEXT), 0, MAX_CONTEXT);
+        int maxResults = Math.clamp(intArg(arguments, ARG_MAX_RESULTS, DEFAULT_MAX_RESULTS), 1, MAX_RESULTS);
+        var include = arguments.has(ARG_INCLUDE) && !arguments.get(ARG_INCLUDE).isJsonNull()
+                ? ListFilesTool.globMatcher(arguments.get(ARG_INCLUDE).getAsString())
+                : null;
+
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex ? text : Pattern.quote(text),
+                    TrigramQuery.patternFlags(text, ignoreCase));
+        } catch (PatternSyntaxException e) {
+            return "Error: invalid regular expression: " + e.getDescription();
+        }
+
+        var required = regex
+                ? TrigramQuery.forRegex(text, ignoreCase)
+                : TrigramQuery.forLiteral(text, ignoreCase);
+        var candidates = index.candidates(required, include);
+        var results = candidates.parallelStream()
+                .map(path -> searchFile(path, pattern, context, maxResults))
+                .toList();
+        var hits = results.stream()
+                .filter(blocks -> blocks != null && !blocks.isEmpty())
+                .toList();
+        long skipped = results.stream().filter(blocks -> blocks == null).count();
+        var notes = new StringBuilder();
+        if (skipped > 0) {
+            notes.append("; ").append(skipped).append(" files over ")
+                    .append(MAX_SCAN_BYTES / (1024 * 1024)).append(" MB not searched");
+        }
+        if (!index.isIndexed()) {
+            notes.append("; workspace has over ").append(TrigramIndex.MAX_FILES).append(" files or ")
+                    .append(TrigramIndex.MAX_DIRECTORIES).append(" directories, searched without the index");
+        }
+
+        var out = new StringBuilder();
+        int shown = 0;
+        int files = 0;
+        boolean truncated = false;
+        for (var blocks : hits) {
+            if (shown >= maxResults || out.length() >= MAX_CHARS) {
+                truncated = true;
+                break;
+            }
+            files++;
+            for (var block : blocks) {
+                if (shown >= maxResults) {
+                    truncated = true;
+                    break;
+                }
+                out.append(block);
+                shown++;
+            }
+        }
+        if (shown == 0) {
+            return "No matches (" + (candidates.size() - skipped) + " candidate files searched" + notes + ")";
+        }
+        if (out.length() > MAX_CHARS) {
+            out.setLength(MAX_CHARS);
+            out.append('\n');
+            truncated = true;
+        }
+        out.append(truncated
+                ? "... (stopped after " + shown + " matches in " + files
+                        + " files; narrow the pattern or use include" + notes + ")"
+                : "(" + shown + " matches in " + files + " files" + notes + ")");
+        return out.toString();
+    }
+
+    /**
+     * Search one file.
+     *
+     * @return one rendered block per matching line (at most {@code limit}),
+     *         each holding the match and the context not already printed,
+     *         or {@code null} if the file is over {@link #MAX_SCAN_BYTES}
+     */
+    private List<String> searchFile(String path, Pattern pattern, int context, int limit) {
+        String content;
+        try {
+            var file = index.root().resolve(path);
+            if (Files.size(file) > MAX_SCAN_BYTES) {
+                return null;
+            }
+            var bytes = Files.readAllBytes(file);
+            if (TrigramIndex.isBinary(bytes, bytes.length)) {
+                return List.of();
+            }
+            // Decode leniently: a stray invalid byte should not hide the rest of the file
+            content = new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return List.of();
+        }
+        var lines = content.split("\n", -1);
+        // A trailing newline ends the last line rather than starting another
+        int lineCount = content.endsWith("\n") ? lines.length - 1 : lines.length;
+        var matched = new BitSet(lineCount);
+        var matcher = pattern.matcher("");
+        for (int i = 0; i < lineCount; i++) {
+            if (matcher.reset(lines[i]).find()) {
+                matched.set(i);
+            }
+        }
+
+        var blocks = new ArrayList<String>();
+        int printedUpTo = -1;
+        for (int match = matched.nextSetBit(0); match >= 0 && blocks.size() < limit;
+                match = matched.nextSetBit(match + 1)) {
+            int from = Math.max(match - context, printedUpTo + 1);
+            int to = Math.min(match + context, lineCount - 1);
+            var block = new StringBuilder();
+            if (printedUpTo >= 0 && from > printedUpTo + 1) {
+                block.append("--\n");
+            }
+            for (int i = from; i <= to; i++) {
+                char separator = matched.get(i) ? ':' : '-';
+                var line = lines[i];
+                if (line.length() > MAX_LINE_CHARS) {
+                    line = line.substring(0, MAX_LINE_CHARS) + "...";
+                }
+                block.append(path).append(separator).append(i + 1).append(separator)
+                        .append(line.stripTrailing()).append('\n');
+            }
+            printedUpTo = Math.max(printedUpTo, to);
+            blocks.add(block.toString());
+        }
+        return blocks;
+    }
+
+    private static boolean booleanArg(JsonObject arguments, String name) {
+        var value = arguments.get(name);
+        return value != null && !value.isJsonNull() && value.getAsBoolean();
+    }
+
+    private static int intArg(JsonObject arguments, String name, int defaultValue) {
+        var value = arguments.get(name);
+        return value == null || value.isJsonNull() ? defaultValue : value.getAsInt();
+    }
+
+    private static JsonObject property(String type, String description) {
+        var prop = new JsonObject();
+        prop.addProperty("type", type);
+        prop.addProperty("description", description);
+        return prop;
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.pijava.agent.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long-lived {@code sh} process that runs commands one at a time.
+ *
+ * <p>Each command is sent on the shell's stdin as
+ * {@code cd -- '<dir>' && command eval '<command>' </dev/null 2>&1; printf '<sentinel>%d\n' "$?"}.
+ * Running it in the shell itself keeps variables and functions between
+ * commands, while every command starts in the session's directory, the
+ * one the file tools resolve relative paths against; {@code command eval}
+ * turns a syntax error into a failed command instead of ending the shell,
+ * and stdin is redirected so a command cannot swallow the ones that
+ * follow. A reader thread copies output into the running command's
+ * capture until it sees the sentinel, whose random token cannot plausibly
+ * occur in real output, and then completes the command with the exit code
+ * that follows it.</p>
+ */
+final class ShellSession implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShellSession.class);
+
+    /** ASCII record separator; starts the sentinel and occurs nowhere else in it. */
+    private static final byte MARK = 0x1E;
+    private static final int READ_BUFFER_BYTES = 8_192;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    /** Recent output shown with each progress report. */
+    private static final int PROGRESS_BYTES = 2_000;
+    /** How long to let the reader drain output after the shell exits. */
+    private static final long EXIT_DRAIN_MILLIS = 200;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Process process;
+    private final String cdPrefix;
+    private final OutputStream stdin;
+    private final byte[] sentinel;
+    private final String sentinelFormat;
+
+    /** Whether other shells of the pool ran commands before this one started. */
+    private boolean startedAfterOthers;
+    private boolean ranCommand;
+
+    /** The command whose output is being read, or {@code null} between commands. */
+    private volatile Command current;
+
+    // Scanner state, only touched by the reader thread
+    private final byte[] staged = new byte[READ_BUFFER_BYTES * 2];
+    private int stagedLength;
+    private int matched;
+    private StringBuilder exitCode;
+
+    private ShellSession(Process process, Path directory) {
+        this.process = process;
+        this.cdPrefix = "cd -- " + quote(directory.toString()) + " && ";
+        this.stdin = process.getOutputStream();
+        var token = new byte[8];
+        RANDOM.nextBytes(token);
+        var text = "PIJAVA-" + HexFormat.of().formatHex(token) + ":";
+        var bytes = new byte[text.length() + 1];
+        bytes[0] = MARK;
+        System.arraycopy(text.getBytes(StandardCharsets.US_ASCII), 0, bytes, 1, text.length());
+        this.sentinel = bytes;
+        this.sentinelFormat = "\\036" + text + "%d\\n";
+    }
+
+    /**
+     * Start a shell.
+     *
+     * @param directory the working directory every command starts in
+     * @return the running session
+     * @throws IOException if the shell cannot be started
+     */
+    static ShellSession start(Path directory) throws IOException {
+        var process = new ProcessBuilder("sh")
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .start();
+        var session = new ShellSession(process, directory);
+        var reader = Thread.ofVirtual().name("shell-reader-" + process.pid())
+                .start(() -> session.readLoop(process.getInputStream()));
+        // Background jobs can hold the output open after the shell is gone,
+        // so end of stream alone does not reveal that the shell exited
+        process.onExit().thenRunAsync(() -> session.exited(reader),
+                task -> Thread.ofVirtual().name("shell-exit-" + process.pid()).start(task));
+        return session;
+    }
+
+    /** Record that this shell replaces or joins shells that ran earlier commands. */
+    void markStartedAfterOthers() {
+        startedAfterOthers = true;
+    }
+
+    /**
+     * Whether the next command is this shell's first although earlier
+     * commands ran in other shells, so their exported variables are not set.
+     */
+    boolean lacksEarlierState() {
+        return startedAfterOthers && !ranCommand;
+    }
+
+    /** Whether the shell can still run commands. */
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Run a command. Only one command may run at a time.
+     *
+     * @param command    the shell command
+     * @param capture    receives the command's output
+     * @param onProgress receives snapshots of recent output while it runs
+     * @return completes with the exit code, or exceptionally if the shell exits first
+     * @throws IOException if the command cannot be sent to the shell
+     */
+    CompletableFuture<Integer> run(String command, BoundedOutputCapture capture,
+                                   Consumer<String> onProgress) throws IOException {
+        var pids = process.descendants().map(ProcessHandle::pid).collect(Collectors.toSet());
+        var run = new Command(capture, onProgress, pids);
+        current = run;
+        ranCommand = true;
+        var line = cdPrefix + "command eval " + quote(command) + " </dev/null 2>&1; printf '"
+                + sentinelFormat + "' \"$?\"\n";
+        try {
+            stdin.write(line.getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+        } catch (IOException e) {
+            current = null;
+            throw e;
+        }
+        if (!process.isAlive()) {
+            // The reader may have seen end of stream before this command was registered
+            run.exit.completeExceptionally(new IOException("shell exited"));
+        }
+        return run.exit;
+    }
+
+    /**
+     * Kill the processes started by the running command, leaving the shell
+     * and anything earlier commands put in the background alive. A command
+     * that is a loop of shell builtins has no processes to kill; callers
+     * detect that by the command not completing and close the session.
+     */
+    void killCommand() {
+        var run = current;
+        if (run == null) {
+            return;
+        }
+        var started = process.descendants()
+                .filter(handle -> !run.earlierPids.contains(handle.pid()))
+                .toList();
+        started.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    /** Exit code of the shell itself, once it has exited. */
+    int shellExitCode() {
+        return process.isAlive() ? -1 : process.exitValue();
+    }
+
+    @Override
+    public void close() {
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing shell input: {}", e.getMessage());
+        }
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /** Quote a string as one shell word. */
+    private static String quote(String text) {
+        return "'" + text.replace("'", "'\\''") + "'";
+    }
+
+    private void readLoop(InputStream input) {
+        var buffer = new byte[READ_BUFFER_BYTES];
+        try (input) {
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                scan(buffer, read);
+            }
+        } catch (IOException e) {
+            LOG.debug("Shell output closed: {}", e.getMessage());
+        }
+        var run = current;
+        if (run != null) {
+            stage(sentinel, 0, matched);
+            flush(run);
+        }
+        failCurrent();
+    }
+
+    /** Fail the running command once the shell has exited and its last output was read. */
+    private void exited(Thread reader) {
+        try {
+            reader.join(EXIT_DRAIN_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failCurrent();
+    }
+
+    private void failCurrent() {
+        var run = current;
+        current = null;
+        if (run != null) {
+            run.exit.completeExceptionally(new IOException("shell exited"));
+        }
+    }
+
+    /** Split a chunk of shell output into command output, sentinel and exit code. */
+    private void scan(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (exitCode != null) {
+                if (b == '\n') {
+                    finish(exitCode.toString());
+                    exitCode = null;
+                } else {
+                    exitCode.append((char) b);
+                }
+                continue;
+            }
+            if (b == sentinel[matched]) {
+                if (++matched == sentinel.length) {
+                    matched = 0;
+                    flush(current);
+                    exitCode = new StringBuilder();
+                }
+                continue;
+            }
+            if (matched > 0) {
+                // A false start: the held-back bytes were ordinary output
+                stage(sentinel, 0, matched);
+                matched = 0;
+                if (b == MARK) {
+                    matched = 1;
+                    continue;
+                }
+            }
+            staged[stagedLength++] = b;
+            if (stagedLength == staged.length) {
+                flush(current);
+            }
+        }
+        flush(current);
+    }
+
+    private void stage(byte[] bytes, int offset, int length) {
+        if (stagedLength + length > staged.length) {
+            flush(current);
+        }
+        System.arraycopy(bytes, offset, staged, stagedLength, length);
+        stagedLength += length;
+    }
+
+    /** Hand staged output to the running command; output between commands is dropped. */
+    private void flush(Command run) {
+        if (stagedLength == 0) {
+            return;
+        }
+        if (run != null) {
+            run.capture.write(staged, 0, stagedLength);
+            long now = System.nanoTime();
+            if (now - run.lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                run.lastProgress = now;
+                run.onProgress.accept(run.capture.recent(PROGRESS_BYTES));
+            }
+        }
+        stagedLength = 0;
+    }
+
+    private void finish(String code) {
+        var run = current;
+        current = null;
+        if (run == null) {
+            return;
+        }
+        int exit;
+        try {
+            exit = Integer.parseInt(code.trim());
+        } catch (NumberFormatException e) {
+            exit = -1;
+        }
+        run.exit.complete(exit);
+    }
+
+    /** A command in flight. */
+    private static final class Command {
+        final BoundedOutputCapture capture;
+        final Consumer<String> onProgress;
+        /** Processes that already existed when the command started. */
+        final Set<Long> earlierPids;
+        final CompletableFuture<Integer> exit = new CompletableFuture<>();
+        long lastProgress = System.nanoTime();
+
+        Command(BoundedOutputCapture capture, Consumer<String> onProgress, Set<Long> earlierPids) {
+            this.capture = capture;
+            this.onProgress = onProgress;
+            this.earlierPids = earlierPids;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.pijava.agent.tool;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of long-lived shells that {@link RunCommandTool} runs commands in.
+ *
+ * <p>Starting a process per command costs more than most of the commands
+ * an agent runs, and loses {@code export}s and functions between them.
+ * Every command still starts in the pool's directory.
+ * Shells are handed out most recently used first, so calls that follow
+ * each other (side-effecting tools always do) keep landing in the same
+ * shell and see its state; extra shells are only started for commands
+ * that overlap. Shells that died are dropped and replaced on the next
+ * {@link #acquire()}.</p>
+ */
+public final class ShellSessionPool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShellSessionPool.class);
+
+    /** Idle shells kept beyond this are closed. */
+    private static final int MAX_IDLE = 4;
+
+    private final Path directory;
+    private final Deque<ShellSession> idle = new ArrayDeque<>();
+    private boolean closed;
+    private boolean started;
+
+    /** Create a pool whose shells start in the current working directory. */
+    public ShellSessionPool() {
+        this(Path.of("").toAbsolutePath());
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param directory the working directory every command starts in
+     */
+    public ShellSessionPool(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Take an idle shell, or start one.
+     *
+     * @return a shell running no command
+     * @throws IOException if a new shell cannot be started
+     */
+    ShellSession acquire() throws IOException {
+        boolean others;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("shell pool is closed");
+            }
+            ShellSession session;
+            while ((session = idle.pollFirst()) != null) {
+                if (session.isAlive()) {
+                    return session;
+                }
+                LOG.debug("Dropping idle shell that exited with code {}", session.shellExitCode());
+                session.close();
+            }
+            others = started;
+            started = true;
+        }
+        var session = ShellSession.start(directory);
+        if (others) {
+            session.markStartedAfterOthers();
+        }
+        return session;
+    }
+
+    /**
+     * Return a shell that finished its command cleanly.
+     *
+     * @param session the shell taken with {@link #acquire()}
+     */
+    void release(ShellSession session) {
+        synchronized (this) {
+            if (!closed && session.isAlive() && idle.size() < MAX_IDLE) {
+                idle.addFirst(session);
+                return;
+            }
+        }
+        session.close();
+    }
+
+    /** Close every idle shell; shells in use are closed when released. */
+    @Override
+    public void close() {
+        List<ShellSession> sessions;
+        synchronized (this) {
+            closed = true;
+            sessions = new ArrayList<>(idle);
+            idle.clear();
+        }
+        sessions.forEach(ShellSession::close);
+    }
+}
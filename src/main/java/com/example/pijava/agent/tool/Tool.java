@@ -1,6 +1,7 @@
 package com.example.pijava.agent.tool;
 
 import com.google.gson.JsonObject;
+import java.util.function.Consumer;
 
 /**
  * A tool that the LLM agent can invoke during the conversation.
@@ -20,6 +21,52 @@ public interface Tool {
     /** JSON Schema object describing the parameters this tool accepts. */
     JsonObject parametersSchema();
 
+    /**
+     * Whether this tool only observes the workspace. Read-only calls may run
+     * in parallel with each other; side-effecting calls are executed one at
+     * a time in the order the LLM requested them.
+     *
+     * @return {@code true} if the tool has no side effects (default {@code false})
+     */
+    default boolean readOnly() {
+        return false;
+    }
+
+    /**
+     * Whether calls with equal arguments return equal results as long as
+     * {@link #stateFingerprint} is unchanged. The registry then answers a
+     * repeated call with a reference to the earlier result instead of
+     * running the tool again.
+     *
+     * @return {@code true} if results may be memoized (default {@code false})
+     */
+    default boolean idempotent() {
+        return false;
+    }
+
+    /**
+     * A cheap summary of the state a call would read, such as the size and
+     * modification time of a file, used to tell whether a memoized result
+     * still holds. Only consulted for {@link #idempotent()} tools.
+     *
+     * @param arguments the call's arguments
+     * @return the fingerprint, or {@code null} if it cannot be determined,
+     *         in which case the call is not memoized
+     */
+    default String stateFingerprint(JsonObject arguments) {
+        return null;
+    }
+
+    /**
+     * Execution limits the {@link ToolRegistry} applies to this tool's
+     * calls unless it was registered with explicit ones.
+     *
+     * @return the tool's limits (default {@link ToolPolicy#DEFAULT})
+     */
+    default ToolPolicy policy() {
+        return ToolPolicy.DEFAULT;
+    }
+
     /**
      * Execute the tool with the given arguments.
      *
@@ -27,4 +74,18 @@ public interface Tool {
      * @return a plain-text result that will be sent back to the LLM
      */
     String execute(JsonObject arguments);
+
+    /**
+     * Execute the tool, reporting partial output while it runs. Long-running
+     * tools override this to show live progress; the default ignores
+     * {@code onProgress} and delegates to {@link #execute(JsonObject)}.
+     *
+     * @param arguments  parsed JSON arguments matching {@link #parametersSchema()}
+     * @param onProgress receives snapshots of recent output; may be called
+     *                   from any thread, and only until this method returns
+     * @return a plain-text result that will be sent back to the LLM
+     */
+    default String execute(JsonObject arguments, Consumer<String> onProgress) {
+        return execute(arguments);
+    }
 }
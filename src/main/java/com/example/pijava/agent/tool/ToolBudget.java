@@ -0,0 +1,57 @@
+package com.example.pijava.agent.tool;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Total tool execution time allowed for one agent turn.
+ *
+ * <p>Every call is charged the time it ran, so calls running in parallel
+ * each count in full. A call never gets a deadline beyond what is left,
+ * and once the budget is spent further calls fail immediately, which
+ * keeps a turn full of slow tool calls from running for ever.</p>
+ */
+public final class ToolBudget {
+
+    private static final ToolBudget UNLIMITED = new ToolBudget(Duration.ofNanos(Long.MAX_VALUE));
+
+    private final Duration total;
+    private final AtomicLong remainingNanos;
+
+    /**
+     * Create a budget.
+     *
+     * @param total the execution time the turn's tool calls may use together
+     */
+    public ToolBudget(Duration total) {
+        this.total = total;
+        this.remainingNanos = new AtomicLong(total.toNanos());
+    }
+
+    /** A budget that never runs out. */
+    public static ToolBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    /** The budget this turn started with. */
+    public Duration total() {
+        return total;
+    }
+
+    /** Execution time still available; zero once spent. */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, remainingNanos.get()));
+    }
+
+    /** Whether no execution time is left. */
+    public boolean exhausted() {
+        return remainingNanos.get() <= 0;
+    }
+
+    /** Deduct the time a call ran. */
+    void charge(long nanos) {
+        if (this != UNLIMITED) {
+            remainingNanos.addAndGet(-nanos);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.pijava.agent.tool;
+
+import java.time.Duration;
+
+/**
+ * Execution limits the {@link ToolRegistry} enforces for one tool.
+ *
+ * @param timeout        how long a call may run before it is abandoned and
+ *                       reported to the model as a timeout
+ * @param maxConcurrency how many calls of the tool may run at once; further
+ *                       calls wait for a permit until their deadline
+ */
+public record ToolPolicy(Duration timeout, int maxConcurrency) {
+
+    /** Limits for tools that do not declare their own. */
+    public static final ToolPolicy DEFAULT = new ToolPolicy(Duration.ofSeconds(30), 8);
+
+    /** Validates the limits. */
+    public ToolPolicy {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive: " + timeout);
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1: " + maxConcurrency);
+        }
+    }
+
+    /** A copy with a different timeout. */
+    public ToolPolicy withTimeout(Duration newTimeout) {
+        return new ToolPolicy(newTimeout, maxConcurrency);
+    }
+
+    /** A copy with a different concurrency limit. */
+    public ToolPolicy withMaxConcurrency(int newMaxConcurrency) {
+        return new ToolPolicy(timeout, newMaxConcurrency);
+    }
+}
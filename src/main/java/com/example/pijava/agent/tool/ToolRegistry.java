@@ -7,31 +7,134 @@ import com.openai.core.JsonValue;
 import com.openai.models.FunctionDefinition;
 import com.openai.models.FunctionParameters;
 import com.openai.models.chat.completions.ChatCompletionFunctionTool;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Registry of {@link Tool}s available to the agent.
  *
  * <p>Handles tool registration, JSON-schema generation for the LLM API,
  * and dispatching execution by tool name.</p>
+ *
+ * <p>Every call runs on its own virtual thread under the tool's
+ * {@link ToolPolicy}: it gets a deadline, and a semaphore per tool bounds
+ * how many calls of that tool run at once. A call that times out is
+ * interrupted and abandoned; it keeps its permit until it really ends, so
+ * a tool that hangs can only exhaust its own permits, never stall other
+ * tools. Calls may also draw on a per-turn {@link ToolBudget}. Timeouts,
+ * saturation and an exhausted budget are reported to the model as JSON
+ * error objects it can act on.</p>
+ *
+ * <p>Repeated calls of idempotent tools are answered with a reference to
+ * the earlier, still visible result when nothing they read has changed,
+ * which saves both the work and another copy of the output in the
+ * context.</p>
+ *
+ * <p>The provider-specific tool catalogues are built once, on first use,
+ * and reused by every request until {@link #register(Tool)} changes the
+ * tool set. The tool map is copy-on-write so lookups from concurrently
+ * running tool calls never see a half-updated registry.</p>
  */
 public class ToolRegistry {
 
+    private static final String REFERENCE_PREFIX = "(unchanged since tool call ";
+    private static final String REFERENCE_SEPARATOR = ": ";
+
     private static final String SCHEMA_KEY_PROPERTIES = "properties";
     private static final String SCHEMA_KEY_REQUIRED = "required";
     private static final String SCHEMA_KEY_ADDITIONAL_PROPERTIES = "additionalProperties";
 
-    private final Map<String, Tool> tools = new LinkedHashMap<>();
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("tool-", 0).factory());
+
+    private final ToolResultMemo memo = new ToolResultMemo();
+    private volatile Map<String, Tool> tools = Map.of();
+    private volatile Map<String, Bulkhead> bulkheads = Map.of();
+    private volatile List<ChatCompletionFunctionTool> sdkTools;
+    private volatile List<com.anthropic.models.messages.Tool> anthropicTools;
 
     /**
-     * Register a tool. Overwrites any previous tool with the same name.
+     * Register a tool under its own {@link Tool#policy()}. Overwrites any
+     * previous tool with the same name and invalidates the cached tool
+     * catalogues.
      *
      * @param tool the tool to register
      */
     public void register(Tool tool) {
-        tools.put(tool.name(), tool);
+        register(tool, tool.policy());
+    }
+
+    /**
+     * Register a tool with explicit execution limits.
+     *
+     * @param tool   the tool to register
+     * @param policy the limits to enforce on its calls
+     */
+    public synchronized void register(Tool tool, ToolPolicy policy) {
+        var next = new LinkedHashMap<>(tools);
+        next.put(tool.name(), tool);
+        tools = Collections.unmodifiableMap(next);
+        setBulkhead(tool.name(), policy);
+        sdkTools = null;
+        anthropicTools = null;
+    }
+
+    /**
+     * Change the execution limits of a registered tool. Calls already
+     * running keep the permits of the old limits.
+     *
+     * @param name   the tool name
+     * @param policy the new limits
+     * @throws IllegalArgumentException if no such tool is registered
+     */
+    public synchronized void setPolicy(String name, ToolPolicy policy) {
+        if (!tools.containsKey(name)) {
+            throw new IllegalArgumentException("Unknown tool: " + name);
+        }
+        setBulkhead(name, policy);
+    }
+
+    /**
+     * The execution limits of a tool.
+     *
+     * @param name the tool name
+     * @return the tool's policy, or {@code null} if it is not registered
+     */
+    public ToolPolicy policy(String name) {
+        var bulkhead = bulkheads.get(name);
+        return bulkhead != null ? bulkhead.policy() : null;
+    }
+
+    private void setBulkhead(String name, ToolPolicy policy) {
+        var next = new LinkedHashMap<>(bulkheads);
+        next.put(name, new Bulkhead(policy, new Semaphore(policy.maxConcurrency())));
+        bulkheads = Collections.unmodifiableMap(next);
+    }
+
+    /**
+     * Whether the named tool is read-only. Unknown tools are reported as
+     * side-effecting so they are never scheduled in parallel.
+     *
+     * @param name the tool name
+     * @return {@code true} if the tool exists and is read-only
+     */
+    public boolean isReadOnly(String name) {
+        var tool = tools.get(name);
+        return tool != null && tool.readOnly();
     }
 
     /**
@@ -42,17 +145,209 @@ public class ToolRegistry {
      * @return the tool's output, or an error string if the tool is unknown
      */
     public String execute(String name, JsonObject arguments) {
+        return execute(name, arguments, progress -> { });
+    }
+
+    /**
+     * Execute a tool by name, forwarding its progress reports.
+     *
+     * @param name       the tool name
+     * @param arguments  parsed JSON arguments
+     * @param onProgress receives snapshots of the tool's partial output
+     * @return the tool's output, or an error string if the tool is unknown
+     */
+    public String execute(String name, JsonObject arguments, Consumer<String> onProgress) {
+        return execute(name, arguments, onProgress, ToolBudget.unlimited());
+    }
+
+    /**
+     * Execute a tool by name under its policy, charging the time it runs
+     * to a turn's budget.
+     *
+     * <p>The call's deadline is the tool's timeout or what is left of the
+     * budget, whichever is shorter; waiting for a concurrency permit counts
+     * against it. Interrupting the calling thread interrupts the tool.</p>
+     *
+     * @param name       the tool name
+     * @param arguments  parsed JSON arguments
+     * @param onProgress receives snapshots of the tool's partial output
+     * @param budget     the turn's remaining tool execution time
+     * @return the tool's output, or an error string
+     */
+    public String execute(String name, JsonObject arguments, Consumer<String> onProgress,
+                          ToolBudget budget) {
         var tool = tools.get(name);
-        if (tool == null) {
+        var bulkhead = bulkheads.get(name);
+        if (tool == null || bulkhead == null) {
             return "Error: unknown tool '" + name + "'";
         }
+        if (budget.exhausted()) {
+            return errorResult("budget_exhausted", name, "The tool time budget of this turn ("
+                    + seconds(budget.total()) + ") is used up. Answer with what you "
+                    + "have, or ask the user whether to continue.", false);
+        }
+        var limit = bulkhead.policy().timeout();
+        boolean budgetBound = budget.remaining().compareTo(limit) < 0;
+        if (budgetBound) {
+            limit = budget.remaining();
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + limit.toNanos();
         try {
-            return tool.execute(arguments);
-        } catch (RuntimeException e) {
-            return "Error executing " + name + ": " + e.getMessage();
+            if (!bulkhead.permits().tryAcquire(limit.toNanos(), TimeUnit.NANOSECONDS)) {
+                return errorResult("busy", name, bulkhead.policy().maxConcurrency()
+                        + " calls of " + name + " are already running and none finished within "
+                        + seconds(limit) + ".", true);
+            }
+            Future<String> future;
+            try {
+                future = EXECUTOR.submit(() -> {
+                    try {
+                        return tool.execute(arguments, onProgress);
+                    } finally {
+                        // Held until the tool really ends, even after a timeout
+                        bulkhead.permits().release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                bulkhead.permits().release();
+                throw e;
+            }
+            try {
+                return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                return budgetBound
+                        ? errorResult("budget_exhausted", name, name + " was stopped when the tool "
+                                + "time budget of this turn (" + seconds(budget.total())
+                                + ") ran out.", false)
+                        : errorResult("timeout", name, name + " did not finish within "
+                                + seconds(limit) + " and was stopped. Retry with a smaller "
+                                + "request, or use a different approach.", true);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                return "Error executing " + name + ": " + e.getCause().getMessage();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error: " + name + " was cancelled";
+        } finally {
+            budget.charge(System.nanoTime() - start);
         }
     }
 
+    private static String seconds(Duration duration) {
+        long millis = duration.toMillis();
+        return millis % 1000 == 0
+                ? millis / 1000 + "s"
+                : String.format(Locale.ROOT, "%.1fs", millis / 1000.0);
+    }
+
+    /**
+     * Execute a tool call of the conversation, memoizing the results of
+     * {@link Tool#idempotent() idempotent} tools.
+     *
+     * <p>When the same tool was called with the same arguments before, the
+     * state it read has the same {@link Tool#stateFingerprint fingerprint},
+     * and that call's result is still in the conversation, a short
+     * reference to it is returned instead of running the tool again.</p>
+     *
+     * @param callId     the id of this call in the conversation
+     * @param name       the tool name
+     * @param arguments  parsed JSON arguments
+     * @param onProgress receives snapshots of the tool's partial output
+     * @param budget     the turn's remaining tool execution time
+     * @param inContext  whether the result of an earlier call, by id, is
+     *                   still in the conversation in full
+     * @return the tool's output, a reference to an identical earlier result,
+     *         or an error string
+     */
+    public String execute(String callId, String name, JsonObject arguments,
+                          Consumer<String> onProgress, ToolBudget budget,
+                          Predicate<String> inContext) {
+        var tool = tools.get(name);
+        if (tool == null || !tool.idempotent()) {
+            return execute(name, arguments, onProgress, budget);
+        }
+        var fingerprint = tool.stateFingerprint(arguments);
+        if (fingerprint == null) {
+            return execute(name, arguments, onProgress, budget);
+        }
+        var key = ToolResultMemo.key(name, arguments);
+        var earlier = memo.lookup(key, fingerprint, inContext);
+        if (earlier != null) {
+            return resultReference(earlier, name);
+        }
+        var result = execute(name, arguments, onProgress, budget);
+        if (!result.startsWith("Error") && !result.startsWith("{\"error\"")) {
+            memo.record(key, fingerprint, callId);
+        }
+        return result;
+    }
+
+    /**
+     * The result that points back to an identical earlier call instead of
+     * repeating its output.
+     *
+     * @param callId the id of the earlier call
+     * @param name   the tool name
+     * @return the reference text
+     */
+    public static String resultReference(String callId, String name) {
+        return REFERENCE_PREFIX + callId + REFERENCE_SEPARATOR + name + " was called with the "
+                + "same arguments there and nothing it reads has changed, so that result "
+                + "still applies)";
+    }
+
+    /**
+     * The call a {@link #resultReference reference} points to.
+     *
+     * @param result a tool result
+     * @return the referenced call's id, or {@code null} if the result is not a reference
+     */
+    public static String referencedCallId(String result) {
+        if (result == null || !result.startsWith(REFERENCE_PREFIX)) {
+            return null;
+        }
+        int end = result.indexOf(REFERENCE_SEPARATOR, REFERENCE_PREFIX.length());
+        return end < 0 ? null : result.substring(REFERENCE_PREFIX.length(), end);
+    }
+
+    /**
+     * A {@link #resultReference reference} pointed at another call holding
+     * the same output.
+     *
+     * @param result a reference
+     * @param callId the id of the call to point to instead
+     * @return the rewritten reference
+     */
+    public static String retargetReference(String result, String callId) {
+        int end = result.indexOf(REFERENCE_SEPARATOR, REFERENCE_PREFIX.length());
+        return REFERENCE_PREFIX + callId + result.substring(end);
+    }
+
+    /**
+     * A failure of the execution machinery rather than of the tool, as a
+     * JSON object the model can act on, e.g.
+     * {@code {"error":{"type":"timeout","tool":"read_file","message":"...","retryable":true}}}.
+     */
+    private static String errorResult(String type, String tool, String message, boolean retryable) {
+        var error = new JsonObject();
+        error.addProperty("type", type);
+        error.addProperty("tool", tool);
+        error.addProperty("message", message);
+        error.addProperty("retryable", retryable);
+        var result = new JsonObject();
+        result.add("error", error);
+        return result.toString();
+    }
+
     /**
      * Build the {@code tools} JSON array expected by the OpenAI API (legacy format).
      *
@@ -75,11 +370,26 @@ public class ToolRegistry {
     }
 
     /**
-     * Build SDK {@link ChatCompletionFunctionTool} objects for the OpenAI SDK.
+     * Return SDK {@link ChatCompletionFunctionTool} objects for the OpenAI SDK.
+     * The immutable list is built once per tool set and then reused.
      *
      * @return a list of ChatCompletionFunctionTool definitions
      */
     public List<ChatCompletionFunctionTool> toSdkTools() {
+        var cached = sdkTools;
+        if (cached == null) {
+            synchronized (this) {
+                cached = sdkTools;
+                if (cached == null) {
+                    cached = buildSdkTools();
+                    sdkTools = cached;
+                }
+            }
+        }
+        return cached;
+    }
+
+    private List<ChatCompletionFunctionTool> buildSdkTools() {
         return tools.values().stream()
                 .map(tool -> {
                     var jsonSchema = tool.parametersSchema();
@@ -167,11 +477,26 @@ public class ToolRegistry {
     }
 
     /**
-     * Build SDK {@link com.anthropic.models.messages.Tool} objects for the Anthropic SDK.
+     * Return SDK {@link com.anthropic.models.messages.Tool} objects for the Anthropic SDK.
+     * The immutable list is built once per tool set and then reused.
      *
      * @return a list of Tool definitions
      */
     public List<com.anthropic.models.messages.Tool> toAnthropicTools() {
+        var cached = anthropicTools;
+        if (cached == null) {
+            synchronized (this) {
+                cached = anthropicTools;
+                if (cached == null) {
+                    cached = buildAnthropicTools();
+                    anthropicTools = cached;
+                }
+            }
+        }
+        return cached;
+    }
+
+    private List<com.anthropic.models.messages.Tool> buildAnthropicTools() {
         return tools.values().stream()
                 .map(tool -> {
                     var jsonSchema = tool.parametersSchema();
@@ -251,4 +576,7 @@ public class ToolRegistry {
         }
         return com.anthropic.core.JsonValue.from(null);
     }
-}
\ No newline at end of file
+
+    /** A tool's limits and the permits that enforce its concurrency limit. */
+    private record Bulkhead(ToolPolicy policy, Semaphore permits) { }
+}
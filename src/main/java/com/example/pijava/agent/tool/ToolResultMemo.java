@@ -0,0 +1,125 @@
+package com.example.pijava.agent.tool;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Remembers which call produced the result of an idempotent tool call, so
+ * that an identical later call can point back to it instead of running
+ * again.
+ *
+ * <p>Calls are keyed by tool name and canonical arguments (object keys
+ * sorted), and each entry holds the {@link Tool#stateFingerprint
+ * fingerprint} of the files the call read. An entry only matches while the
+ * fingerprint is unchanged and the earlier result is still in the
+ * conversation; the result text itself is not kept here, since the
+ * conversation already holds it.</p>
+ */
+final class ToolResultMemo {
+
+    private static final int MAX_ENTRIES = 512;
+
+    private record Entry(String fingerprint, String callId) { }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /** The memo key of a call. */
+    static String key(String toolName, JsonObject arguments) {
+        return toolName + canonical(arguments);
+    }
+
+    /**
+     * Find an earlier call with the same key whose result still holds.
+     *
+     * @param key         the call's {@link #key}
+     * @param fingerprint the current state of what the call reads
+     * @param visible     whether an earlier call's result is still in the conversation
+     * @return the earlier call's id, or {@code null}
+     */
+    synchronized String lookup(String key, String fingerprint, Predicate<String> visible) {
+        var entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.fingerprint().equals(fingerprint) && visible.test(entry.callId())) {
+            return entry.callId();
+        }
+        entries.remove(key);
+        return null;
+    }
+
+    /** Remember that {@code callId} produced the result for this key and state. */
+    synchronized void record(String key, String fingerprint, String callId) {
+        entries.put(key, new Entry(fingerprint, callId));
+    }
+
+    /**
+     * Fingerprint of a file or directory: identity, size and modification
+     * time, without reading its content.
+     *
+     * @return the fingerprint, or {@code null} if the path cannot be read or
+     *         was modified so recently that a change within the same
+     *         timestamp tick could go unnoticed
+     */
+    static String fingerprint(Path path) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        var modified = attributes.lastModifiedTime().toInstant();
+        if (modified.isAfter(Instant.now().minus(FileContentCache.RACY_WINDOW))) {
+            return null;
+        }
+        return attributes.fileKey() + ":" + attributes.size() + ":" + modified;
+    }
+
+    /** Like {@link #fingerprint(Path)}, but a missing file has a fingerprint of its own. */
+    static String fingerprintIfExists(Path path) {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return "absent";
+        }
+        return fingerprint(path);
+    }
+
+    private static String canonical(JsonElement element) {
+        if (element instanceof JsonObject object) {
+            var sorted = new TreeMap<String, String>();
+            for (var member : object.entrySet()) {
+                if (!member.getValue().isJsonNull()) {
+                    sorted.put(member.getKey(), canonical(member.getValue()));
+                }
+            }
+            var out = new StringBuilder("{");
+            sorted.forEach((name, value) -> out.append(new JsonPrimitive(name))
+                    .append(':').append(value).append(','));
+            return out.append('}').toString();
+        }
+        if (element instanceof JsonArray array) {
+            var out = new StringBuilder("[");
+            array.forEach(item -> out.append(canonical(item)).append(','));
+            return out.append(']').toString();
+        }
+        return element.toString();
+    }
+}
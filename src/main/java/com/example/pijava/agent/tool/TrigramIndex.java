@@ -0,0 +1,826 @@
+package com.example.pijava.agent.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent trigram index of the text files in a workspace.
+ *
+ * <p>For every three-byte sequence (ASCII-lowercased) the index keeps the
+ * list of files containing it, as delta-encoded varints. A search looks up
+ * the trigrams its pattern requires (see {@link TrigramQuery}) and only
+ * opens the files present in all of their lists.</p>
+ *
+ * <p>The index is loaded from disk and brought up to date in the
+ * background when it is opened: files whose modification time or size
+ * changed since the last session are re-read, in parallel, and the rest
+ * are trusted. While the session runs, a {@link WatchService} records
+ * changed paths, which are re-indexed just before the next search. Files
+ * are never updated in place: a changed file gets a new document id and
+ * the old one is tombstoned; tombstones are compacted away before the
+ * index is saved.</p>
+ *
+ * <p>{@code .git}, {@code .gitignore}d paths and binary files are not
+ * indexed. Text files over {@value #MAX_FILE_BYTES} bytes are listed without
+ * their trigrams, so they are a candidate for every search and get scanned
+ * directly.</p>
+ *
+ * <p>A workspace with more than {@value #MAX_FILES} files or
+ * {@value #MAX_DIRECTORIES} directories, such as a home directory, is not
+ * indexed or watched at all: the index stops building, and
+ * {@link #candidates} walks the tree on every search instead.</p>
+ */
+public final class TrigramIndex implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrigramIndex.class);
+
+    private static final int MAGIC = 0x50495447; // "PITG"
+    private static final int VERSION = 1;
+
+    static final int MAX_FILE_BYTES = 1024 * 1024;
+    static final int MAX_FILES = 100_000;
+    static final int MAX_DIRECTORIES = 10_000;
+    private static final int BINARY_PROBE_BYTES = 8000;
+
+    private final Path root;
+    private final Path indexFile;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Documents by id; a document is current only while its bit is set in {@link #live}. */
+    private final List<Doc> docs = new ArrayList<>();
+    private final BitSet live = new BitSet();
+    /** Documents over {@link #MAX_FILE_BYTES}: in no posting list, so candidates for every search. */
+    private final BitSet oversized = new BitSet();
+    private final Map<String, Integer> byPath = new HashMap<>();
+    private final Map<Integer, PostingList> postings = new HashMap<>();
+
+    /** {@code .gitignore} rules per indexed directory (relative path, {@code ""} for the root). */
+    private final Map<String, GitIgnore> directoryRules = new ConcurrentHashMap<>();
+    private final Map<WatchKey, String> watchedDirectories = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    /** Serializes index updates; searches only need {@link #lock}'s read side. */
+    private final Object updateLock = new Object();
+    private volatile boolean rescanNeeded;
+    /** Set once the workspace exceeds the file or directory cap; searches then walk the tree. */
+    private volatile boolean unindexed;
+    private final WatchService watcher;
+    private final CompletableFuture<Void> ready;
+    private volatile boolean closed;
+
+    private TrigramIndex(Path root, Path indexFile) {
+        this.root = root;
+        this.indexFile = indexFile;
+        this.watcher = newWatchService(root);
+        this.ready = CompletableFuture.runAsync(this::initialize);
+        if (watcher != null) {
+            Thread.ofVirtual().name("trigram-index-watch").start(this::watchLoop);
+        }
+    }
+
+    /**
+     * Open the index of a workspace, loading and refreshing it in the background.
+     *
+     * @param root      the workspace root
+     * @param indexFile where the index is persisted between sessions
+     * @return the index; searches wait until it is ready
+     */
+    public static TrigramIndex open(Path root, Path indexFile) {
+        return new TrigramIndex(root.toAbsolutePath().normalize(), indexFile);
+    }
+
+    /** Default location of a workspace's index: {@code ~/.pi-java/index/<hash>.trigrams}. */
+    public static Path defaultIndexFile(Path root) {
+        var key = root.toAbsolutePath().normalize().toString();
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            var name = HexFormat.of().formatHex(digest, 0, 8) + ".trigrams";
+            return Path.of(System.getProperty("user.home"), ".pi-java", "index", name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    /** The workspace root; candidate paths are relative to it. */
+    public Path root() {
+        return root;
+    }
+
+    /** Number of files currently indexed (waits for the initial build). */
+    public int fileCount() {
+        awaitReady();
+        lock.readLock().lock();
+        try {
+            return live.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the workspace is indexed (waits for the initial build); if
+     * not, it is over the file or directory cap and every search walks it.
+     */
+    public boolean isIndexed() {
+        awaitReady();
+        return !unindexed;
+    }
+
+    /**
+     * Files that may match a search, after applying pending file changes.
+     * Without an index (see {@link #isIndexed}) these are all the files
+     * that pass {@code include}, found by walking the workspace.
+     *
+     * @param alternatives required trigram sets from {@link TrigramQuery},
+     *                     or {@code null} for every file
+     * @param include      optional filter on the relative path
+     * @return relative paths of the candidate files, sorted
+     */
+    public List<String> candidates(List<int[]> alternatives, PathMatcher include) {
+        awaitReady();
+        applyPendingChanges();
+        var result = new ArrayList<String>();
+        if (unindexed) {
+            walk(root, GitIgnore.above(root), false, Integer.MAX_VALUE, file -> {
+                if (include == null || include.matches(Path.of(file.path))) {
+                    result.add(file.path);
+                }
+            });
+            result.sort(null);
+            return result;
+        }
+        lock.readLock().lock();
+        try {
+            BitSet matches;
+            if (alternatives == null) {
+                matches = (BitSet) live.clone();
+            } else {
+                matches = new BitSet();
+                for (var required : alternatives) {
+                    matches.or(docsContainingAll(required));
+                }
+                matches.or(oversized);
+                matches.and(live);
+            }
+            for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+                var path = docs.get(id).path;
+                if (include == null || include.matches(Path.of(path))) {
+                    result.add(path);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Stop watching and save the index for the next session. */
+    @Override
+    public void close() {
+        closed = true;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing watch service", e);
+            }
+        }
+        if (ready.isDone() && !ready.isCompletedExceptionally() && !unindexed) {
+            save();
+        }
+    }
+
+    // ---- building and updating --------------------------------------------
+
+    private void initialize() {
+        long start = System.nanoTime();
+        boolean loaded = load();
+        rescan();
+        if (unindexed) {
+            return;
+        }
+        LOG.debug("Trigram index of {} ready: {} files ({}) in {} ms", root, live.cardinality(),
+                loaded ? "refreshed" : "built", (System.nanoTime() - start) / 1_000_000);
+        save();
+    }
+
+    private void awaitReady() {
+        try {
+            ready.join();
+        } catch (RuntimeException e) {
+            throw new UncheckedIOException(new IOException("Search index failed to build", e));
+        }
+    }
+
+    /** Walk the workspace and re-index every file that is new or changed. */
+    private void rescan() {
+        rescanNeeded = false;
+        directoryRules.clear();
+        var seen = new HashSet<String>();
+        var changed = new ArrayList<FileState>();
+        boolean complete = walk(root, GitIgnore.above(root), true, MAX_FILES, file -> {
+            seen.add(file.path);
+            lock.readLock().lock();
+            try {
+                var id = byPath.get(file.path);
+                if (id == null || !docs.get(id).sameAs(file)) {
+                    changed.add(file);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+        if (!complete) {
+            abandon();
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (var path : new ArrayList<>(byPath.keySet())) {
+                if (!seen.contains(path)) {
+                    remove(path);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        index(changed);
+    }
+
+    /** Re-index the paths reported by the watcher since the last search. */
+    private void applyPendingChanges() {
+        synchronized (updateLock) {
+            applyPendingChangesLocked();
+        }
+    }
+
+    private void applyPendingChangesLocked() {
+        if (unindexed) {
+            return;
+        }
+        if (rescanNeeded) {
+            dirty.clear();
+            rescan();
+            return;
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        var paths = new ArrayList<>(dirty);
+        dirty.removeAll(paths);
+        var changed = new ArrayList<FileState>();
+        for (var relative : paths) {
+            var path = root.resolve(relative);
+            var parent = parentOf(relative);
+            var rules = directoryRules.getOrDefault(parent, GitIgnore.NONE);
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                removeTree(relative); // deleted file or directory
+                continue;
+            }
+            if (attributes.isDirectory()) {
+                if (!rules.isIgnored(relative, true) && !".git".equals(path.getFileName().toString())
+                        && !walk(path, rules, true, MAX_FILES - indexedFiles() - changed.size(), changed::add)) {
+                    abandon();
+                    return;
+                }
+            } else if (attributes.isRegularFile() && !rules.isIgnored(relative, false)) {
+                if (relative.endsWith(".gitignore")) {
+                    rescanNeeded = true;
+                }
+                changed.add(new FileState(relative, attributes.lastModifiedTime().toMillis(), attributes.size()));
+            }
+        }
+        if (rescanNeeded) {
+            rescan();
+        } else {
+            index(changed);
+        }
+    }
+
+    /** Read and index files in parallel, then publish them under the write lock. */
+    private void index(List<FileState> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        var indexed = files.parallelStream()
+                .map(this::readTrigrams)
+                .toList();
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                var file = files.get(i);
+                remove(file.path);
+                var trigrams = indexed.get(i);
+                if (trigrams != null) {
+                    add(new Doc(file.path, file.modified, file.size), trigrams);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Trigrams of a text file, none if it is over {@link #MAX_FILE_BYTES},
+     * or {@code null} if it is binary or unreadable.
+     */
+    private int[] readTrigrams(FileState file) {
+        boolean oversize = file.size > MAX_FILE_BYTES;
+        try (var channel = FileChannel.open(root.resolve(file.path), StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate((int) Math.min(channel.size(),
+                    oversize ? BINARY_PROBE_BYTES : MAX_FILE_BYTES));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            var bytes = buffer.array();
+            int length = buffer.position();
+            if (isBinary(bytes, length)) {
+                return null;
+            }
+            return oversize ? new int[0] : TrigramQuery.trigrams(bytes, length);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether content looks binary: it has a NUL byte in its first
+     * {@value #BINARY_PROBE_BYTES} bytes.
+     *
+     * @param bytes  the content, or at least its start
+     * @param length number of valid bytes
+     * @return {@code true} for binary content
+     */
+    static boolean isBinary(byte[] bytes, int length) {
+        for (int i = 0; i < Math.min(length, BINARY_PROBE_BYTES); i++) {
+            if (bytes[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(Doc doc, int[] trigrams) {
+        int id = docs.size();
+        docs.add(doc);
+        live.set(id);
+        oversized.set(id, doc.size > MAX_FILE_BYTES);
+        byPath.put(doc.path, id);
+        for (int trigram : trigrams) {
+            postings.computeIfAbsent(trigram, k -> new PostingList()).add(id);
+        }
+    }
+
+    private void remove(String path) {
+        var id = byPath.remove(path);
+        if (id != null) {
+            live.clear(id);
+        }
+    }
+
+    private int indexedFiles() {
+        lock.readLock().lock();
+        try {
+            return byPath.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Give up on the index for this session: the workspace is over the file or directory cap. */
+    private void abandon() {
+        unindexed = true;
+        LOG.info("{} has over {} files or {} directories; search_code will scan it without an index",
+                root, MAX_FILES, MAX_DIRECTORIES);
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing watch service", e);
+            }
+        }
+        watchedDirectories.clear();
+        directoryRules.clear();
+        dirty.clear();
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            live.clear();
+            oversized.clear();
+            byPath.clear();
+            postings.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeTree(String relative) {
+        lock.writeLock().lock();
+        try {
+            remove(relative);
+            var prefix = relative + "/";
+            byPath.keySet().stream()
+                    .filter(p -> p.startsWith(prefix))
+                    .toList()
+                    .forEach(this::remove);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private BitSet docsContainingAll(int[] required) {
+        var result = new BitSet();
+        if (required.length == 0) {
+            result.or(live);
+            return result;
+        }
+        var lists = new ArrayList<PostingList>(required.length);
+        for (int trigram : required) {
+            var list = postings.get(trigram);
+            if (list == null) {
+                return result; // some required trigram occurs nowhere
+            }
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.count, b.count));
+        var ids = lists.get(0).decode();
+        int size = ids.length;
+        for (int i = 1; i < lists.size() && size > 0; i++) {
+            size = intersect(ids, size, lists.get(i).decode());
+        }
+        for (int i = 0; i < size; i++) {
+            result.set(ids[i]);
+        }
+        return result;
+    }
+
+    /** Keep in {@code ids[0..size)} only the values also in {@code other}; both sorted. */
+    private static int intersect(int[] ids, int size, int[] other) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < size && j < other.length; i++) {
+            while (j < other.length && other[j] < ids[i]) {
+                j++;
+            }
+            if (j < other.length && other[j] == ids[i]) {
+                ids[kept++] = ids[i];
+            }
+        }
+        return kept;
+    }
+
+    /** Renumber documents densely, dropping tombstones, so the saved index has none. */
+    private void compact() {
+        if (live.cardinality() == docs.size()) {
+            return;
+        }
+        var newIds = new int[docs.size()];
+        var kept = new ArrayList<Doc>(live.cardinality());
+        for (int id = 0; id < docs.size(); id++) {
+            newIds[id] = live.get(id) ? kept.size() : -1;
+            if (live.get(id)) {
+                kept.add(docs.get(id));
+            }
+        }
+        var iterator = postings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            var compacted = new PostingList();
+            for (int id : entry.getValue().decode()) {
+                if (newIds[id] >= 0) {
+                    compacted.add(newIds[id]);
+                }
+            }
+            if (compacted.count == 0) {
+                iterator.remove();
+            } else {
+                entry.setValue(compacted);
+            }
+        }
+        docs.clear();
+        docs.addAll(kept);
+        live.clear();
+        live.set(0, kept.size());
+        oversized.clear();
+        byPath.clear();
+        for (int id = 0; id < kept.size(); id++) {
+            byPath.put(kept.get(id).path, id);
+            oversized.set(id, kept.get(id).size > MAX_FILE_BYTES);
+        }
+    }
+
+    // ---- walking and watching ---------------------------------------------
+
+    /**
+     * Visit the indexable files under a directory.
+     *
+     * @param track    whether to record each directory's rules and watch it,
+     *                 stopping once there are {@value #MAX_DIRECTORIES}
+     * @param maxFiles stop after visiting this many files
+     * @return {@code false} if the walk stopped at a cap
+     */
+    private boolean walk(Path start, GitIgnore parentRules, boolean track, int maxFiles,
+                         Consumer<FileState> onFile) {
+        var complete = new boolean[] {true};
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                private final Map<Path, GitIgnore> rulesByDirectory = new HashMap<>();
+                private int files;
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    var relative = relativize(dir);
+                    var parent = dir.equals(start) ? parentRules : rulesByDirectory.get(dir.getParent());
+                    if (!dir.equals(root)
+                            && (".git".equals(dir.getFileName().toString())
+                                || parent.isIgnored(relative, true))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (track && directoryRules.size() >= MAX_DIRECTORIES) {
+                        complete[0] = false;
+                        return FileVisitResult.TERMINATE;
+                    }
+                    var rules = parent.enter(dir, relative);
+                    rulesByDirectory.put(dir, rules);
+                    if (track) {
+                        directoryRules.put(relative, rules);
+                        register(dir, relative);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        var relative = relativize(file);
+                        var rules = rulesByDirectory.getOrDefault(file.getParent(), parentRules);
+                        if (!rules.isIgnored(relative, false)) {
+                            if (++files > maxFiles) {
+                                complete[0] = false;
+                                return FileVisitResult.TERMINATE;
+                            }
+                            onFile.accept(new FileState(relative,
+                                    attrs.lastModifiedTime().toMillis(), attrs.size()));
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.debug("Error walking {} for the search index", start, e);
+        }
+        return complete[0];
+    }
+
+    private void register(Path dir, String relative) {
+        if (watcher == null || closed) {
+            return;
+        }
+        try {
+            var key = dir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(key, relative);
+        } catch (IOException | ClosedWatchServiceException e) {
+            // Too many watches or a vanished directory: fall back to
+            // noticing changes at the next rescan.
+            LOG.debug("Cannot watch {}: {}", dir, e.toString());
+        }
+    }
+
+    private void watchLoop() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            var directory = watchedDirectories.get(key);
+            for (var event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                    rescanNeeded = true;
+                } else if (event.context() instanceof Path name) {
+                    dirty.add(directory.isEmpty() ? name.toString() : directory + "/" + name);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    private String relativize(Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static String parentOf(String relative) {
+        int slash = relative.lastIndexOf('/');
+        return slash < 0 ? "" : relative.substring(0, slash);
+    }
+
+    private static WatchService newWatchService(Path root) {
+        try {
+            return root.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.debug("File watching unavailable, the search index refreshes on open only", e);
+            return null;
+        }
+    }
+
+    // ---- persistence ------------------------------------------------------
+
+    private boolean load() {
+        if (!Files.isRegularFile(indexFile)) {
+            return false;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !root.toString().equals(in.readUTF())) {
+                return false;
+            }
+            var loadedDocs = new ArrayList<Doc>();
+            int docCount = in.readInt();
+            for (int i = 0; i < docCount; i++) {
+                loadedDocs.add(new Doc(in.readUTF(), in.readLong(), in.readLong()));
+            }
+            var loadedPostings = new HashMap<Integer, PostingList>();
+            int trigramCount = in.readInt();
+            for (int i = 0; i < trigramCount; i++) {
+                int trigram = in.readInt();
+                loadedPostings.put(trigram, PostingList.read(in));
+            }
+            lock.writeLock().lock();
+            try {
+                docs.addAll(loadedDocs);
+                live.set(0, docs.size());
+                for (int id = 0; id < docs.size(); id++) {
+                    byPath.put(docs.get(id).path, id);
+                    oversized.set(id, docs.get(id).size > MAX_FILE_BYTES);
+                }
+                postings.putAll(loadedPostings);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Discarding unreadable search index {}", indexFile, e);
+            return false;
+        }
+    }
+
+    private void save() {
+        lock.writeLock().lock();
+        try {
+            compact();
+            var parent = indexFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            var temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(root.toString());
+                out.writeInt(docs.size());
+                for (var doc : docs) {
+                    out.writeUTF(doc.path);
+                    out.writeLong(doc.modified);
+                    out.writeLong(doc.size);
+                }
+                out.writeInt(postings.size());
+                for (var entry : postings.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            LOG.debug("Search index directory vanished, not saving", e);
+        } catch (IOException e) {
+            LOG.warn("Could not save the search index to {}: {}", indexFile, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---- data -------------------------------------------------------------
+
+    /** A file as seen on disk during a walk. */
+    private record FileState(String path, long modified, long size) { }
+
+    /** An indexed file version. */
+    private record Doc(String path, long modified, long size) {
+
+        boolean sameAs(FileState file) {
+            return modified == file.modified && size == file.size;
+        }
+    }
+
+    /** Ascending document ids, delta-encoded as unsigned LEB128 varints. */
+    private static final class PostingList {
+
+        private byte[] data = new byte[4];
+        private int length;
+        private int count;
+        private int last = -1;
+
+        void add(int id) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            }
+            int delta = id - last;
+            last = id;
+            count++;
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+        }
+
+        int[] decode() {
+            var ids = new int[count];
+            int id = -1;
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(count);
+            out.writeInt(last);
+            out.writeInt(length);
+            out.write(data, 0, length);
+        }
+
+        static PostingList read(DataInputStream in) throws IOException {
+            var list = new PostingList();
+            list.count = in.readInt();
+            list.last = in.readInt();
+            list.length = in.readInt();
+            list.data = new byte[Math.max(4, list.length)];
+            in.readFully(list.data, 0, list.length);
+            return list;
+        }
+    }
+}
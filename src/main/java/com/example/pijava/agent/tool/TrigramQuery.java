@@ -0,0 +1,363 @@
+package com.example.pijava.agent.tool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Derives the trigrams a file must contain to possibly match a search.
+ *
+ * <p>The result is a list of alternatives, each a set of trigrams that
+ * must all be present; a file is a candidate if it satisfies any one
+ * alternative. {@code null} means the query gives no usable constraint
+ * and every file has to be searched. The extraction is conservative: it
+ * only uses literal runs that every match must contain, and treats groups,
+ * classes, escapes other than quoted characters and optional characters as
+ * breaks, so it never rules out a file that could match.</p>
+ *
+ * <p>The index folds ASCII case only. An ignore-case search with
+ * non-ASCII text needs Unicode case folding (see {@link #patternFlags}),
+ * under which {@code i}, {@code k} and {@code s} also match non-ASCII
+ * characters, so those letters break runs too. A regex with the
+ * {@code x}, {@code u} or {@code U} inline flag gives no constraint.</p>
+ */
+final class TrigramQuery {
+
+    /** Inline flags the extraction cannot follow: comments mode and Unicode case. */
+    private static final Pattern INLINE_FLAGS = Pattern.compile("\\(\\?[a-zA-Z]*[xuU][a-zA-Z-]*[:)]");
+
+    /** How a search folds case, which decides what a literal run may contain. */
+    private enum Fold { NONE, ASCII, UNICODE }
+
+    private TrigramQuery() { /* utility */ }
+
+    /**
+     * {@link Pattern} flags for a search that this class's constraints hold
+     * for. Ignoring case folds beyond ASCII ({@link Pattern#UNICODE_CASE})
+     * only when the text has non-ASCII characters, so ASCII searches keep
+     * their full constraint.
+     *
+     * @param text       the literal or regular expression searched for
+     * @param ignoreCase whether to match case-insensitively
+     * @return the flags
+     */
+    static int patternFlags(String text, boolean ignoreCase) {
+        return switch (fold(text, ignoreCase)) {
+            case NONE -> 0;
+            case ASCII -> Pattern.CASE_INSENSITIVE;
+            case UNICODE -> Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        };
+    }
+
+    private static Fold fold(String text, boolean ignoreCase) {
+        if (!ignoreCase) {
+            return Fold.NONE;
+        }
+        return text.chars().anyMatch(ch -> ch >= 0x80) ? Fold.UNICODE : Fold.ASCII;
+    }
+
+    /** Trigrams required by a literal search. */
+    static List<int[]> forLiteral(String literal, boolean ignoreCase) {
+        var runs = new ArrayList<String>();
+        addRun(runs, new StringBuilder(literal), fold(literal, ignoreCase));
+        return runs.isEmpty() ? null : List.of(trigramsOf(runs));
+    }
+
+    /** Trigrams required by a {@link Pattern} search. */
+    static List<int[]> forRegex(String regex, boolean ignoreCase) {
+        if (INLINE_FLAGS.matcher(regex).find()) {
+            return null; // comments mode or Unicode case folding
+        }
+        var fold = fold(regex, ignoreCase);
+        var alternatives = new ArrayList<int[]>();
+        for (var branch : topLevelBranches(regex)) {
+            var runs = literalRuns(branch, fold);
+            if (runs.isEmpty()) {
+                return null; // this branch could match anything
+            }
+            alternatives.add(trigramsOf(runs));
+        }
+        return alternatives.isEmpty() ? null : alternatives;
+    }
+
+    /**
+     * Trigram keys of UTF-8 text, ASCII-lowercased. Trigrams spanning a
+     * line break are skipped because matching is line based.
+     */
+    static int[] trigrams(byte[] bytes, int length) {
+        if (length < 3) {
+            return new int[0];
+        }
+        var keys = new int[length - 2];
+        int count = 0;
+        for (int i = 0; i + 2 < length; i++) {
+            byte b0 = bytes[i];
+            byte b1 = bytes[i + 1];
+            byte b2 = bytes[i + 2];
+            if (b0 == '\n' || b1 == '\n' || b2 == '\n') {
+                continue;
+            }
+            keys[count++] = key(b0, b1, b2);
+        }
+        Arrays.sort(keys, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || keys[i] != keys[unique - 1]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, unique);
+    }
+
+    private static int key(byte b0, byte b1, byte b2) {
+        return (lower(b0) << 16) | (lower(b1) << 8) | lower(b2);
+    }
+
+    private static int lower(byte b) {
+        int c = b & 0xFF;
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int[] trigramsOf(List<String> runs) {
+        var all = new ArrayList<int[]>();
+        int total = 0;
+        for (var run : runs) {
+            var bytes = run.getBytes(StandardCharsets.UTF_8);
+            var keys = trigrams(bytes, bytes.length);
+            all.add(keys);
+            total += keys.length;
+        }
+        var merged = new int[total];
+        int offset = 0;
+        for (var keys : all) {
+            System.arraycopy(keys, 0, merged, offset, keys.length);
+            offset += keys.length;
+        }
+        return Arrays.stream(merged).sorted().distinct().toArray();
+    }
+
+    /** Split at {@code |} outside groups and character classes. */
+    private static List<String> topLevelBranches(String regex) {
+        var branches = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = quoteEnd(regex, i);
+            } else if (c == '[') {
+                i = classEnd(regex, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                branches.add(regex.substring(start, i));
+                start = i + 1;
+            }
+        }
+        branches.add(regex.substring(start));
+        return branches;
+    }
+
+    /** Literal substrings of length three or more that every match of a branch contains. */
+    private static List<String> literalRuns(String branch, Fold ignoreCase) {
+        var runs = new ArrayList<String>();
+        var run = new StringBuilder();
+        int i = 0;
+        while (i < branch.length()) {
+            char c = branch.charAt(i);
+            char literal;
+            if (c == '\\' && i + 1 < branch.length()) {
+                char next = branch.charAt(i + 1);
+                if (next == 'Q') {
+                    int end = branch.indexOf("\\E", i + 2);
+                    int stop = end < 0 ? branch.length() : end;
+                    run.append(branch, i + 2, stop);
+                    i = end < 0 ? stop : stop + 2;
+                    continue;
+                }
+                if (Character.isLetterOrDigit(next)) {
+                    // \w, \d, \b, \x41, \p{Lu}, back-references, ...
+                    addRun(runs, run, ignoreCase);
+                    i = skipQuantifier(branch, escapeEnd(branch, i));
+                    continue;
+                }
+                literal = next;
+                i += 2;
+            } else if (c == '[') {
+                addRun(runs, run, ignoreCase);
+                i = skipQuantifier(branch, classEnd(branch, i) + 1);
+                continue;
+            } else if (c == '(') {
+                addRun(runs, run, ignoreCase);
+                i = skipQuantifier(branch, groupEnd(branch, i) + 1);
+                continue;
+            } else if (".^$*+?{}|)".indexOf(c) >= 0) {
+                addRun(runs, run, ignoreCase);
+                i++;
+                continue;
+            } else {
+                literal = c;
+                i++;
+            }
+
+            if (i < branch.length() && isOptionalQuantifier(branch, i)) {
+                // The character may be absent from a match
+                addRun(runs, run, ignoreCase);
+                i = skipQuantifier(branch, i);
+            } else if (i < branch.length() && "+{".indexOf(branch.charAt(i)) >= 0) {
+                // Present at least once, but the run cannot continue past it
+                run.append(literal);
+                addRun(runs, run, ignoreCase);
+                i = skipQuantifier(branch, i);
+            } else {
+                run.append(literal);
+            }
+        }
+        addRun(runs, run, ignoreCase);
+        return runs;
+    }
+
+    /**
+     * Flush a literal run. Ignoring case, characters the index cannot fold
+     * are cut out: non-ASCII ones, and with Unicode folding also the
+     * letters that non-ASCII characters fold to.
+     */
+    private static void addRun(List<String> runs, StringBuilder run, Fold ignoreCase) {
+        if (ignoreCase != Fold.NONE) {
+            var part = new StringBuilder();
+            for (int i = 0; i < run.length(); i++) {
+                char ch = run.charAt(i);
+                if (ch < 0x80 && !(ignoreCase == Fold.UNICODE && "iksIKS".indexOf(ch) >= 0)) {
+                    part.append(ch);
+                } else {
+                    keepIfLongEnough(runs, part);
+                    part.setLength(0);
+                }
+            }
+            keepIfLongEnough(runs, part);
+        } else {
+            keepIfLongEnough(runs, run);
+        }
+        run.setLength(0);
+    }
+
+    private static void keepIfLongEnough(List<String> runs, CharSequence run) {
+        if (run.length() >= 3) {
+            runs.add(run.toString());
+        }
+    }
+
+    /**
+     * End of an escape that is not a quoted character. Hexadecimal,
+     * Unicode and octal escapes, {@code \c}, {@code \p}, braced escapes
+     * such as {@code \N{...}}, {@code \k<name>} and back-references span
+     * several characters; skipping too many only drops characters from
+     * the constraint.
+     *
+     * @param escape index of the backslash
+     * @return index just after the escape
+     */
+    private static int escapeEnd(String regex, int escape) {
+        char kind = regex.charAt(escape + 1);
+        int start = escape + 2;
+        if (start < regex.length() && (regex.charAt(start) == '{' || (kind == 'k' && regex.charAt(start) == '<'))) {
+            int end = regex.indexOf(regex.charAt(start) == '{' ? '}' : '>', start);
+            return end < 0 ? regex.length() : end + 1;
+        }
+        int end = start;
+        while (end < regex.length() && partOfEscape(kind, end - start, regex.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /** Whether the character at {@code offset} after an escape letter still belongs to the escape. */
+    private static boolean partOfEscape(char kind, int offset, char c) {
+        return switch (kind) {
+            case 'x' -> offset < 2 && Character.digit(c, 16) >= 0;
+            case 'u' -> offset < 4 && Character.digit(c, 16) >= 0;
+            case '0' -> offset < 3 && c >= '0' && c <= '7';
+            case 'c', 'p', 'P' -> offset < 1;
+            default -> kind >= '1' && kind <= '9' && c >= '0' && c <= '9';
+        };
+    }
+
+    /** Index of the last character of the escape at {@code i}: a whole {@code \Q...\E} quote or one character. */
+    private static int quoteEnd(String regex, int i) {
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+            int end = regex.indexOf("\\E", i + 2);
+            return end < 0 ? regex.length() - 1 : end + 1;
+        }
+        return i + 1;
+    }
+
+    private static boolean isOptionalQuantifier(String regex, int i) {
+        char q = regex.charAt(i);
+        return q == '?' || q == '*' || (q == '{' && regex.startsWith("{0", i));
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        char q = regex.charAt(i);
+        int next = i;
+        if (q == '?' || q == '*' || q == '+') {
+            next = i + 1;
+        } else if (q == '{') {
+            int end = regex.indexOf('}', i);
+            next = end < 0 ? regex.length() : end + 1;
+        } else {
+            return i;
+        }
+        // Lazy or possessive suffix
+        if (next < regex.length() && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+            next++;
+        }
+        return next;
+    }
+
+    private static int classEnd(String regex, int open) {
+        int i = open + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        int depth = 1;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = quoteEnd(regex, i);
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return regex.length() - 1;
+    }
+
+    private static int groupEnd(String regex, int open) {
+        int depth = 0;
+        for (int i = open; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = quoteEnd(regex, i);
+            } else if (c == '[') {
+                i = classEnd(regex, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return regex.length() - 1;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.pijava.agent.tool;
+
+/**
+ * Helpers for decoding UTF-8 byte windows that were cut at arbitrary
+ * offsets, so that a split character is dropped instead of showing up as
+ * a replacement character.
+ */
+final class Utf8 {
+
+    private Utf8() { /* utility */ }
+
+    /** First offset in {@code [from, to)} that does not continue a character started earlier. */
+    static int characterStart(byte[] bytes, int from, int to) {
+        int start = from;
+        while (start < to && start - from < 3 && isContinuation(bytes[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    /** End of {@code [from, to)} without a trailing, incomplete character. */
+    static int characterEnd(byte[] bytes, int from, int to) {
+        for (int back = 1; back <= 3 && to - back >= from; back++) {
+            byte b = bytes[to - back];
+            if (!isContinuation(b)) {
+                return sequenceLength(b) > back ? to - back : to;
+            }
+        }
+        return to;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /** Length of the UTF-8 sequence introduced by a lead byte. */
+    private static int sequenceLength(byte lead) {
+        if ((lead & 0xE0) == 0xC0) {
+            return 2;
+        } else if ((lead & 0xF0) == 0xE0) {
+            return 3;
+        } else if ((lead & 0xF8) == 0xF0) {
+            return 4;
+        }
+        return 1;
+    }
+}
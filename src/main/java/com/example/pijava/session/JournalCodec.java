@@ -0,0 +1,151 @@
+package com.example.pijava.session;
+
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.model.Message;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary encoding of journal record payloads.
+ *
+ * <p>A payload is a one-byte record type followed by its fields. Strings
+ * are written as a four-byte length and their UTF-8 bytes, so tool output
+ * of any size round-trips (unlike {@link DataOutputStream#writeUTF}).
+ * Decoding reads straight from a (memory-mapped) {@link ByteBuffer}.</p>
+ */
+final class JournalCodec {
+
+    static final byte CONTEXT_APPEND = 1;
+    static final byte CONTEXT_REPLACE = 2;
+    static final byte CONTEXT_REMOVE = 3;
+    static final byte UI_APPEND = 4;
+
+    private static final Message.MessageType[] MESSAGE_TYPES = Message.MessageType.values();
+
+    private JournalCodec() { /* utility */ }
+
+    static byte[] contextAppend(ContextMessage message) {
+        return encode(out -> {
+            out.writeByte(CONTEXT_APPEND);
+            writeContextMessage(out, message);
+        });
+    }
+
+    static byte[] contextReplace(int index, ContextMessage message) {
+        return encode(out -> {
+            out.writeByte(CONTEXT_REPLACE);
+            out.writeInt(index);
+            writeContextMessage(out, message);
+        });
+    }
+
+    static byte[] contextRemove(int from, int to) {
+        return encode(out -> {
+            out.writeByte(CONTEXT_REMOVE);
+            out.writeInt(from);
+            out.writeInt(to);
+        });
+    }
+
+    static byte[] uiAppend(Message message) {
+        return encode(out -> {
+            out.writeByte(UI_APPEND);
+            writeString(out, message.content());
+            out.writeByte(message.type().ordinal());
+            out.writeLong(message.timestamp().getEpochSecond());
+            out.writeInt(message.timestamp().getNano());
+        });
+    }
+
+    /**
+     * Apply one decoded payload to the lists being rebuilt.
+     *
+     * @throws IllegalStateException if the payload is not a valid record
+     */
+    static void apply(ByteBuffer payload, List<ContextMessage> context, List<Message> messages) {
+        byte type = payload.get();
+        switch (type) {
+            case CONTEXT_APPEND -> context.add(readContextMessage(payload));
+            case CONTEXT_REPLACE -> {
+                int index = payload.getInt();
+                context.set(index, readContextMessage(payload));
+            }
+            case CONTEXT_REMOVE -> {
+                int from = payload.getInt();
+                int to = payload.getInt();
+                context.subList(from, to).clear();
+            }
+            case UI_APPEND -> {
+                var content = readString(payload);
+                var messageType = MESSAGE_TYPES[payload.get()];
+                var timestamp = Instant.ofEpochSecond(payload.getLong(), payload.getInt());
+                messages.add(new Message(content, messageType, timestamp));
+            }
+            default -> throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static void writeContextMessage(DataOutputStream out, ContextMessage message)
+            throws IOException {
+        writeString(out, message.role());
+        writeString(out, message.content());
+        writeString(out, message.toolCallId());
+        out.writeInt(message.toolCalls().size());
+        for (var call : message.toolCalls()) {
+            writeString(out, call.id());
+            writeString(out, call.type());
+            writeString(out, call.function().name());
+            writeString(out, call.function().arguments());
+        }
+    }
+
+    private static ContextMessage readContextMessage(ByteBuffer in) {
+        var role = readString(in);
+        var content = readString(in);
+        var toolCallId = readString(in);
+        int callCount = in.getInt();
+        var toolCalls = new ArrayList<ContextMessage.ToolCallData>(callCount);
+        for (int i = 0; i < callCount; i++) {
+            var id = readString(in);
+            var type = readString(in);
+            var function = new ContextMessage.FunctionData(readString(in), readString(in));
+            toolCalls.add(new ContextMessage.ToolCallData(id, type, function));
+        }
+        return new ContextMessage(role, content, toolCalls, toolCallId);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        var bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(PayloadWriter writer) {
+        var bytes = new ByteArrayOutputStream(256);
+        try (var out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            // In-memory streams do not fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
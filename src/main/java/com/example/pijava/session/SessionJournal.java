@@ -0,0 +1,479 @@
+package com.example.pijava.session;
+
+import com.example.pijava.agent.ContextMessage;
+import com.example.pijava.model.Message;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only, on-disk journal of one session's conversation.
+ *
+ * <p>Every change to the LLM context ({@link ContextMessage} appended,
+ * replaced or removed by compaction) and every finished UI {@link Message}
+ * is written as one record:</p>
+ * <pre>
+ *   int length | int crc32(payload) | payload (see {@link JournalCodec})
+ * </pre>
+ * <p>after an 8-byte file header. Appends only encode the record and hand
+ * it to a writer thread, which writes everything queued since its last
+ * pass and then fsyncs once (group commit), so the UI never waits on the
+ * disk and a burst of messages costs a single fsync.</p>
+ *
+ * <p>{@link #resume(Path)} memory-maps the file and replays the records to
+ * rebuild both lists. A torn or corrupt tail (from a crash mid-write) ends
+ * the replay and is truncated before new records are appended.</p>
+ *
+ * <p>Journals hold whole conversations, so where the file system supports
+ * POSIX permissions the directories are created accessible to their owner
+ * only ({@code 0700}) and the files likewise ({@code 0600}). An open
+ * journal holds an exclusive lock on its file, so a session cannot be
+ * resumed by two processes at once.</p>
+ *
+ * <p>Journaling is best effort: if the disk fails, a warning is logged
+ * and further records are dropped rather than interrupting the session.</p>
+ */
+public final class SessionJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionJournal.class);
+
+    /** {@code "PIJL"}. */
+    private static final int MAGIC = 0x50494A4C;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    /** Size of each read-only mapping used during replay. */
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private static final String EXTENSION = ".journal";
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9._-]+");
+    private static final DateTimeFormatter ID_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT);
+    /**
+     * Journals open in this process. The file lock alone cannot tell: closing
+     * any channel to a file may release every lock the JVM holds on it.
+     */
+    private static final Set<Path> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final Path file;
+    private final String id;
+    private final FileChannel channel;
+    private final Thread writer;
+
+    private final Object lock = new Object();
+    private RecordBuffer pending = new RecordBuffer();
+    private long appendedSeq;
+    private long durableSeq;
+    private boolean closed;
+    private IOException failure;
+
+    private SessionJournal(Path file, FileChannel channel) {
+        this.file = file;
+        var name = file.getFileName().toString();
+        this.id = name.endsWith(EXTENSION)
+                ? name.substring(0, name.length() - EXTENSION.length())
+                : name;
+        this.channel = channel;
+        this.writer = Thread.ofVirtual().name("session-journal-" + id).start(this::writeLoop);
+    }
+
+    /** Directory that holds the session journals ({@code ~/.pi-java/sessions}). */
+    public static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".pi-java", "sessions");
+    }
+
+    /** A fresh session id: the local start time plus a random suffix. */
+    public static String newSessionId() {
+        return ID_TIME.format(LocalDateTime.now())
+                + String.format(Locale.ROOT, "-%04x", ThreadLocalRandom.current().nextInt(0x10000));
+    }
+
+    /**
+     * Path of the journal for a session id.
+     *
+     * @throws IllegalArgumentException if the id is not a plain file-name token
+     */
+    public static Path fileFor(Path directory, String sessionId) {
+        if (sessionId == null || !SESSION_ID.matcher(sessionId).matches()) {
+            throw new IllegalArgumentException("Invalid session id: " + sessionId);
+        }
+        return directory.resolve(sessionId + EXTENSION);
+    }
+
+    /**
+     * Create a new, empty journal.
+     *
+     * @param file the journal file; must not exist yet
+     * @return the open journal
+     * @throws IOException if the file cannot be created
+     */
+    public static SessionJournal create(Path file) throws IOException {
+        var parent = file.toAbsolutePath().getParent();
+        boolean posix = file.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (parent != null) {
+            if (posix) {
+                Files.createDirectories(parent, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(parent);
+            }
+        }
+        FileAttribute<?>[] attributes = posix
+                ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rw-------"))}
+                : new FileAttribute<?>[0];
+        var key = claim(file);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file,
+                    Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), attributes);
+        } catch (IOException e) {
+            OPEN.remove(key);
+            throw e;
+        }
+        try {
+            lock(channel, file);
+            var header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            channel.close();
+            OPEN.remove(key);
+            throw e;
+        }
+        return new SessionJournal(key, channel);
+    }
+
+    /**
+     * Replay an existing journal and reopen it for appending.
+     *
+     * @param file the journal file
+     * @return the rebuilt context and UI messages, and the reopened journal
+     * @throws IOException if the file cannot be read, is not a journal or
+     *                     is open in another session
+     */
+    public static Resumed resume(Path file) throws IOException {
+        var context = new ArrayList<ContextMessage>();
+        var messages = new ArrayList<Message>();
+
+        var key = claim(file);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            OPEN.remove(key);
+            throw e;
+        }
+        try {
+            // Lock before replaying: another session's in-flight records would look like a torn tail
+            lock(channel, file);
+            long validLength = replay(channel, file, context, messages);
+            if (channel.size() > validLength) {
+                LOG.warn("Truncating {} bytes of incomplete records from {}",
+                        channel.size() - validLength, file);
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+            channel.position(validLength);
+        } catch (IOException e) {
+            channel.close();
+            OPEN.remove(key);
+            throw e;
+        }
+        return new Resumed(new SessionJournal(key, channel), context, messages);
+    }
+
+    /** Mark a journal open in this process; returns the key to release it by. */
+    private static Path claim(Path file) throws IOException {
+        var key = file.toAbsolutePath().normalize();
+        if (!OPEN.add(key)) {
+            throw inUse(file);
+        }
+        return key;
+    }
+
+    /** Take the journal's lock, held until the channel is closed. */
+    private static void lock(FileChannel channel, Path file) throws IOException {
+        try {
+            if (channel.tryLock() != null) {
+                return;
+            }
+        } catch (OverlappingFileLockException e) {
+            // Held by this process under another path
+        }
+        throw inUse(file);
+    }
+
+    private static IOException inUse(Path file) {
+        return new IOException("Session journal is in use by another session: " + file);
+    }
+
+    /** The session id this journal belongs to. */
+    public String id() {
+        return id;
+    }
+
+    /** Record a message appended to the LLM context. */
+    public void contextAppended(ContextMessage message) {
+        enqueue(JournalCodec.contextAppend(message));
+    }
+
+    /** Record a context message replaced in place (e.g. an elided tool output). */
+    public void contextReplaced(int index, ContextMessage message) {
+        enqueue(JournalCodec.contextReplace(index, message));
+    }
+
+    /** Record the removal of context messages {@code [from, to)}. */
+    public void contextRemoved(int from, int to) {
+        enqueue(JournalCodec.contextRemove(from, to));
+    }
+
+    /** Record a finished UI message. */
+    public void messageAppended(Message message) {
+        enqueue(JournalCodec.uiAppend(message));
+    }
+
+    /**
+     * Block until every record appended so far is on disk.
+     *
+     * @throws IOException if the journal failed to write
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            long target = appendedSeq;
+            while (durableSeq < target && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while syncing session journal", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /** Flush outstanding records and close the file. */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                OPEN.remove(file);
+            }
+        }
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void enqueue(byte[] payload) {
+        var crc = new CRC32();
+        crc.update(payload);
+        synchronized (lock) {
+            if (closed || failure != null) {
+                return;
+            }
+            pending.writeRecord(payload, (int) crc.getValue());
+            appendedSeq++;
+            lock.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        var batch = new RecordBuffer();
+        while (true) {
+            long batchSeq;
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // Only close() ends the writer; keep draining
+                        continue;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return; // closed and drained
+                }
+                var full = pending;
+                pending = batch;
+                batch = full;
+                batchSeq = appendedSeq;
+            }
+            try {
+                var buffer = batch.view();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                batch.reset();
+                synchronized (lock) {
+                    durableSeq = batchSeq;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                LOG.warn("Session journal {} failed, further messages will not be saved: {}",
+                        id, e.getMessage());
+                synchronized (lock) {
+                    failure = e;
+                    pending.reset();
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replay every intact record into the given lists.
+     *
+     * @param channel the journal, open for reading
+     * @param file    its path, for messages
+     * @return the length of the valid prefix of the file
+     */
+    private static long replay(FileChannel channel, Path file, List<ContextMessage> context,
+                               List<Message> messages) throws IOException {
+        long size = channel.size();
+        if (size < FILE_HEADER_BYTES) {
+            throw new IOException("Not a pi-java session journal: " + file);
+        }
+        var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_HEADER_BYTES);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a pi-java session journal: " + file);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported session journal version " + version + ": " + file);
+        }
+
+        var crc = new CRC32();
+        long offset = FILE_HEADER_BYTES;
+        long windowStart = offset;
+        MappedByteBuffer window = null;
+        int records = 0;
+        while (offset + RECORD_HEADER_BYTES <= size) {
+            if (window == null || offset + RECORD_HEADER_BYTES > windowStart + window.capacity()) {
+                windowStart = offset;
+                window = map(channel, offset, size, RECORD_HEADER_BYTES);
+            }
+            int position = (int) (offset - windowStart);
+            int length = window.getInt(position);
+            int checksum = window.getInt(position + 4);
+            if (length <= 0 || offset + RECORD_HEADER_BYTES + length > size) {
+                break; // torn tail
+            }
+            if (position + RECORD_HEADER_BYTES + length > window.capacity()) {
+                // Record straddles the window: remap starting at the record
+                windowStart = offset;
+                window = map(channel, offset, size, RECORD_HEADER_BYTES + length);
+                position = 0;
+            }
+            var payload = window.slice(position + RECORD_HEADER_BYTES, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                LOG.warn("Checksum mismatch at offset {} of {}, ignoring the rest", offset, file);
+                break;
+            }
+            try {
+                JournalCodec.apply(payload, context, messages);
+            } catch (BufferUnderflowException | IllegalStateException
+                     | IndexOutOfBoundsException e) {
+                LOG.warn("Unreadable record at offset {} of {}, ignoring the rest: {}",
+                        offset, file, e.toString());
+                break;
+            }
+            offset += RECORD_HEADER_BYTES + length;
+            records++;
+        }
+        LOG.debug("Replayed {} records ({} bytes) from {}", records, offset, file);
+        return offset;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long size, int minLength)
+            throws IOException {
+        long length = Math.min(size - start, Math.max(MAP_WINDOW, minLength));
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+    /**
+     * The state rebuilt by {@link #resume(Path)}.
+     *
+     * @param journal  the journal, reopened for appending
+     * @param context  the LLM context, system prompt first
+     * @param messages the UI messages
+     */
+    public record Resumed(SessionJournal journal, List<ContextMessage> context, List<Message> messages) {
+
+        /** Compact constructor that makes the lists unmodifiable. */
+        public Resumed {
+            context = List.copyOf(context);
+            messages = List.copyOf(messages);
+        }
+    }
+
+    /** Growable buffer of framed records that can be written without copying. */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        RecordBuffer() {
+            super(8192);
+        }
+
+        void writeRecord(byte[] payload, int checksum) {
+            writeInt(payload.length);
+            writeInt(checksum);
+            write(payload, 0, payload.length);
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        private void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+    }
+}
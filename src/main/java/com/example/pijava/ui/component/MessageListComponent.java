@@ -139,7 +139,7 @@ public class MessageListComponent implements Component {
         return outCol - col;
     }
 
-    private int putCodeString(RenderContext ctx, int row, int col, String text, AttributedStyle baseStyle) {
+    int putCodeString(RenderContext ctx, int row, int col, String text, AttributedStyle baseStyle) {
         int outCol = col;
         int i = 0;
 
@@ -239,7 +239,7 @@ public class MessageListComponent implements Component {
         return result;
     }
 
-    private List<String> preprocessMarkdownTables(String content) {
+    List<String> preprocessMarkdownTables(String content) {
         String[] lines = content.split("\\n", -1);
         List<String> output = new ArrayList<>();
         boolean inCodeBlock = false;
@@ -563,7 +563,7 @@ public class MessageListComponent implements Component {
     /**
      * Wrap a line to fit within the given width, breaking at word boundaries.
      */
-    private List<String> wrapLine(String line, int maxWidth) {
+    List<String> wrapLine(String line, int maxWidth) {
         List<String> result = new ArrayList<>();
         
         if (maxWidth <= 0) {
@@ -602,7 +602,7 @@ public class MessageListComponent implements Component {
         return result;
     }
     
-    private int countTotalLines(List<Message> msgs, int wrapW) {
+    int countTotalLines(List<Message> msgs, int wrapW) {
         int count = 0;
         for (int i = 0; i < msgs.size(); i++) {
             var msg = msgs.get(i);
@@ -3,11 +3,14 @@ package com.example.pijava.ui.component;
 import org.jline.utils.AttributedStyle;
 
 /**
- * Single-line status / shortcut-hint bar at the very bottom of the screen.
+ * Single-line status / shortcut-hint bar at the very bottom of the screen,
+ * with an optional right-aligned readout (live turn metrics) that is shown
+ * when the row has room for both.
  */
 public class StatusBarComponent implements Component {
 
     private String text;
+    private String readout = "";
 
     public StatusBarComponent(String text) {
         this.text = text;
@@ -23,16 +26,34 @@ public class StatusBarComponent implements Component {
         return text;
     }
 
-    @Override
-    public void render(RenderContext ctx) {
-        int width = ctx.width();
-        int statusRow = Layout.statusBarRow(ctx.height());
-        // Truncate if needed, then pad to fill the whole row with inverse background
+    /** Update the right-aligned readout between frames; empty for none. */
+    public void setReadout(String readout) {
+        this.readout = readout;
+    }
+
+    /**
+     * The whole row as displayed at the given width: the text, truncated
+     * if needed, and the readout if it fits, padded to fill the row.
+     */
+    public String line(int width) {
         String displayText = text.length() > width ? text.substring(0, width) : text;
         StringBuilder padded = new StringBuilder(displayText);
-        while (padded.length() < width) {
+        String right = readout.isEmpty() ? "" : readout + " ";
+        int gap = width - displayText.length() - right.length();
+        boolean showReadout = !right.isEmpty() && gap >= 2;
+        while (padded.length() < (showReadout ? width - right.length() : width)) {
             padded.append(' ');
         }
-        ctx.putString(statusRow, 0, padded.toString(), AttributedStyle.DEFAULT.inverse());
+        if (showReadout) {
+            padded.append(right);
+        }
+        return padded.toString();
+    }
+
+    @Override
+    public void render(RenderContext ctx) {
+        int statusRow = Layout.statusBarRow(ctx.height());
+        // Pad to fill the whole row with inverse background
+        ctx.putString(statusRow, 0, line(ctx.width()), AttributedStyle.DEFAULT.inverse());
     }
 }
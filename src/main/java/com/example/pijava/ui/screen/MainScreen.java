@@ -1,14 +1,20 @@
 package com.example.pijava.ui.screen;
 
 import com.example.pijava.agent.AgentLoop;
+import com.example.pijava.agent.CancellationToken;
+import com.example.pijava.agent.Histogram;
+import com.example.pijava.agent.MetricsRegistry;
 import com.example.pijava.model.Message;
+import com.example.pijava.session.SessionJournal;
 import com.example.pijava.ui.component.*;
 import com.example.pijava.ui.input.Action;
 import com.example.pijava.ui.input.InputHandler;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
@@ -32,11 +38,16 @@ public class MainScreen {
     private static final String[] SPINNER = {
         "\u280b", "\u2819", "\u2839", "\u2838", "\u283c", "\u2834", "\u2826", "\u2827", "\u2807", "\u280f"
     };
+    private static final String THINKING_STATUS = " Thinking\u2026  (ESC cancel)";
+    private static final String CANCELLING_STATUS = " Cancelling\u2026";
     private static final String DEFAULT_STATUS =
         " \u2191\u2193 scroll  |  ESC quit  |  Enter send  |  Ctrl-U clear  |  Shift+drag select ";
+    /** Shows the session's metrics instead of sending a message. */
+    private static final String STATS_COMMAND = "/stats";
 
     private final List<Message> messages = new ArrayList<>();
     private final AgentLoop agentLoop;
+    private final SessionJournal journal;
     private final HeaderComponent header;
     private final StatusBarComponent statusBar;
     private MessageListComponent messageList;
@@ -45,7 +56,20 @@ public class MainScreen {
     private int cursorPos = 0;
 
     public MainScreen(AgentLoop agentLoop) {
+        this(agentLoop, null, List.of());
+    }
+
+    /**
+     * Create a screen that records finished messages in a session journal.
+     *
+     * @param agentLoop the agent, or {@code null} for echo mode
+     * @param journal   the session journal, or {@code null} to keep nothing on disk
+     * @param history   messages of a resumed session to show first
+     */
+    public MainScreen(AgentLoop agentLoop, SessionJournal journal, List<Message> history) {
         this.agentLoop = agentLoop;
+        this.journal = journal;
+        messages.addAll(history);
         String mode = agentLoop != null ? "LLM" : "Echo";
         this.header = new HeaderComponent(
             "  \u2728 pi-java \u2014 AI Code Assistant (" + mode + ")  ",
@@ -126,69 +150,66 @@ public class MainScreen {
                     case Action.Quit ignored -> {
                         return;
                     }
+                    case Action.Submit s when STATS_COMMAND.equals(s.text().strip()) -> {
+                        // Not part of the conversation, so neither sent nor journaled
+                        cursorPos = 0;
+                        messages.add(Message.user(s.text()));
+                        messages.add(Message.assistant(agentLoop != null
+                                ? "Session metrics:\n\n" + agentLoop.metrics().report()
+                                : "No metrics in echo mode."));
+                        messageList.scrollToBottom();
+                    }
                     case Action.Submit s -> {
                         cursorPos = 0;
                         messages.add(Message.user(s.text()));
+                        journalMessages(messages.size() - 1, messages.size());
                         messageList.scrollToBottom();
 
                         if (agentLoop != null) {
                             // Run LLM call on background thread with spinner animation
                             AtomicReference<String> result = new AtomicReference<>();
                             AtomicReference<Exception> error = new AtomicReference<>();
-                            AtomicReference<String> streamedText = new AtomicReference<>("");
-                            var pendingToolMessages = new ConcurrentLinkedQueue<Message>();
+                            StringBuffer streamedText = new StringBuffer();
 
-                            int assistantIndex = messages.size();
+                            int turnStart = messages.size();
+                            var toolFeed = new ToolMessageFeed(turnStart);
                             messages.add(Message.assistant(""));
                             messageList.scrollToBottom();
 
                             // Full render once to show the user message before spinning
-                            statusBar.setText(" " + SPINNER[0] + " Thinking\u2026");
+                            statusBar.setText(" " + SPINNER[0] + THINKING_STATUS);
                             render(terminal, "");
 
+                            var cancellation = new CancellationToken();
                             CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
                                 try {
-                                    result.set(agentLoop.process(s.text(), streamedText::set, toolEvent -> {
-                                        if (toolEvent.type() == AgentLoop.ToolEvent.ToolEventType.TOOL_CALL) {
-                                            String content = "Tool call: " + toolEvent.toolName()
-                                                    + "\nargs: " + toolEvent.payload();
-                                            pendingToolMessages.add(Message.toolCall(content));
-                                        } else {
-                                            String content = "Tool result: " + toolEvent.toolName()
-                                                    + "\n" + toolEvent.payload();
-                                            pendingToolMessages.add(Message.toolResult(content));
-                                        }
-                                    }));
+                                    result.set(agentLoop.process(
+                                            s.text(), streamedText::append, toolFeed::accept, cancellation));
                                 } catch (Exception e) {
                                     error.set(e);
                                 }
                             });
 
                             int frame = 1;
-                            String lastRenderedStream = "";
+                            int lastRenderedLength = 0;
                             while (!future.isDone()) {
-                                String currentStream = streamedText.get();
-                                boolean streamChanged = !Objects.equals(
-                                        lastRenderedStream,
-                                        currentStream);
-
-                                boolean toolMessagesChanged = false;
-                                Message nextToolMessage;
-                                while ((nextToolMessage = pendingToolMessages.poll()) != null) {
-                                    messages.add(assistantIndex, nextToolMessage);
-                                    assistantIndex++;
-                                    toolMessagesChanged = true;
-                                }
+                                // Fragments are only appended, so a length change means new text;
+                                // the buffer is copied once per frame rather than once per chunk.
+                                int currentLength = streamedText.length();
+                                boolean streamChanged = currentLength != lastRenderedLength;
+
+                                boolean toolMessagesChanged = toolFeed.drainInto(messages);
 
                                 if (streamChanged) {
+                                    int assistantIndex = toolFeed.assistantIndex;
                                     var existing = messages.get(assistantIndex);
                                     messages.set(
                                             assistantIndex,
                                             new Message(
-                                                    currentStream,
+                                                    streamedText.toString(),
                                                     Message.MessageType.ASSISTANT,
                                                     existing.timestamp()));
-                                    lastRenderedStream = currentStream;
+                                    lastRenderedLength = currentLength;
                                 }
 
                                 if (streamChanged || toolMessagesChanged) {
@@ -196,30 +217,36 @@ public class MainScreen {
                                 }
 
                                 String spin = SPINNER[frame % SPINNER.length];
-                                statusBar.setText(" " + spin + " Thinking\u2026");
+                                statusBar.setText(" " + spin + (cancellation.isCancelled()
+                                        ? CANCELLING_STATUS : THINKING_STATUS));
+                                statusBar.setReadout(metricsReadout());
                                 if (streamChanged || toolMessagesChanged) {
                                     render(terminal, "");
                                 } else {
                                     renderStatusBarOnly(terminal);
                                 }
                                 frame++;
-                                try {
-                                    Thread.sleep(100);
-                                } catch (InterruptedException ie) {
-                                    Thread.currentThread().interrupt();
-                                    break;
+
+                                // Wait for the next frame while still listening for ESC / Ctrl-C
+                                int turnKey = reader.read(100);
+                                if (turnKey >= 0) {
+                                    Action turnAction = handler.handle(turnKey, reader);
+                                    if (turnAction instanceof Action.Quit) {
+                                        cancellation.cancel();
+                                    } else if (turnAction instanceof Action.ScrollUp su) {
+                                        messageList.scrollUp(su.amount());
+                                        render(terminal, "");
+                                    } else if (turnAction instanceof Action.ScrollDown sd) {
+                                        messageList.scrollDown(sd.amount());
+                                        render(terminal, "");
+                                    }
                                 }
                             }
 
                             // Flush any remaining tool events that may have arrived
                             // between the last spinner tick and completion.
-                            Message trailingToolMessage;
-                            boolean trailingToolMessagesChanged = false;
-                            while ((trailingToolMessage = pendingToolMessages.poll()) != null) {
-                                messages.add(assistantIndex, trailingToolMessage);
-                                assistantIndex++;
-                                trailingToolMessagesChanged = true;
-                            }
+                            boolean trailingToolMessagesChanged = toolFeed.drainInto(messages);
+                            int assistantIndex = toolFeed.assistantIndex;
 
                             if (error.get() != null) {
                                 messages.set(assistantIndex,
@@ -227,16 +254,19 @@ public class MainScreen {
                             } else if (result.get() != null) {
                                 messages.set(assistantIndex, Message.assistant(result.get()));
                             } else {
-                                messages.set(assistantIndex, Message.assistant(streamedText.get()));
+                                messages.set(assistantIndex, Message.assistant(streamedText.toString()));
                             }
+                            journalMessages(turnStart, assistantIndex + 1);
                             messageList.scrollToBottom();
                             statusBar.setText(DEFAULT_STATUS);
+                            statusBar.setReadout(metricsReadout());
 
                             if (trailingToolMessagesChanged) {
                                 render(terminal, "");
                             }
                         } else {
                             messages.add(Message.assistant(s.text()));
+                            journalMessages(messages.size() - 1, messages.size());
                             messageList.scrollToBottom();
                         }
                     }
@@ -291,6 +321,88 @@ public class MainScreen {
         }
     }
 
+    /**
+     * Tool events of the running turn, queued by the agent thread and
+     * applied to the message list on the UI thread. Progress snapshots of a
+     * call update one live message in place, which the call's result then
+     * replaces.
+     */
+    private static final class ToolMessageFeed {
+
+        private final Queue<AgentLoop.ToolEvent> pending = new ConcurrentLinkedQueue<>();
+        /** Message index of each call that is showing live output. */
+        private final Map<String, Integer> live = new HashMap<>();
+        /** Index of the streamed assistant message, after the tool messages. */
+        int assistantIndex;
+
+        ToolMessageFeed(int assistantIndex) {
+            this.assistantIndex = assistantIndex;
+        }
+
+        void accept(AgentLoop.ToolEvent event) {
+            pending.add(event);
+        }
+
+        /** Apply queued events; returns whether any message changed. */
+        boolean drainInto(List<Message> messages) {
+            boolean changed = false;
+            AgentLoop.ToolEvent event;
+            while ((event = pending.poll()) != null) {
+                switch (event.type()) {
+                    case TOOL_CALL -> insert(messages, Message.toolCall(
+                            "Tool call: " + event.toolName() + "\nargs: " + event.payload()));
+                    case PROGRESS -> {
+                        var message = Message.toolResult(
+                                "Running " + event.toolName() + "\u2026\n" + event.payload());
+                        var index = live.get(event.toolCallId());
+                        if (index != null) {
+                            messages.set(index, message);
+                        } else {
+                            live.put(event.toolCallId(), insert(messages, message));
+                        }
+                    }
+                    case TOOL_RESULT -> {
+                        var message = Message.toolResult(
+                                "Tool result: " + event.toolName() + "\n" + event.payload());
+                        var index = live.remove(event.toolCallId());
+                        if (index != null) {
+                            messages.set(index, message);
+                        } else {
+                            insert(messages, message);
+                        }
+                    }
+                }
+                changed = true;
+            }
+            return changed;
+        }
+
+        private int insert(List<Message> messages, Message message) {
+            messages.add(assistantIndex, message);
+            return assistantIndex++;
+        }
+    }
+
+    /** Latest time to first token, streaming rate and tool time, e.g. for the status bar. */
+    private String metricsReadout() {
+        var metrics = agentLoop.metrics();
+        var parts = new ArrayList<String>(3);
+        metrics.last(MetricsRegistry.TIME_TO_FIRST_TOKEN).ifPresent(value ->
+                parts.add("TTFT " + Histogram.Unit.MICROSECONDS.format(value)));
+        metrics.last(MetricsRegistry.TOKENS_PER_SECOND).ifPresent(value ->
+                parts.add(Histogram.Unit.TOKENS_PER_SECOND.format(value)));
+        metrics.last(MetricsRegistry.TOOL).ifPresent(value ->
+                parts.add("tool " + Histogram.Unit.MICROSECONDS.format(value)));
+        return String.join("  \u00b7  ", parts);
+    }
+
+    /** Record the finished messages {@code [from, to)} in the session journal. */
+    private void journalMessages(int from, int to) {
+        if (journal != null) {
+            messages.subList(from, to).forEach(journal::messageAppended);
+        }
+    }
+
     private void render(Terminal terminal, String inputLine) throws IOException {
         RenderContext ctx = new RenderContext(terminal.getSize());
 
@@ -369,15 +481,8 @@ public class MainScreen {
 
         AttributedStringBuilder builder = new AttributedStringBuilder();
         // Fill with inverse background then overlay text
-        String displayText = statusBar.getText();
-        if (displayText.length() > width) {
-            displayText = displayText.substring(0, width);
-        }
         builder.style(AttributedStyle.DEFAULT.inverse());
-        builder.append(displayText);
-        while (builder.length() < width) {
-            builder.append(' ');
-        }
+        builder.append(statusBar.line(width));
 
         terminal.writer().write(builder.toAttributedString().toAnsi(terminal));
         terminal.writer().write("\033[?25h");
@@ -0,0 +1,127 @@
+package com.example.pijava.agent.tool;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The trigram constraints may only rule out files that cannot match: every
+ * case here compares candidate selection with {@link Pattern#matcher}'s
+ * {@code find()} on the same line-based content {@link SearchCodeTool}
+ * searches.
+ */
+class TrigramQueryTest {
+
+    private static final List<String> REGEXES = List.of(
+            "hello",
+            "foo.*bar",
+            "a+bcd",
+            "colou?r",
+            "abc|xyz",
+            "\\x41BCD",
+            "\\x{41}BCD",
+            "\\u0041BCD",
+            "\\0101BCD",
+            "\\N{LATIN CAPITAL LETTER A}BCD",
+            "\\p{Lu}BCD",
+            "\\pLBCD",
+            "\\cJ?abcd",
+            "(a)\\1bcd",
+            "(?<g>a)\\k<g>bcd",
+            "\\Q(\\E|abc",
+            "\\Qa|b\\Ecd",
+            "(?x)a b c",
+            "(?iu)kelvin",
+            "(?U)kelvin",
+            "kelvin",
+            "kelvinä",
+            "stopé",
+            "istanbulı");
+
+    private static final List<String> CONTENTS = List.of(
+            "hello world\n",
+            "foo and bar\n",
+            "aaabcd\n",
+            "color\n",
+            "xyz\n",
+            "ABCD\n",
+            "aabcd\n",
+            "(\n",
+            "a|bcd\n",
+            "abc\n",
+            "\u212Aelvin\n",
+            "\u212AELVINÄ\n",
+            "ſTOPÉ\n",
+            "İSTANBULI\n");
+
+    @Test
+    void regexCandidatesIncludeEveryMatch() {
+        for (var regex : REGEXES) {
+            for (var content : CONTENTS) {
+                for (boolean ignoreCase : new boolean[] {false, true}) {
+                    var pattern = Pattern.compile(regex, TrigramQuery.patternFlags(regex, ignoreCase));
+                    if (matches(pattern, content)) {
+                        assertTrue(candidate(TrigramQuery.forRegex(regex, ignoreCase), content),
+                                () -> "/" + regex + "/ (ignoreCase " + ignoreCase + ") matches " + content
+                                        + " but the index rules it out");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void literalCandidatesIncludeEveryMatch() {
+        for (var literal : List.of("hello", "a|bcd", "kelvin", "kelvinä", "stopé", "istanbulı", "ELVIN")) {
+            for (var content : CONTENTS) {
+                for (boolean ignoreCase : new boolean[] {false, true}) {
+                    var pattern = Pattern.compile(Pattern.quote(literal),
+                            TrigramQuery.patternFlags(literal, ignoreCase));
+                    if (matches(pattern, content)) {
+                        assertTrue(candidate(TrigramQuery.forLiteral(literal, ignoreCase), content),
+                                () -> "'" + literal + "' (ignoreCase " + ignoreCase + ") matches " + content
+                                        + " but the index rules it out");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void plainTextStillConstrainsTheSearch() {
+        assertFalse(candidate(TrigramQuery.forLiteral("hello", false), "goodbye\n"));
+        assertFalse(candidate(TrigramQuery.forLiteral("hello", true), "goodbye\n"));
+        assertFalse(candidate(TrigramQuery.forRegex("foo.*bar", false), "foo only\n"));
+        assertFalse(candidate(TrigramQuery.forRegex("\\x41BCD", false), "nothing\n"));
+        assertNotNull(TrigramQuery.forRegex("(a)\\1bcd", false));
+    }
+
+    @Test
+    void unfollowableRegexesGiveNoConstraint() {
+        assertNull(TrigramQuery.forRegex("(?x)a b c", false));
+        assertNull(TrigramQuery.forRegex("(?iu)kelvin", false));
+        assertNull(TrigramQuery.forRegex(".*", false));
+    }
+
+    private static boolean matches(Pattern pattern, String content) {
+        return content.lines().anyMatch(line -> pattern.matcher(line).find());
+    }
+
+    /** Whether the index would search a file with this content. */
+    private static boolean candidate(List<int[]> alternatives, String content) {
+        if (alternatives == null) {
+            return true;
+        }
+        var bytes = content.getBytes(StandardCharsets.UTF_8);
+        var present = TrigramQuery.trigrams(bytes, bytes.length);
+        return alternatives.stream().anyMatch(required -> Arrays.stream(required)
+                .allMatch(trigram -> Arrays.binarySearch(present, trigram) >= 0));
+    }
+}